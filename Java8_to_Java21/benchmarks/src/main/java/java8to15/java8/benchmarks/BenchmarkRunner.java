@@ -0,0 +1,21 @@
+package java8to15.java8.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks whose name matches the first argument (all of them by
+ * default) with the GC profiler on, so every result comes with
+ * {@code gc.alloc.rate.norm} (bytes allocated per operation) and the GC count.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = (args.length > 0) ? args[0] : ".*";
+		Options options = new OptionsBuilder().include(include).addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
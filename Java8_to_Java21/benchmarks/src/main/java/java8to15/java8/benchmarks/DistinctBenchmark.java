@@ -0,0 +1,71 @@
+package java8to15.java8.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java8.collectors.PrimitiveDistinct;
+
+/**
+ * {@code IntStream.distinct()}, which boxes every value into a
+ * {@code HashSet}, against {@link PrimitiveDistinct}.
+ * <ul>
+ * <li>{@code size} : number of values</li>
+ * <li>{@code bounded} : true draws from a range of {@code size / 2} values
+ * (the bitmap path), false from a range wider than that (the open-addressing
+ * set)</li>
+ * <li>{@code distinctIntArray} : the {@code int[]} at once;
+ * {@code distinctIntStream} : the lazy sequential stream</li>
+ * </ul>
+ * i.e. {@code java -jar benchmarks.jar DistinctBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class DistinctBenchmark {
+
+	@Param({ "10000000" })
+	public int size;
+
+	@Param({ "true", "false" })
+	public boolean bounded;
+
+	private int[] values;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		values = bounded ? random.ints(size, 1_000_000, 1_000_000 + size / 2).toArray()
+				: random.ints(size).map(value -> value % (size / 2 * 3)).toArray();
+	}
+
+	@Benchmark
+	public int[] intStreamDistinct() {
+		return Arrays.stream(values).distinct().toArray();
+	}
+
+	@Benchmark
+	public int[] distinctIntArray() {
+		return PrimitiveDistinct.distinct(values);
+	}
+
+	@Benchmark
+	public long distinctIntStream() {
+		return PrimitiveDistinct.distinct(Arrays.stream(values)).count();
+	}
+}
@@ -0,0 +1,63 @@
+package java8to15.java8.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java9.BatchingSubscriber;
+import java8to15.java9.GeneratorPublisher;
+
+/**
+ * A fast subscriber draining {@code Stream.iterate(0L, n -> n + 1).limit(size)}
+ * through {@link GeneratorPublisher}, i.e. what demand-driven delivery costs
+ * per element.
+ * <ul>
+ * <li>{@code batch} : the {@link BatchingSubscriber} buffer, it requests half
+ * of it at a time, so batch 1 is one {@code request()} per element</li>
+ * <li>everything runs on the calling thread ({@code Runnable::run}), the time
+ * is the publisher and the subscriber, not a pool hand-off</li>
+ * </ul>
+ * i.e. {@code java -jar benchmarks.jar GeneratorPublisherBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeneratorPublisherBenchmark {
+
+	@Param({ "10000000" })
+	public long size;
+
+	@Param({ "1", "16", "256", "4096" })
+	public int batch;
+
+	@Benchmark
+	public long generatorPublisher() {
+		AtomicLong sum = new AtomicLong();
+		BatchingSubscriber<Long> subscriber = new BatchingSubscriber<>(sum::addAndGet, batch, Runnable::run);
+		GeneratorPublisher.fromStream(() -> Stream.iterate(0L, n -> n + 1).limit(size)).subscribe(subscriber);
+		subscriber.completion().join();
+		return sum.get();
+	}
+
+	/* the same elements without a publisher in between */
+	@Benchmark
+	public long plainStream() {
+		AtomicLong sum = new AtomicLong();
+		Stream.iterate(0L, n -> n + 1).limit(size).forEach(sum::addAndGet);
+		return sum.get();
+	}
+}
@@ -0,0 +1,81 @@
+package java8to15.java8.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java8.collectors.IntGroups;
+
+/**
+ * {@code Collectors.groupingBy()} on an int key against
+ * {@link IntGroups#groupingBy(java.util.function.ToIntFunction)}.
+ * <ul>
+ * <li>{@code size} : number of strings, {@code "x".repeat(i % 20) + i}</li>
+ * <li>{@code parallel} : {@code parallelStream()} instead of
+ * {@code stream()}</li>
+ * <li>{@code ...ByLength} : 26 groups, the dense array path;
+ * {@code ...ByHash} : {@code hashCode() % 1_000_000}, ~1.8M groups at 10M,
+ * the open-addressing path</li>
+ * </ul>
+ * i.e. {@code java -jar benchmarks.jar IntGroupsBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class IntGroupsBenchmark {
+
+	@Param({ "10000000" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private List<String> strings;
+
+	@Setup
+	public void setUp() {
+		strings = IntStream.range(0, size).mapToObj(i -> "x".repeat(i % 20) + i).collect(Collectors.toList());
+	}
+
+	private Stream<String> stream() {
+		return parallel ? strings.parallelStream() : strings.stream();
+	}
+
+	@Benchmark
+	public Map<Integer, List<String>> collectorsByLength() {
+		return stream().collect(Collectors.groupingBy(name -> name.length()));
+	}
+
+	@Benchmark
+	public IntGroups<String> intGroupsByLength() {
+		return stream().collect(IntGroups.groupingBy(name -> name.length()));
+	}
+
+	@Benchmark
+	public Map<Integer, List<String>> collectorsByHash() {
+		return stream().collect(Collectors.groupingBy(name -> name.hashCode() % 1_000_000));
+	}
+
+	@Benchmark
+	public IntGroups<String> intGroupsByHash() {
+		return stream().collect(IntGroups.groupingBy(name -> name.hashCode() % 1_000_000));
+	}
+}
@@ -0,0 +1,59 @@
+package java8to15.java8.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java8.collectors.JoiningCollectors;
+
+/**
+ * {@code Collectors.joining(", ", "[", "]")} against
+ * {@link JoiningCollectors#joining(CharSequence, CharSequence, CharSequence)}
+ * on a parallel stream of {@code "item-" + i}.
+ * <ul>
+ * <li>{@code size} : number of strings, 10M makes a ~140 MB result</li>
+ * </ul>
+ * The copies show up in the allocation more than in the time, run with
+ * {@code -prof gc}, i.e. {@code java -jar benchmarks.jar JoiningBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class JoiningBenchmark {
+
+	@Param({ "10000000" })
+	public int size;
+
+	private List<String> strings;
+
+	@Setup
+	public void setUp() {
+		strings = IntStream.range(0, size).mapToObj(i -> "item-" + i).collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public String collectorsJoining() {
+		return strings.parallelStream().collect(Collectors.joining(", ", "[", "]"));
+	}
+
+	@Benchmark
+	public String joiningCollectors() {
+		return strings.parallelStream().collect(JoiningCollectors.joining(", ", "[", "]"));
+	}
+}
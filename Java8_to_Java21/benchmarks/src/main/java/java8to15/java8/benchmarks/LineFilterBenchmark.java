@@ -0,0 +1,106 @@
+package java8to15.java8.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java8.io.LineMatcher;
+import java8to15.java8.io.MappedLineReader;
+
+/**
+ * Counting the lines of a log file that contain a substring, the first step of
+ * most {@code Streams.readFilesUsingStreams()} style pipelines.
+ * <ul>
+ * <li>{@code filesLines} : {@code Files.lines(path).filter(line -> line.contains(needle))},
+ * every line becomes a String</li>
+ * <li>{@code mappedDecodeThenFilter} : same filter on
+ * {@code MappedLineReader.lines()}</li>
+ * <li>{@code mappedByteFilter} : {@code MappedLineReader.lines(LineMatcher.contains(needle))},
+ * only the matching lines are decoded</li>
+ * </ul>
+ * {@code needle} : "ERROR" is in 1 of 17 lines, "request 4242 " in one line.
+ * The point is the allocation, run with {@code -prof gc} (or through
+ * {@link BenchmarkRunner}) and compare {@code gc.alloc.rate.norm}, i.e.
+ * {@code java -jar benchmarks.jar LineFilterBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineFilterBenchmark {
+
+	@Param({ "64" })
+	public int megabytes;
+
+	@Param({ "ERROR", "request 4242 " })
+	public String needle;
+
+	private Path file;
+	private MappedLineReader reader;
+	private LineMatcher matcher;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		file = Files.createTempFile("lines", ".txt");
+		long targetBytes = megabytes * 1024L * 1024L;
+		long written = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+			for (long i = 0; written < targetBytes; i++) {
+				String line = "2024-01-01T00:00:00." + (i % 1000) + " " + ((i % 17 == 0) ? "ERROR" : "INFO")
+						+ " request " + i + " served in " + (i % 250) + " ms";
+				writer.write(line);
+				writer.write('\n');
+				written += line.length() + 1;
+			}
+		}
+		reader = MappedLineReader.open(file);
+		matcher = LineMatcher.contains(needle);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public long filesLines() throws IOException {
+		try (Stream<String> lines = Files.lines(file)) {
+			return lines.filter(line -> line.contains(needle)).count();
+		}
+	}
+
+	@Benchmark
+	public long mappedDecodeThenFilter() {
+		return reader.lines().filter(line -> line.contains(needle)).count();
+	}
+
+	@Benchmark
+	public long mappedByteFilter() {
+		return reader.lines(matcher).count();
+	}
+
+	@Benchmark
+	public long mappedByteFilterParallel() {
+		return reader.lines(matcher).parallel().count();
+	}
+}
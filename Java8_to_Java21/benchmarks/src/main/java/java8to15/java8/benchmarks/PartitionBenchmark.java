@@ -0,0 +1,75 @@
+package java8to15.java8.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java8.collectors.PrimitivePartitions;
+
+/**
+ * The {@code partitioningBy(number -> number > 50)} of
+ * {@code Streams.collect_TerminalOperation()} on a parallel
+ * {@code Stream<Integer>} against the {@link PrimitivePartitions} variants.
+ * <ul>
+ * <li>{@code size} : number of values, 0..99 so about half of them match</li>
+ * <li>{@code partitionIntStream} / {@code countIntStream} : a parallel
+ * {@code IntStream}; {@code partitionIntArray} : the {@code int[]} itself,
+ * selected into a bitset first</li>
+ * </ul>
+ * i.e. {@code java -jar benchmarks.jar PartitionBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class PartitionBenchmark {
+
+	@Param({ "10000000" })
+	public int size;
+
+	private int[] values;
+	private List<Integer> boxedValues;
+
+	@Setup
+	public void setUp() {
+		values = new Random(42).ints(size, 0, 100).toArray();
+		boxedValues = Arrays.stream(values).boxed().collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public Map<Boolean, List<Integer>> partitioningBy() {
+		return boxedValues.parallelStream().collect(Collectors.partitioningBy(number -> number > 50));
+	}
+
+	@Benchmark
+	public PrimitivePartitions.IntPartition partitionIntStream() {
+		return PrimitivePartitions.partition(Arrays.stream(values).parallel(), number -> number > 50);
+	}
+
+	@Benchmark
+	public PrimitivePartitions.IntPartition partitionIntArray() {
+		return PrimitivePartitions.partition(values, number -> number > 50);
+	}
+
+	@Benchmark
+	public PrimitivePartitions.Counts countIntStream() {
+		return PrimitivePartitions.count(Arrays.stream(values).parallel(), number -> number > 50);
+	}
+}
@@ -0,0 +1,100 @@
+package java8to15.java8.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8.utility.Person;
+import java8.utility.PersonSorter;
+import java8to15.java8.collectors.KeySort;
+
+/**
+ * The {@code Person} sorts of {@code Streams.intermediateOperators()},
+ * {@code sorted(Comparator.comparing(Person::getAge))} against
+ * {@link KeySort}, which extracts the keys once and sorts packed primitive
+ * keys with {@code Arrays.parallelSort()}.
+ * <ul>
+ * <li>{@code size} : number of people, ages 0..99 so there are long runs of
+ * equal ages for the {@code thenComparing(Person::getName)} variants</li>
+ * <li>{@code personSorter...} : {@link PersonSorter} on a copy of the list,
+ * the same order as {@code ...ByAgeThenName} since {@code Person.compareTo}
+ * is age, then name</li>
+ * </ul>
+ * i.e. {@code java -jar benchmarks.jar PersonSortBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class PersonSortBenchmark {
+
+	@Param({ "10000000" })
+	public int size;
+
+	private List<Person> people;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		people = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			people.add(new Person("name-" + random.nextInt(size), random.nextInt(100)));
+	}
+
+	@Benchmark
+	public List<Person> comparatorByAge() {
+		return people.stream().sorted(Comparator.comparing(Person::getAge)).collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<Person> parallelComparatorByAge() {
+		return people.parallelStream().sorted(Comparator.comparing(Person::getAge)).collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<Person> keySortByAge() {
+		return KeySort.comparingInt(Person::getAge).sorted(people);
+	}
+
+	@Benchmark
+	public List<Person> comparatorByAgeThenName() {
+		return people.stream().sorted(Comparator.comparing(Person::getAge).thenComparing(Person::getName))
+				.collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<Person> keySortByAgeThenName() {
+		return KeySort.comparingInt(Person::getAge).thenComparing(Person::getName).sorted(people);
+	}
+
+	@Benchmark
+	public List<Person> personSorter() {
+		List<Person> sorted = new ArrayList<>(people);
+		PersonSorter.sort(sorted);
+		return sorted;
+	}
+
+	@Benchmark
+	public List<Person> personSorterParallel() {
+		List<Person> sorted = new ArrayList<>(people);
+		PersonSorter.parallelSort(sorted);
+		return sorted;
+	}
+}
@@ -0,0 +1,86 @@
+package java8to15.java8.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java8.probe.PipelineProbe;
+
+/**
+ * What a {@link PipelineProbe} adds to a filter / filter / filter / map
+ * pipeline (the one of {@code PipelineProbe.main}).
+ * <ul>
+ * <li>{@code size} : number of values, 0..999,999</li>
+ * <li>{@code sampleEvery} : 0 is {@code PipelineProbe.disabled()} (the
+ * lambdas as they are), otherwise {@code PipelineProbe.sampling(sampleEvery)},
+ * 1 times every call</li>
+ * <li>{@code parallel} : {@code parallel()} on the source</li>
+ * </ul>
+ * i.e. {@code java -jar benchmarks.jar PipelineProbeBenchmark -p sampleEvery=0,64}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineProbeBenchmark {
+
+	@Param({ "10000000" })
+	public int size;
+
+	@Param({ "0", "64", "1" })
+	public int sampleEvery;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private int[] values;
+	private PipelineProbe probe;
+
+	@Setup
+	public void setUp() {
+		values = new Random(42).ints(size, 0, 1_000_000).toArray();
+		probe = (sampleEvery == 0) ? PipelineProbe.disabled() : PipelineProbe.sampling(sampleEvery);
+	}
+
+	@Benchmark
+	public long probedPipeline() {
+		IntStream stream = Arrays.stream(values);
+		return (parallel ? stream.parallel() : stream)
+				.filter(probe.filterInt("odd", value -> value % 2 == 1))
+				.filter(probe.filterInt("digit sum > 20", value -> digitSum(value) > 20))
+				.filter(probe.filterInt("prime", PipelineProbeBenchmark::isPrime))
+				.map(probe.mapInt("squared mod 1000", value -> (int) ((long) value * value % 1000)))
+				.count();
+	}
+
+	private static int digitSum(int value) {
+		int sum = 0;
+		for (; value > 0; value /= 10)
+			sum += value % 10;
+		return sum;
+	}
+
+	private static boolean isPrime(int value) {
+		if (value < 2)
+			return false;
+		for (int divisor = 2; (long) divisor * divisor <= value; divisor++)
+			if (value % divisor == 0)
+				return false;
+		return true;
+	}
+}
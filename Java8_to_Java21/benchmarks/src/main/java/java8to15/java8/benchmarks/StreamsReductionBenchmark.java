@@ -0,0 +1,144 @@
+package java8to15.java8.benchmarks;
+
+import java.util.ArrayList;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The reductions of {@code Streams.snippets()}, {@code Streams.primitiveStream()}
+ * and {@code Streams.collect_TerminalOperation()}, boxed
+ * {@code Stream<Integer>} against {@code IntStream}.
+ * <ul>
+ * <li>{@code size} : 1K to 100M elements (values 0..999, so most are not in
+ * the {@code Integer} cache)</li>
+ * <li>{@code parallelism} : 0 runs the sequential stream, anything else runs
+ * {@code parallel()} inside a {@code ForkJoinPool} of that many threads</li>
+ * </ul>
+ * Run with {@code -prof gc} (or through {@link BenchmarkRunner}) to get the
+ * allocation rate next to the time, i.e.
+ * {@code java -jar benchmarks.jar StreamsReductionBenchmark -prof gc -p size=1000000 -p parallelism=0,4}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class StreamsReductionBenchmark {
+
+	@Param({ "1000", "100000", "10000000", "100000000" })
+	public int size;
+
+	@Param({ "0", "2", "4", "8" })
+	public int parallelism;
+
+	private int[] ints;
+	private List<Integer> integers;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		ints = new int[size];
+		integers = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			ints[i] = random.nextInt(1000);
+			integers.add(ints[i]);
+		}
+		pool = (parallelism == 0) ? null : new ForkJoinPool(parallelism);
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	private Stream<Integer> boxed() {
+		return (pool == null) ? integers.stream() : integers.parallelStream();
+	}
+
+	private IntStream primitive() {
+		IntStream stream = IntStream.of(ints);
+		return (pool == null) ? stream : stream.parallel();
+	}
+
+	/**
+	 * a parallel stream runs in the pool of the thread that starts the terminal
+	 * operation
+	 */
+	private <T> T run(Supplier<T> pipeline) {
+		return (pool == null) ? pipeline.get() : pool.submit(pipeline::get).join();
+	}
+
+	/* Streams.snippets() : numbers.stream().reduce(Integer::sum) */
+	@Benchmark
+	public Integer boxedReduceSum() {
+		return run(() -> boxed().reduce(Integer::sum).orElse(0));
+	}
+
+	/* Streams.snippets() : numbers.stream().reduce(Integer::max) */
+	@Benchmark
+	public Integer boxedReduceMax() {
+		return run(() -> boxed().reduce(Integer::max).orElse(0));
+	}
+
+	@Benchmark
+	public Integer boxedMapToIntSum() {
+		return run(() -> boxed().mapToInt(Integer::intValue).sum());
+	}
+
+	/* Streams.primitiveStream() : IntStream.of(intArr).sum() */
+	@Benchmark
+	public Integer intStreamSum() {
+		return run(() -> primitive().sum());
+	}
+
+	@Benchmark
+	public Integer intStreamMax() {
+		return run(() -> primitive().max().orElse(0));
+	}
+
+	/* Streams.collect_TerminalOperation() : Collectors.summingInt(num -> num) */
+	@Benchmark
+	public Integer summingIntCollector() {
+		return run(() -> boxed().collect(Collectors.summingInt(num -> num)));
+	}
+
+	/* Streams.collect_TerminalOperation() : Collectors.averagingInt(num -> num) */
+	@Benchmark
+	public Double averagingIntCollector() {
+		return run(() -> boxed().collect(Collectors.averagingInt(num -> num)));
+	}
+
+	@Benchmark
+	public Double intStreamAverage() {
+		return run(() -> primitive().average().orElse(0));
+	}
+
+	/* Streams.primitiveStream() : IntStream.of(intArr).summaryStatistics() */
+	@Benchmark
+	public IntSummaryStatistics intStreamSummaryStatistics() {
+		return run(() -> primitive().summaryStatistics());
+	}
+}
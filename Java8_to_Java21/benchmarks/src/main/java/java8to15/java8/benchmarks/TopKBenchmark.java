@@ -0,0 +1,70 @@
+package java8to15.java8.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java8to15.java8.collectors.TopK;
+
+/**
+ * {@code sorted().limit(k)} against the bounded heaps of {@link TopK}.
+ * <ul>
+ * <li>{@code size} : number of random ints</li>
+ * <li>{@code k} : how many of the smallest are kept</li>
+ * <li>{@code topK} : {@code Stream<Integer>} into {@code TopK.smallest(k)};
+ * {@code intTopK} : the {@code IntStream} variant, no boxing at all</li>
+ * </ul>
+ * i.e. {@code java -jar benchmarks.jar TopKBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class TopKBenchmark {
+
+	@Param({ "10000000" })
+	public int size;
+
+	@Param({ "100" })
+	public int k;
+
+	private int[] values;
+	private List<Integer> boxed;
+
+	@Setup
+	public void setUp() {
+		values = new Random(42).ints(size).toArray();
+		boxed = Arrays.stream(values).boxed().collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<Integer> sortedLimit() {
+		return boxed.stream().sorted().limit(k).collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<Integer> topK() {
+		return boxed.stream().collect(TopK.smallest(k));
+	}
+
+	@Benchmark
+	public int[] intTopK() {
+		return TopK.smallest(Arrays.stream(values), k);
+	}
+}
@@ -0,0 +1,72 @@
+package java8.utility;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lets {@code close()} free direct or mapped buffers right away without
+ * pulling them from under a reader on another thread.
+ * <ul>
+ * <li>every read of the buffers is wrapped in {@link #enter()} /
+ * {@link #exit()}, which count the reads in flight</li>
+ * <li>{@link #close()} stops new reads ({@code enter()} throws
+ * {@code IllegalStateException} from then on) and frees the buffers when no
+ * read is in flight; otherwise the last read to {@code exit()} frees them</li>
+ * </ul>
+ * So a buffer is freed exactly once and never while it is being read. Keep
+ * the guarded sections short (one record, one line, one block), a section left
+ * open keeps the memory alive.
+ */
+public final class BufferGuard {
+
+	/** sign bit of the state, the other bits count the reads in flight */
+	private static final int CLOSED = Integer.MIN_VALUE;
+
+	private final AtomicInteger state = new AtomicInteger();
+	private final Runnable free;
+	private final String name;
+
+	/**
+	 * @param free releases the buffers, i.e. {@code DirectBuffers::free} on
+	 *             each of them
+	 * @param name what the exception after {@code close()} calls it
+	 */
+	public BufferGuard(Runnable free, String name) {
+		this.free = free;
+		this.name = name;
+	}
+
+	/**
+	 * starts a read, {@link #exit()} must follow in a {@code finally}
+	 *
+	 * @throws IllegalStateException if closed
+	 */
+	public void enter() {
+		while (true) {
+			int current = state.get();
+			if (current < 0)
+				throw new IllegalStateException(name + " is closed");
+			if (current == Integer.MAX_VALUE)
+				throw new IllegalStateException("too many reads in flight");
+			if (state.compareAndSet(current, current + 1))
+				return;
+		}
+	}
+
+	public void exit() {
+		if (state.decrementAndGet() == CLOSED)
+			free.run(); // closed while this read was the last one in flight
+	}
+
+	public boolean isOpen() {
+		return state.get() >= 0;
+	}
+
+	/**
+	 * idempotent; frees now if nothing is being read
+	 */
+	public void close() {
+		int previous = state.getAndUpdate(current -> current | CLOSED);
+		if (previous == 0)
+			free.run();
+	}
+}
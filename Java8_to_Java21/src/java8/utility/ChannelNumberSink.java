@@ -0,0 +1,169 @@
+package java8.utility;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link NumberSink} that formats into one reusable direct {@code ByteBuffer}
+ * and only touches the channel when the buffer is full (or on
+ * {@code flush()}/{@code close()}).
+ * <ul>
+ * <li>{@code long} values are written digit by digit into the buffer, there is
+ * no {@code String} or {@code String} concatenation per element</li>
+ * <li>text is encoded to UTF-8 char by char, again without allocating</li>
+ * <li>{@code double} values go through {@code Double.toString()}, which does
+ * allocate</li>
+ * </ul>
+ * Not thread-safe, use one sink per thread (or per pipeline).
+ */
+public class ChannelNumberSink implements NumberSink {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/** digits of Long.MIN_VALUE plus the sign */
+	private static final int MAX_LONG_LENGTH = 20;
+
+	private final WritableByteChannel channel;
+	private final boolean closeChannel;
+	private final ByteBuffer buffer;
+
+	public ChannelNumberSink(WritableByteChannel channel, int bufferSize, boolean closeChannel) {
+		if (bufferSize < MAX_LONG_LENGTH)
+			throw new IllegalArgumentException("bufferSize must be at least " + MAX_LONG_LENGTH + ": " + bufferSize);
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * @return a sink writing to the process' stdout, {@code close()} flushes but
+	 *         leaves stdout open. {@code System.out} is flushed first so earlier
+	 *         output is not reordered.
+	 */
+	@SuppressWarnings("resource")
+	public static ChannelNumberSink stdout() {
+		System.out.flush();
+		return new ChannelNumberSink(new FileOutputStream(FileDescriptor.out).getChannel(), DEFAULT_BUFFER_SIZE,
+				false);
+	}
+
+	/**
+	 * @return a sink that creates (or truncates) the file and closes it on
+	 *         {@code close()}
+	 */
+	public static ChannelNumberSink toFile(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		return new ChannelNumberSink(channel, DEFAULT_BUFFER_SIZE, true);
+	}
+
+	@Override
+	public NumberSink print(long value) {
+		ensureRemaining(MAX_LONG_LENGTH);
+		int length = stringSize(value);
+		int start = buffer.position();
+		int index = start + length;
+		// negative arithmetic so Long.MIN_VALUE does not overflow on negation
+		long remaining = (value < 0) ? value : -value;
+		do {
+			long quotient = remaining / 10;
+			buffer.put(--index, (byte) ('0' + (quotient * 10 - remaining)));
+			remaining = quotient;
+		} while (remaining != 0);
+		if (value < 0)
+			buffer.put(start, (byte) '-');
+		buffer.position(start + length);
+		return this;
+	}
+
+	@Override
+	public NumberSink print(double value) {
+		return print(Double.toString(value));
+	}
+
+	@Override
+	public NumberSink print(CharSequence text) {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				ensureRemaining(1);
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				ensureRemaining(2);
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				ensureRemaining(4);
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				ensureRemaining(1);
+				buffer.put((byte) '?'); // unpaired surrogate, same as String.getBytes(UTF_8)
+			} else {
+				ensureRemaining(3);
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public NumberSink newLine() {
+		ensureRemaining(1);
+		buffer.put((byte) '\n');
+		return this;
+	}
+
+	@Override
+	public void flush() {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			flush();
+		} finally {
+			if (closeChannel) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	private void ensureRemaining(int bytes) {
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	private static int stringSize(long value) {
+		int length = (value < 0) ? 2 : 1;
+		for (long remaining = (value < 0) ? value : -value; remaining <= -10; remaining /= 10)
+			length++;
+		return length;
+	}
+}
@@ -0,0 +1,47 @@
+package java8.utility;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Frees direct and mapped {@code ByteBuffer}s right away through
+ * {@code sun.misc.Unsafe.invokeCleaner()} (jdk.unsupported), if it is not
+ * there the buffer is simply left to the GC. The buffer must not be used after
+ * it is freed.
+ */
+public final class DirectBuffers {
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private DirectBuffers() {
+	}
+
+	public static void free(ByteBuffer buffer) {
+		if (INVOKE_CLEANER == null || !buffer.isDirect())
+			return;
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} catch (ReflectiveOperationException e) {
+			// left to the GC
+		}
+	}
+}
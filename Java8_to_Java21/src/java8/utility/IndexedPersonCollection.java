@@ -0,0 +1,511 @@
+package java8.utility;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * A collection of {@link Person}s that answers the two queries of
+ * {@code Streams.mapToStream()} style filtering without a full scan.
+ * <ul>
+ * <li><b>age index</b> : one bucket per age (ages are small non-negative
+ * ints), {@link #byAgeRange(int, int)} only visits the buckets in the
+ * range</li>
+ * <li><b>name index</b> : a prefix trie over the name's chars,
+ * {@link #byNamePrefix(String)} walks the prefix and then only the subtree
+ * below it; every node knows how many persons are below it, so counting is
+ * O(prefix length)</li>
+ * <li>{@link #query(int, int, String)} walks whichever of the two indexes has
+ * fewer candidates and checks the other condition on those</li>
+ * </ul>
+ * Both indexes are updated on every {@code add}/{@code remove}. Since
+ * {@code Person} is mutable (and its {@code equals}/{@code hashCode} change
+ * with it), persons are tracked by <b>identity</b>, like an
+ * {@code IdentityHashMap}, and each one remembers the age and name it was
+ * indexed under. Mutate a contained person through
+ * {@link #update(Person, Consumer)}, or call {@link #reindex(Person)} after
+ * calling its setters directly. Ages must be within 0..{@link #MAX_AGE}.
+ * Not thread-safe.
+ */
+public class IndexedPersonCollection extends AbstractCollection<Person> {
+
+	/**
+	 * the oldest age the age index has a bucket for; unlike a plain
+	 * {@code Collection<Person>}, persons aged below 0 or above this (or without
+	 * a name) are rejected
+	 */
+	public static final int MAX_AGE = 1 << 16;
+
+	private final Map<Person, Entry> entries = new IdentityHashMap<>();
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<Entry>[] ageBuckets = new List[128];
+	private final TrieNode root = new TrieNode((char) 0, null);
+
+	public static void main(String[] args) {
+		IndexedPersonCollection people = new IndexedPersonCollection();
+		Person molly = new Person("Molly", 46);
+		people.add(molly);
+		people.add(new Person("Harry", 18));
+		people.add(new Person("Patrisha", 24));
+		people.add(new Person("Hermione", 19));
+		people.add(new Person("Albus", 59));
+
+		System.out.println(people.byAgeRange(20, 30)); // [Patrisha]
+		System.out.println(people.byNamePrefix("H")); // [Harry, Hermione] (any order)
+		System.out.println(people.countByNamePrefix("Her")); // 1
+		System.out.println(people.query(10, 20, "Ha")); // [Harry]
+
+		people.update(molly, person -> person.setAge(25));
+		System.out.println(people.byAgeRange(20, 30)); // [Patrisha, Molly]
+
+		checkAgainstScan();
+	}
+
+	/**
+	 * random adds, removes, updates, direct setters + reindex, iterator removes
+	 * and clears, with every query compared to a scan of a plain list (by
+	 * identity, in any order)
+	 */
+	private static void checkAgainstScan() {
+		Random random = new Random(42);
+		String[] names = { "", "A", "Al", "Albus", "Alba", "Harry", "Hermione", "Her", "Molly", "\u00c9lise" };
+		IndexedPersonCollection people = new IndexedPersonCollection();
+		List<Person> all = new ArrayList<>();
+		for (int step = 0; step < 50_000; step++) {
+			int operation = random.nextInt(100);
+			if (operation < 40 || all.isEmpty()) {
+				Person person = new Person(names[random.nextInt(names.length)] + random.nextInt(3),
+						random.nextInt(300));
+				people.add(person);
+				all.add(person);
+				if (people.add(person))
+					throw new AssertionError("the same person was added twice");
+			} else if (operation < 55) {
+				Person person = all.remove(random.nextInt(all.size()));
+				if (!people.remove(person) || people.contains(person))
+					throw new AssertionError("remove did not remove " + person);
+			} else if (operation < 70) {
+				Person person = all.get(random.nextInt(all.size()));
+				people.update(person, changed -> {
+					changed.setAge(random.nextInt(300));
+					changed.setName(names[random.nextInt(names.length)]);
+				});
+			} else if (operation < 80) {
+				Person person = all.get(random.nextInt(all.size()));
+				person.setAge(random.nextInt(300));
+				people.reindex(person);
+			} else if (operation < 85) {
+				for (Iterator<Person> iterator = people.iterator(); iterator.hasNext();) {
+					Person person = iterator.next();
+					if (random.nextInt(20) == 0) {
+						iterator.remove();
+						all.removeIf(other -> other == person);
+					}
+				}
+			} else if (operation == 85 && random.nextInt(20) == 0) {
+				people.clear();
+				all.clear();
+			} else {
+				int minAge = random.nextInt(320) - 10;
+				int maxAge = minAge + random.nextInt(100);
+				String prefix = names[random.nextInt(names.length)];
+				if (random.nextBoolean() && !prefix.isEmpty())
+					prefix = prefix.substring(0, random.nextInt(prefix.length()));
+				String namePrefix = prefix;
+				checkSame(people.byAgeRange(minAge, maxAge),
+						all.stream().filter(person -> person.getAge() >= minAge && person.getAge() <= maxAge), "age");
+				checkSame(people.byNamePrefix(namePrefix),
+						all.stream().filter(person -> person.getName().startsWith(namePrefix)), "name");
+				checkSame(people.query(minAge, maxAge, namePrefix),
+						all.stream().filter(person -> person.getAge() >= minAge && person.getAge() <= maxAge
+								&& person.getName().startsWith(namePrefix)), "query");
+				if (people.countByAgeRange(minAge, maxAge) != people.byAgeRange(minAge, maxAge).size()
+						|| people.countByNamePrefix(namePrefix) != people.byNamePrefix(namePrefix).size())
+					throw new AssertionError("a count differs from its query");
+			}
+			if (people.size() != all.size())
+				throw new AssertionError(people.size() + " persons, the list has " + all.size());
+		}
+		System.out.println("IndexedPersonCollection: same persons as a scan");
+	}
+
+	private static void checkSame(List<Person> actual, Stream<Person> expected, String query) {
+		Map<Person, Integer> counts = new IdentityHashMap<>();
+		expected.forEach(person -> counts.merge(person, 1, Integer::sum));
+		for (Person person : actual)
+			if (counts.merge(person, -1, Integer::sum) < 0)
+				throw new AssertionError(query + " query returned " + person + " once too often");
+		if (counts.values().stream().anyMatch(count -> count != 0))
+			throw new AssertionError(query + " query missed a person");
+	}
+
+	/**
+	 * adds by identity
+	 *
+	 * @throws IllegalArgumentException if the age is not within
+	 *                                  0..{@link #MAX_AGE}
+	 * @throws NullPointerException     if the name is {@code null}
+	 */
+	@Override
+	public boolean add(Person person) {
+		if (entries.containsKey(person))
+			return false;
+		Entry entry = new Entry(person);
+		index(entry);
+		entries.put(person, entry);
+		return true;
+	}
+
+	/**
+	 * removes by identity
+	 */
+	@Override
+	public boolean remove(Object object) {
+		Entry entry = entries.remove(object);
+		if (entry == null)
+			return false;
+		unindex(entry);
+		return true;
+	}
+
+	/**
+	 * contains by identity
+	 */
+	@Override
+	public boolean contains(Object object) {
+		return entries.containsKey(object);
+	}
+
+	@Override
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public void clear() {
+		entries.clear();
+		Arrays.fill(ageBuckets, null);
+		root.children = TrieNode.NO_CHILDREN;
+		root.childKeys = TrieNode.NO_KEYS;
+		root.terminal = null;
+		root.count = 0;
+	}
+
+	@Override
+	public Iterator<Person> iterator() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		return new Iterator<Person>() {
+			private Entry last;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Person next() {
+				last = iterator.next();
+				return last.person;
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				unindex(last);
+			}
+		};
+	}
+
+	/**
+	 * applies the mutation and moves the person to its new age bucket / trie
+	 * node
+	 *
+	 * @throws IllegalArgumentException if the person is not in this collection,
+	 *                                  or if the new age is not within
+	 *                                  0..{@link #MAX_AGE} (the person is then
+	 *                                  removed from the collection)
+	 * @throws NullPointerException     if the new name is {@code null} (removed
+	 *                                  as well)
+	 */
+	public void update(Person person, Consumer<? super Person> mutation) {
+		Entry entry = entry(person);
+		unindex(entry);
+		try {
+			mutation.accept(person);
+		} finally {
+			entry.snapshot();
+			try {
+				index(entry);
+			} catch (RuntimeException e) {
+				entries.remove(person); // cannot be indexed any more, i.e. a negative age
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * re-indexes a person whose setters were called directly, with the same
+	 * restrictions as {@link #update(Person, Consumer)}
+	 *
+	 * @throws IllegalArgumentException if the person is not in this collection
+	 *                                  or its age is out of range
+	 */
+	public void reindex(Person person) {
+		update(person, unchanged -> {
+		});
+	}
+
+	/**
+	 * @return persons aged {@code minAge..maxAge}, both inclusive
+	 */
+	public List<Person> byAgeRange(int minAge, int maxAge) {
+		List<Person> result = new ArrayList<>();
+		int to = Math.min(maxAge, ageBuckets.length - 1);
+		for (int age = Math.max(minAge, 0); age <= to; age++) {
+			List<Entry> bucket = ageBuckets[age];
+			if (bucket != null)
+				for (Entry entry : bucket)
+					result.add(entry.person);
+		}
+		return result;
+	}
+
+	public int countByAgeRange(int minAge, int maxAge) {
+		int count = 0;
+		int to = Math.min(maxAge, ageBuckets.length - 1);
+		for (int age = Math.max(minAge, 0); age <= to; age++)
+			if (ageBuckets[age] != null)
+				count += ageBuckets[age].size();
+		return count;
+	}
+
+	/**
+	 * @return persons whose name starts with the prefix
+	 */
+	public List<Person> byNamePrefix(String prefix) {
+		List<Person> result = new ArrayList<>();
+		TrieNode node = root.find(prefix);
+		if (node != null)
+			node.collect(entry -> result.add(entry.person));
+		return result;
+	}
+
+	public int countByNamePrefix(String prefix) {
+		TrieNode node = root.find(prefix);
+		return (node == null) ? 0 : node.count;
+	}
+
+	/**
+	 * @return persons aged {@code minAge..maxAge} whose name starts with the
+	 *         prefix, found through the more selective of the two indexes
+	 */
+	public List<Person> query(int minAge, int maxAge, String namePrefix) {
+		List<Person> result = new ArrayList<>();
+		TrieNode node = root.find(namePrefix);
+		if (node == null)
+			return result;
+		if (node.count <= countByAgeRange(minAge, maxAge)) {
+			node.collect(entry -> {
+				if (entry.age >= minAge && entry.age <= maxAge)
+					result.add(entry.person);
+			});
+		} else {
+			int to = Math.min(maxAge, ageBuckets.length - 1);
+			for (int age = Math.max(minAge, 0); age <= to; age++) {
+				List<Entry> bucket = ageBuckets[age];
+				if (bucket != null)
+					for (Entry entry : bucket)
+						if (entry.name.startsWith(namePrefix))
+							result.add(entry.person);
+			}
+		}
+		return result;
+	}
+
+	private Entry entry(Person person) {
+		Entry entry = entries.get(person);
+		if (entry == null)
+			throw new IllegalArgumentException("not in this collection: " + person);
+		return entry;
+	}
+
+	private void index(Entry entry) {
+		if (entry.age < 0 || entry.age > MAX_AGE)
+			throw new IllegalArgumentException("age must be within 0.." + MAX_AGE + ": " + entry.age);
+		if (entry.name == null)
+			throw new NullPointerException("name");
+		if (entry.age >= ageBuckets.length)
+			ageBuckets = Arrays.copyOf(ageBuckets, Math.max(entry.age + 1, ageBuckets.length * 2));
+		List<Entry> bucket = ageBuckets[entry.age];
+		if (bucket == null)
+			bucket = ageBuckets[entry.age] = new ArrayList<>();
+		entry.agePosition = bucket.size();
+		bucket.add(entry);
+
+		root.insert(entry);
+	}
+
+	private void unindex(Entry entry) {
+		List<Entry> bucket = ageBuckets[entry.age];
+		swapRemove(bucket, entry.agePosition, true);
+
+		entry.nameNode.remove(entry);
+	}
+
+	/**
+	 * O(1) removal, the last element takes the removed one's place
+	 */
+	private static void swapRemove(List<Entry> list, int position, boolean agePosition) {
+		Entry last = list.remove(list.size() - 1);
+		if (position < list.size()) {
+			list.set(position, last);
+			if (agePosition)
+				last.agePosition = position;
+			else
+				last.namePosition = position;
+		}
+	}
+
+	/**
+	 * a person plus the age and name it is indexed under
+	 */
+	private static final class Entry {
+		final Person person;
+		int age;
+		String name;
+		int agePosition;
+		int namePosition;
+		TrieNode nameNode;
+
+		Entry(Person person) {
+			this.person = person;
+			snapshot();
+		}
+
+		void snapshot() {
+			age = person.getAge();
+			name = person.getName();
+		}
+	}
+
+	/**
+	 * children are kept in sorted parallel arrays (binary searched), not in a
+	 * {@code Map<Character, ...>}
+	 */
+	private static final class TrieNode {
+		static final char[] NO_KEYS = new char[0];
+		static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+		final char key;
+		final TrieNode parent;
+		char[] childKeys = NO_KEYS;
+		TrieNode[] children = NO_CHILDREN;
+		/** persons whose name ends at this node */
+		List<Entry> terminal;
+		/** persons at or below this node */
+		int count;
+
+		TrieNode(char key, TrieNode parent) {
+			this.key = key;
+			this.parent = parent;
+		}
+
+		TrieNode find(String prefix) {
+			TrieNode node = this;
+			for (int i = 0; i < prefix.length() && node != null; i++)
+				node = node.child(prefix.charAt(i));
+			return node;
+		}
+
+		private TrieNode child(char c) {
+			int position = Arrays.binarySearch(childKeys, c);
+			return (position < 0) ? null : children[position];
+		}
+
+		void insert(Entry entry) {
+			TrieNode node = this;
+			node.count++;
+			String name = entry.name;
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				int position = Arrays.binarySearch(node.childKeys, c);
+				if (position < 0) {
+					position = -position - 1;
+					node.addChild(position, new TrieNode(c, node));
+				}
+				node = node.children[position];
+				node.count++;
+			}
+			if (node.terminal == null)
+				node.terminal = new ArrayList<>(1);
+			entry.namePosition = node.terminal.size();
+			entry.nameNode = node;
+			node.terminal.add(entry);
+		}
+
+		private void addChild(int position, TrieNode child) {
+			int length = childKeys.length;
+			char[] keys = new char[length + 1];
+			TrieNode[] nodes = new TrieNode[length + 1];
+			System.arraycopy(childKeys, 0, keys, 0, position);
+			System.arraycopy(children, 0, nodes, 0, position);
+			keys[position] = child.key;
+			nodes[position] = child;
+			System.arraycopy(childKeys, position, keys, position + 1, length - position);
+			System.arraycopy(children, position, nodes, position + 1, length - position);
+			childKeys = keys;
+			children = nodes;
+		}
+
+		/**
+		 * removes the entry from this (terminal) node and prunes the nodes that
+		 * became empty on the way up
+		 */
+		void remove(Entry entry) {
+			swapRemove(terminal, entry.namePosition, false);
+			entry.nameNode = null;
+			for (TrieNode node = this; node != null; node = node.parent) {
+				node.count--;
+				if (node.count == 0 && node.parent != null)
+					node.parent.removeChild(node.key);
+			}
+		}
+
+		private void removeChild(char c) {
+			int position = Arrays.binarySearch(childKeys, c);
+			int length = childKeys.length;
+			char[] keys = new char[length - 1];
+			TrieNode[] nodes = new TrieNode[length - 1];
+			System.arraycopy(childKeys, 0, keys, 0, position);
+			System.arraycopy(children, 0, nodes, 0, position);
+			System.arraycopy(childKeys, position + 1, keys, position, length - position - 1);
+			System.arraycopy(children, position + 1, nodes, position, length - position - 1);
+			childKeys = keys;
+			children = nodes;
+		}
+
+		/**
+		 * visits every entry at or below this node, iteratively so long names do
+		 * not grow the call stack
+		 */
+		void collect(Consumer<Entry> action) {
+			List<TrieNode> pending = new ArrayList<>();
+			pending.add(this);
+			while (!pending.isEmpty()) {
+				TrieNode node = pending.remove(pending.size() - 1);
+				if (node.terminal != null)
+					node.terminal.forEach(action);
+				for (TrieNode child : node.children)
+					pending.add(child);
+			}
+		}
+	}
+}
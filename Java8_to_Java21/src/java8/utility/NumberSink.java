@@ -0,0 +1,73 @@
+package java8.utility;
+
+import java.io.PrintStream;
+
+/**
+ * Where the demos print numbers to.
+ * <ul>
+ * <li>{@link #of(PrintStream)} : prints through a {@code PrintStream} such as
+ * {@code System.out}, every call takes the {@code PrintStream} lock</li>
+ * <li>{@link ChannelNumberSink} : formats straight into a reusable byte buffer
+ * and writes it to a channel in large chunks, meant for millions of
+ * elements</li>
+ * </ul>
+ * A sink is not thread-safe, and IO failures are reported as
+ * {@code UncheckedIOException} so it can be used from stream lambdas.
+ */
+public interface NumberSink extends AutoCloseable {
+
+	NumberSink print(long value);
+
+	NumberSink print(double value);
+
+	/**
+	 * the shortest digits of the {@code float} itself, like
+	 * {@code PrintStream.print(float)}; widening it to {@code double} first
+	 * would print {@code 1.1f} as {@code 1.100000023841858}
+	 */
+	default NumberSink print(float value) {
+		return print(Float.toString(value));
+	}
+
+	NumberSink print(CharSequence text);
+
+	NumberSink newLine();
+
+	void flush();
+
+	/**
+	 * flushes, and closes the target unless it is shared (i.e. stdout)
+	 */
+	@Override
+	void close();
+
+	default NumberSink print(Number value) {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+			return print(value.longValue());
+		if (value instanceof Double)
+			return print(value.doubleValue());
+		if (value instanceof Float)
+			return print(value.floatValue());
+		return print(String.valueOf(value));
+	}
+
+	default NumberSink println(Number value) {
+		return print(value).newLine();
+	}
+
+	default NumberSink println(long value) {
+		return print(value).newLine();
+	}
+
+	default NumberSink println(CharSequence text) {
+		return print(text).newLine();
+	}
+
+	/**
+	 * @return a sink that prints through the given stream, closing it only
+	 *         flushes the stream
+	 */
+	static NumberSink of(PrintStream out) {
+		return new PrintStreamNumberSink(out);
+	}
+}
@@ -0,0 +1,455 @@
+package java8.utility;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@code Map<K, Integer>} without the {@code Integer}s: keys and
+ * {@code int} values sit in two parallel arrays, collisions are resolved by
+ * linear probing (open addressing) instead of chained {@code Map.Entry} nodes.
+ * <ul>
+ * <li>per entry that is one key reference plus 4 bytes (at a load factor of at
+ * most {@value #MAX_LOAD_PERCENT}%), against a 32 byte {@code HashMap.Node}
+ * and a 16 byte {@code Integer} for values outside the {@code Integer}
+ * cache</li>
+ * <li>{@link #forEachEntry(ObjIntConsumer)} and
+ * {@link #filter(EntryPredicate)} walk the arrays, no entry or
+ * {@code Integer} is created; the matches are marked in a bitmap first so the
+ * result is sized once, {@link #parallelFilter(EntryPredicate)} marks them on
+ * a parallel stream and only the inserting is sequential</li>
+ * <li>{@link #entries()} is a parallel friendly stream (split by slot range) of
+ * small {@link Entry} snapshots, still without boxing the value</li>
+ * <li>removal shifts the following entries back, so there are no tombstones
+ * slowing down later lookups</li>
+ * </ul>
+ * {@code null} keys are not allowed. Not thread-safe, but reading (including
+ * the parallel operations) can be shared once the map is built.
+ */
+public class Object2IntMap<K> {
+
+	/**
+	 * {@code BiPredicate<K, Integer>} for an {@code int} value
+	 */
+	@FunctionalInterface
+	public interface EntryPredicate<K> {
+		boolean test(K key, int value);
+	}
+
+	/**
+	 * a key and its value at the time the entry was streamed
+	 */
+	public static final class Entry<K> {
+		private final K key;
+		private final int value;
+
+		Entry(K key, int value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public int getValue() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	static final int MAX_LOAD_PERCENT = 60;
+	/** odd, so stepping by it visits every word of a power of two count once */
+	private static final int WORD_STRIDE = 0x9E3779B1;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private Object[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private int resizeAt;
+
+	public Object2IntMap() {
+		this(16);
+	}
+
+	public Object2IntMap(int expectedSize) {
+		if (expectedSize < 0)
+			throw new IllegalArgumentException("expectedSize must not be negative: " + expectedSize);
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int expectedSize) {
+		long needed = Math.max(2, (long) expectedSize * 100 / MAX_LOAD_PERCENT + 1);
+		if (needed > MAX_CAPACITY)
+			throw new IllegalArgumentException("too many entries: " + expectedSize);
+		return Integer.highestOneBit((int) needed - 1) << 1;
+	}
+
+	private void allocate(int capacity) {
+		keys = new Object[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		resizeAt = (int) ((long) capacity * MAX_LOAD_PERCENT / 100);
+	}
+
+	public static <K> Object2IntMap<K> from(Map<? extends K, Integer> map) {
+		Object2IntMap<K> result = new Object2IntMap<>(map.size());
+		map.forEach(result::put);
+		return result;
+	}
+
+	/**
+	 * filters a name to age map of a few million entries like
+	 * {@code Streams.mapToStream()} does, through a {@code HashMap} stream and
+	 * through this map
+	 *
+	 * {@code java java8.utility.Object2IntMap [entries]} (default 5M)
+	 */
+	public static void main(String[] args) {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 5_000_000;
+		Map<String, Integer> hashMap = new HashMap<>();
+		Object2IntMap<String> ages = new Object2IntMap<>(count);
+		for (int i = 0; i < count; i++) {
+			String name = "name-" + i;
+			int age = (int) ((i * 2654435761L) % 90);
+			hashMap.put(name, age);
+			ages.put(name, age);
+		}
+
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			Map<String, Integer> boxed = hashMap.entrySet().stream()
+					.filter(entry -> (entry.getValue() < 30 && entry.getValue() > 20))
+					.collect(Collectors.toMap(entry -> entry.getKey(), entry -> entry.getValue()));
+			long streamed = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Object2IntMap<String> filtered = ages.filter((name, age) -> age < 30 && age > 20);
+			long primitive = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Object2IntMap<String> parallel = ages.parallelFilter((name, age) -> age < 30 && age > 20);
+			long parallelPrimitive = System.nanoTime() - start;
+
+			System.out.printf("%,d of %,d  entrySet stream + toMap: %4d ms  filter: %4d ms  parallelFilter: %4d ms%n",
+					filtered.size(), count, streamed / 1_000_000, primitive / 1_000_000,
+					parallelPrimitive / 1_000_000);
+			if (boxed.size() != filtered.size() || parallel.size() != filtered.size())
+				throw new AssertionError();
+			boxed.forEach((name, age) -> {
+				if (filtered.getOrDefault(name, -1) != age || parallel.getOrDefault(name, -1) != age)
+					throw new AssertionError("filtered maps differ at " + name);
+			});
+		}
+	}
+
+	private int slot(Object key) {
+		int h = key.hashCode() * 0x9E3779B9; // spreads the low bits of consecutive hash codes
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(Object key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * @return the slot of the key, or -1
+	 */
+	private int find(Object key) {
+		Objects.requireNonNull(key, "key");
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			Object current = keys[slot];
+			if (current == null)
+				return -1;
+			if (current == key || current.equals(key))
+				return slot;
+		}
+	}
+
+	public int getOrDefault(Object key, int defaultValue) {
+		int slot = find(key);
+		return (slot < 0) ? defaultValue : values[slot];
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the key is not in the map
+	 */
+	public int getInt(Object key) {
+		int slot = find(key);
+		if (slot < 0)
+			throw new IllegalArgumentException("no such key: " + key);
+		return values[slot];
+	}
+
+	/**
+	 * @return {@code true} if the key was not in the map before
+	 */
+	public boolean put(K key, int value) {
+		Objects.requireNonNull(key, "key");
+		int slot = slot(key);
+		for (Object current; (current = keys[slot]) != null; slot = (slot + 1) & mask) {
+			if (current == key || current.equals(key)) {
+				values[slot] = value;
+				return false;
+			}
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeAt)
+			resize();
+		return true;
+	}
+
+	/**
+	 * adds to the value of the key, a missing key counts as 0
+	 *
+	 * @return the new value
+	 */
+	public int addTo(K key, int increment) {
+		Objects.requireNonNull(key, "key");
+		int slot = slot(key);
+		for (Object current; (current = keys[slot]) != null; slot = (slot + 1) & mask)
+			if (current == key || current.equals(key))
+				return values[slot] += increment;
+		keys[slot] = key;
+		values[slot] = increment;
+		if (++size > resizeAt)
+			resize();
+		return increment;
+	}
+
+	/**
+	 * inserts a key known not to be in the map, no equality checks
+	 */
+	private void putNew(Object key, int value) {
+		int slot = slot(key);
+		while (keys[slot] != null)
+			slot = (slot + 1) & mask;
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+	}
+
+	private void resize() {
+		if (keys.length == MAX_CAPACITY)
+			throw new IllegalStateException("map is full");
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != null)
+				putNew(oldKeys[i], oldValues[i]);
+	}
+
+	/**
+	 * @return {@code true} if the key was in the map
+	 */
+	public boolean remove(Object key) {
+		int slot = find(key);
+		if (slot < 0)
+			return false;
+		// backward shift: move later entries of the probe run into the hole if
+		// their home slot is not between the hole and themselves
+		int hole = slot;
+		for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		keys[hole] = null;
+		values[hole] = 0;
+		size--;
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		Arrays.fill(values, 0);
+		size = 0;
+	}
+
+	/**
+	 * visits every entry, in slot order
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachEntry(ObjIntConsumer<? super K> action) {
+		Object[] keys = this.keys;
+		int[] values = this.values;
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != null)
+				action.accept((K) keys[i], values[i]);
+	}
+
+	/**
+	 * @return a new map with the entries the predicate accepts
+	 */
+	public Object2IntMap<K> filter(EntryPredicate<? super K> predicate) {
+		return copyOf(matches(predicate, IntStream.range(0, wordCount())));
+	}
+
+	/**
+	 * {@link #filter(EntryPredicate)} with the predicate run on a parallel
+	 * stream, only the inserting is sequential
+	 */
+	public Object2IntMap<K> parallelFilter(EntryPredicate<? super K> predicate) {
+		return copyOf(matches(predicate, IntStream.range(0, wordCount()).parallel()));
+	}
+
+	private int wordCount() {
+		return (keys.length + 63) >>> 6;
+	}
+
+	/**
+	 * a bitmap of the slots whose entry the predicate accepts, one 64 slot word
+	 * per task
+	 */
+	@SuppressWarnings("unchecked")
+	private long[] matches(EntryPredicate<? super K> predicate, IntStream words) {
+		Object[] keys = this.keys;
+		int[] values = this.values;
+		long[] matches = new long[wordCount()];
+		words.forEach(word -> {
+			long bits = 0;
+			int end = Math.min(keys.length, (word + 1) << 6);
+			for (int i = word << 6; i < end; i++)
+				if (keys[i] != null && predicate.test((K) keys[i], values[i]))
+					bits |= 1L << i;
+			matches[word] = bits;
+		});
+		return matches;
+	}
+
+	/**
+	 * the marked entries in a map sized for exactly that many, so it never
+	 * grows on the way. The words are visited with an odd stride instead of in
+	 * slot order: a smaller table masks the same hash, so in slot order the
+	 * entries would come in sorted by their new home slot and pile up into
+	 * long probe runs
+	 */
+	private Object2IntMap<K> copyOf(long[] matches) {
+		int count = 0;
+		for (long bits : matches)
+			count += Long.bitCount(bits);
+		Object2IntMap<K> result = new Object2IntMap<>(count);
+		int wordMask = matches.length - 1; // the capacity is a power of two, so is the word count
+		for (int step = 0; step < matches.length; step++) {
+			int word = (step * WORD_STRIDE) & wordMask;
+			for (long bits = matches[word]; bits != 0; bits &= bits - 1) {
+				int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+				result.putNew(keys[i], values[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the entries as snapshots, splittable by slot range for
+	 *         {@code parallel()}
+	 */
+	public Stream<Entry<K>> entries() {
+		return StreamSupport.stream(new EntrySpliterator(0, keys.length, size), false);
+	}
+
+	/**
+	 * @return a boxed copy
+	 */
+	public Map<K, Integer> toMap() {
+		Map<K, Integer> map = new HashMap<>((int) (size / 0.75f) + 1);
+		forEachEntry(map::put);
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		forEachEntry((key, value) -> {
+			if (builder.length() > 1)
+				builder.append(", ");
+			builder.append(key).append('=').append(value);
+		});
+		return builder.append('}').toString();
+	}
+
+	private final class EntrySpliterator implements Spliterator<Entry<K>> {
+		private int slot;
+		private final int end;
+		/** halved on every split, entries are spread evenly over the slots */
+		private long estimate;
+
+		EntrySpliterator(int slot, int end, long estimate) {
+			this.slot = slot;
+			this.end = end;
+			this.estimate = estimate;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super Entry<K>> action) {
+			Object[] keys = Object2IntMap.this.keys;
+			while (slot < end) {
+				int i = slot++;
+				if (keys[i] != null) {
+					action.accept(new Entry<>((K) keys[i], values[i]));
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void forEachRemaining(Consumer<? super Entry<K>> action) {
+			Object[] keys = Object2IntMap.this.keys;
+			int[] values = Object2IntMap.this.values;
+			for (; slot < end; slot++)
+				if (keys[slot] != null)
+					action.accept(new Entry<>((K) keys[slot], values[slot]));
+		}
+
+		@Override
+		public Spliterator<Entry<K>> trySplit() {
+			int middle = (slot + end) >>> 1;
+			if (middle - slot < 1024)
+				return null;
+			estimate >>>= 1;
+			EntrySpliterator prefix = new EntrySpliterator(slot, middle, estimate);
+			slot = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return estimate;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.DISTINCT | Spliterator.NONNULL;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package java8.utility;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only {@link Person} rows kept entirely outside the Java heap, in one
+ * direct {@code ByteBuffer}, so the GC never has to trace them.
+ *
+ * <pre>
+ * [ age 0 | age 1 | ... | age n-1 ][ offset 0 | ... | offset n ][ UTF-8 name bytes ... ]
+ *   int                              int, row i's name is names[offset i .. offset i+1)
+ * </pre>
+ * <ul>
+ * <li>{@link #load(Collection)} sorts the rows with {@code Person.compareTo}
+ * (age, then name) before writing them, so row order is the natural order of
+ * {@code Person} and an age range is a contiguous run of rows found by binary
+ * search</li>
+ * <li>scans hand out row numbers ({@code IntConsumer}/{@code IntStream}), the
+ * name prefix check compares bytes in place, nothing is materialized until
+ * {@link #get(int)} / {@link #nameAt(int)}</li>
+ * <li>{@link #close()} frees the memory (what closing an {@code Arena} does
+ * for a {@code MemorySegment} on java 21): right away when no row is being
+ * read, otherwise as soon as the rows being read on other threads are done
+ * (every row access goes through a {@link BufferGuard}), so nothing ever reads
+ * freed memory. Any row access after {@code close()}, from a lazy
+ * {@link #select} stream too, throws {@code IllegalStateException}.</li>
+ * </ul>
+ * One buffer is limited to 2 GiB.
+ */
+public final class OffHeapPersonStore implements AutoCloseable {
+
+	private final int size;
+	private final int offsetsStart;
+	private final int namesStart;
+	private final ByteBuffer memory;
+	private final BufferGuard guard;
+
+	private OffHeapPersonStore(ByteBuffer memory, int size) {
+		this.memory = memory;
+		this.guard = new BufferGuard(() -> DirectBuffers.free(memory), "store");
+		this.size = size;
+		this.offsetsStart = size * Integer.BYTES;
+		this.namesStart = offsetsStart + (size + 1) * Integer.BYTES;
+	}
+
+	/**
+	 * copies the people off-heap in {@code Person.compareTo} order
+	 */
+	public static OffHeapPersonStore load(Collection<Person> people) {
+		List<Person> sorted = new ArrayList<>(people);
+		sorted.sort(null);
+
+		int size = sorted.size();
+		byte[][] names = new byte[size][];
+		long nameBytes = 0;
+		for (int i = 0; i < size; i++) {
+			names[i] = Objects.requireNonNull(sorted.get(i).getName(), "name").getBytes(StandardCharsets.UTF_8);
+			nameBytes += names[i].length;
+		}
+		long total = (long) size * Integer.BYTES + (size + 1L) * Integer.BYTES + nameBytes;
+		if (total > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("store would need " + total + " bytes, more than one buffer can hold");
+
+		ByteBuffer memory = ByteBuffer.allocateDirect((int) total).order(ByteOrder.nativeOrder());
+		OffHeapPersonStore store = new OffHeapPersonStore(memory, size);
+		int nameOffset = 0;
+		for (int i = 0; i < size; i++) {
+			memory.putInt(i * Integer.BYTES, sorted.get(i).getAge());
+			memory.putInt(store.offsetsStart + i * Integer.BYTES, nameOffset);
+			memory.put(store.namesStart + nameOffset, names[i]);
+			nameOffset += names[i].length;
+		}
+		memory.putInt(store.offsetsStart + size * Integer.BYTES, nameOffset);
+		return store;
+	}
+
+	public static void main(String[] args) {
+		List<Person> people = List.of(new Person("Molly", 46), new Person("Harry", 18), new Person("Patrisha", 24),
+				new Person("Albus", 59), new Person("Brian", 18), new Person("Hermione", 19));
+		try (OffHeapPersonStore store = OffHeapPersonStore.load(people)) {
+			store.forEachInAgeRange(18, 30, row -> System.out.println(store.get(row))); // Brian, Harry, Hermione, Patrisha
+			System.out.println(store.countMatching(0, 100, "H")); // 2
+			store.select(18, 20, "Her").mapToObj(store::nameAt).forEach(System.out::println); // Hermione
+		}
+
+		// a lazy select() that outlives the store fails instead of reading freed memory
+		IntStream late;
+		try (OffHeapPersonStore store = OffHeapPersonStore.load(people)) {
+			late = store.select(18, 30, "H");
+		}
+		try {
+			late.forEach(row -> {
+			});
+			throw new AssertionError("a select() stream read after close() must fail");
+		} catch (IllegalStateException expected) {
+			System.out.println("select() read after close(): " + expected.getMessage());
+		}
+
+		// closed while parallel scans run: they finish or fail, they never read freed memory
+		List<Person> many = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++)
+			many.add(new Person("name-" + i, i % 100));
+		OffHeapPersonStore shared = OffHeapPersonStore.load(many);
+		Thread reader = new Thread(() -> {
+			try {
+				while (true)
+					shared.select(0, 100, "name-1").parallel().mapToObj(shared::get).count();
+			} catch (IllegalStateException expected) {
+				System.out.println("scan running during close(): " + expected.getMessage());
+			}
+		});
+		reader.start();
+		sleep(200);
+		shared.close();
+		join(reader);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int ageAt(int row) {
+		Objects.checkIndex(row, size);
+		guard.enter();
+		try {
+			return memory.getInt(row * Integer.BYTES);
+		} finally {
+			guard.exit();
+		}
+	}
+
+	public String nameAt(int row) {
+		Objects.checkIndex(row, size);
+		byte[] bytes;
+		guard.enter();
+		try {
+			int start = nameStart(row);
+			bytes = new byte[nameStart(row + 1) - start];
+			memory.get(namesStart + start, bytes);
+		} finally {
+			guard.exit();
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a new on-heap {@code Person} for the row
+	 */
+	public Person get(int row) {
+		return new Person(nameAt(row), ageAt(row));
+	}
+
+	/**
+	 * @return {@code true} if the row's name starts with the given UTF-8 bytes,
+	 *         compared in place
+	 */
+	public boolean nameStartsWith(int row, byte[] prefix) {
+		Objects.checkIndex(row, size);
+		guard.enter();
+		try {
+			int start = nameStart(row);
+			if (nameStart(row + 1) - start < prefix.length)
+				return false;
+			int position = namesStart + start;
+			for (int i = 0; i < prefix.length; i++)
+				if (memory.get(position + i) != prefix[i])
+					return false;
+			return true;
+		} finally {
+			guard.exit();
+		}
+	}
+
+	/**
+	 * visits the rows aged {@code minAge..maxAge} (both inclusive) in
+	 * {@code Person.compareTo} order
+	 */
+	public void forEachInAgeRange(int minAge, int maxAge, IntConsumer rowVisitor) {
+		int end = firstRowAgedAbove(maxAge);
+		for (int row = firstRowAgedAbove((long) minAge - 1); row < end; row++)
+			rowVisitor.accept(row);
+	}
+
+	/**
+	 * visits the rows aged {@code minAge..maxAge} whose name starts with
+	 * {@code namePrefix}
+	 */
+	public void forEachMatching(int minAge, int maxAge, String namePrefix, IntConsumer rowVisitor) {
+		byte[] prefix = namePrefix.getBytes(StandardCharsets.UTF_8);
+		forEachInAgeRange(minAge, maxAge, row -> {
+			if (nameStartsWith(row, prefix))
+				rowVisitor.accept(row);
+		});
+	}
+
+	public int countMatching(int minAge, int maxAge, String namePrefix) {
+		int[] count = { 0 };
+		forEachMatching(minAge, maxAge, namePrefix, row -> count[0]++);
+		return count[0];
+	}
+
+	/**
+	 * @return row numbers matching the age range and name prefix, in order; the
+	 *         stream can be {@code parallel()}
+	 */
+	public IntStream select(int minAge, int maxAge, String namePrefix) {
+		byte[] prefix = namePrefix.getBytes(StandardCharsets.UTF_8);
+		IntStream rows = IntStream.range(firstRowAgedAbove((long) minAge - 1), firstRowAgedAbove(maxAge));
+		return (prefix.length == 0) ? rows : rows.filter(row -> nameStartsWith(row, prefix));
+	}
+
+	/**
+	 * @return the first row with {@code age > age} (binary search, rows are
+	 *         sorted by age)
+	 */
+	private int firstRowAgedAbove(long age) {
+		guard.enter();
+		try {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (memory.getInt(middle * Integer.BYTES) <= age)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		} finally {
+			guard.exit();
+		}
+	}
+
+	/**
+	 * only inside {@code guard.enter()} / {@code exit()}
+	 */
+	private int nameStart(int row) {
+		return memory.getInt(offsetsStart + row * Integer.BYTES);
+	}
+
+	public boolean isOpen() {
+		return guard.isOpen();
+	}
+
+	/**
+	 * releases the off-heap memory now instead of waiting for the buffer to be
+	 * collected, or once the rows being read on other threads are done
+	 */
+	@Override
+	public void close() {
+		guard.close();
+	}
+}
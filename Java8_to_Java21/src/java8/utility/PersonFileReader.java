@@ -0,0 +1,329 @@
+package java8.utility;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a file written by {@link PersonFileWriter} through memory mapped
+ * buffers.
+ * <ul>
+ * <li>opening the file only reads the block headers (one 8 byte read per
+ * block) and maps the file read-only in regions of up to 1 GiB, cut at block
+ * boundaries</li>
+ * <li>{@link #forEach(RecordVisitor)} hands every record to a visitor as
+ * {@code age} plus the position of the name bytes inside the mapped buffer,
+ * nothing is allocated per record</li>
+ * <li>{@link #stream()} creates a {@code Person} per record, it splits on
+ * block boundaries so {@code parallel()} decodes blocks on different
+ * threads</li>
+ * </ul>
+ * {@link #close()} unmaps the file right away when nothing reads it, otherwise
+ * as soon as the records (blocks for a visitor) being read on other threads
+ * are done, through a {@link BufferGuard}; a stream or visitor that goes on
+ * after {@code close()} gets an {@code IllegalStateException} at its next
+ * record (next block for a visitor), it never reads unmapped memory.
+ */
+public class PersonFileReader implements Closeable {
+
+	/**
+	 * @see PersonFileReader#forEach(RecordVisitor)
+	 */
+	@FunctionalInterface
+	public interface RecordVisitor {
+		/**
+		 * @param buffer     the mapped region, read it with absolute gets only
+		 * @param nameOffset index of the first UTF-8 name byte in {@code buffer}
+		 */
+		void visit(int age, ByteBuffer buffer, int nameOffset, int nameLength);
+	}
+
+	private static final long MAX_REGION_BYTES = 1L << 30;
+
+	private final long records;
+	private final MappedByteBuffer[] regions;
+	/** per block: region it lives in, position of its first record there, record count */
+	private final int[] blockRegion;
+	private final int[] blockStart;
+	private final int[] blockRecords;
+	/** records before each block, blocks.length + 1 entries */
+	private final long[] recordsBefore;
+	private final BufferGuard guard;
+
+	public PersonFileReader(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(PersonFileWriter.FILE_HEADER_BYTES);
+			readFully(channel, header, 0);
+			if (header.getInt(0) != PersonFileWriter.MAGIC)
+				throw new IOException("not a person file: " + path);
+			if (header.getInt(4) != PersonFileWriter.VERSION)
+				throw new IOException("unsupported person file version " + header.getInt(4) + ": " + path);
+			this.records = header.getLong(PersonFileWriter.RECORD_COUNT_POSITION);
+
+			// walk the block headers
+			List<long[]> blocks = new ArrayList<>(); // {file position, payload bytes, records}
+			ByteBuffer blockHeader = ByteBuffer.allocate(PersonFileWriter.BLOCK_HEADER_BYTES);
+			long position = PersonFileWriter.FILE_HEADER_BYTES;
+			while (position < fileSize) {
+				readFully(channel, blockHeader.clear(), position);
+				int count = blockHeader.getInt(0);
+				int payload = blockHeader.getInt(4);
+				if (count < 0 || payload < 0 || position + PersonFileWriter.BLOCK_HEADER_BYTES + payload > fileSize)
+					throw new IOException("corrupt block at " + position + ": " + path);
+				blocks.add(new long[] { position, payload, count });
+				position += PersonFileWriter.BLOCK_HEADER_BYTES + payload;
+			}
+
+			// map regions cut at block boundaries
+			int blockCount = blocks.size();
+			blockRegion = new int[blockCount];
+			blockStart = new int[blockCount];
+			blockRecords = new int[blockCount];
+			recordsBefore = new long[blockCount + 1];
+			List<MappedByteBuffer> mapped = new ArrayList<>();
+			int first = 0;
+			while (first < blockCount) {
+				long regionStart = blocks.get(first)[0];
+				int last = first;
+				while (last + 1 < blockCount && blockEnd(blocks.get(last + 1)) - regionStart <= MAX_REGION_BYTES)
+					last++;
+				long regionBytes = blockEnd(blocks.get(last)) - regionStart;
+				if (regionBytes > Integer.MAX_VALUE)
+					throw new IOException("block at " + regionStart + " is too large to map: " + path);
+				mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionBytes));
+				for (int block = first; block <= last; block++) {
+					long[] info = blocks.get(block);
+					blockRegion[block] = mapped.size() - 1;
+					blockStart[block] = (int) (info[0] - regionStart) + PersonFileWriter.BLOCK_HEADER_BYTES;
+					blockRecords[block] = (int) info[2];
+					recordsBefore[block + 1] = recordsBefore[block] + info[2];
+				}
+				first = last + 1;
+			}
+			MappedByteBuffer[] regions = mapped.toArray(new MappedByteBuffer[0]);
+			this.regions = regions;
+			this.guard = new BufferGuard(() -> {
+				for (MappedByteBuffer region : regions)
+					DirectBuffers.free(region);
+			}, "reader");
+			if (recordsBefore[blockCount] != records)
+				throw new IOException("header says " + records + " records, blocks hold " + recordsBefore[blockCount]
+						+ " (was the writer closed?): " + path);
+		}
+	}
+
+	private static long blockEnd(long[] block) {
+		return block[0] + PersonFileWriter.BLOCK_HEADER_BYTES + block[1];
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("unexpected end of file at " + position);
+	}
+
+	/**
+	 * writes N persons, then compares loading them from the binary file against
+	 * parsing the same data from a text file
+	 *
+	 * {@code java java8.utility.PersonFileReader [records]} (default 1M, try 10M)
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+		Path binary = Files.createTempFile("persons", ".bin");
+		Path text = Files.createTempFile("persons", ".txt");
+		try {
+			try (PersonFileWriter writer = new PersonFileWriter(binary);
+					BufferedWriter textWriter = Files.newBufferedWriter(text)) {
+				for (int i = 0; i < count; i++) {
+					writer.write("person-" + i, i % 100);
+					textWriter.write("person-" + i + "," + (i % 100) + "\n");
+				}
+			}
+
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				long[] ageSum = { 0 };
+				try (PersonFileReader reader = new PersonFileReader(binary)) {
+					reader.forEach((age, buffer, nameOffset, nameLength) -> ageSum[0] += age);
+				}
+				long visitor = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				long binaryPersons;
+				try (PersonFileReader reader = new PersonFileReader(binary)) {
+					binaryPersons = reader.stream().parallel().filter(person -> person.getAge() < 30).count();
+				}
+				long parallelStream = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				long textPersons;
+				try (Stream<String> lines = Files.lines(text)) {
+					textPersons = lines.map(line -> line.split(","))
+							.map(parts -> new Person(parts[0], Integer.parseInt(parts[1])))
+							.filter(person -> person.getAge() < 30).count();
+				}
+				long textParse = System.nanoTime() - start;
+
+				System.out.printf("%,d records  visitor: %5d ms  parallel Stream<Person>: %5d ms  text parse: %5d ms"
+						+ "  (%d, %d, %d)%n", count, visitor / 1_000_000, parallelStream / 1_000_000,
+						textParse / 1_000_000, ageSum[0], binaryPersons, textPersons);
+			}
+
+			// a stream that outlives the reader fails instead of reading the unmapped file
+			Stream<Person> late;
+			try (PersonFileReader reader = new PersonFileReader(binary)) {
+				late = reader.stream();
+			}
+			try {
+				late.forEach(element -> {
+				});
+				throw new AssertionError("a stream read after close() must fail");
+			} catch (IllegalStateException expected) {
+				System.out.println("stream read after close(): " + expected.getMessage());
+			}
+
+			// closed while a parallel stream runs: it finishes or fails, it never reads the unmapped file
+			PersonFileReader shared = new PersonFileReader(binary);
+			Thread reader = new Thread(() -> {
+				try {
+					while (true)
+						shared.stream().parallel().filter(person -> person.getAge() < 30).count();
+				} catch (IllegalStateException expected) {
+					System.out.println("stream running during close(): " + expected.getMessage());
+				}
+			});
+			reader.start();
+			Thread.sleep(200);
+			shared.close();
+			reader.join();
+		} finally {
+			Files.deleteIfExists(binary);
+			Files.deleteIfExists(text);
+		}
+	}
+
+	public long records() {
+		return records;
+	}
+
+	/**
+	 * visits every record in file order without allocating
+	 */
+	public void forEach(RecordVisitor visitor) {
+		for (int block = 0; block < blockRecords.length; block++) {
+			guard.enter(); // the region stays mapped until the block is done
+			try {
+				ByteBuffer region = regions[blockRegion[block]];
+				int position = blockStart[block];
+				for (int i = blockRecords[block]; i > 0; i--) {
+					int age = region.getInt(position);
+					int nameLength = region.getInt(position + 4);
+					visitor.visit(age, region, position + PersonFileWriter.RECORD_HEADER_BYTES, nameLength);
+					position += PersonFileWriter.RECORD_HEADER_BYTES + nameLength;
+				}
+			} finally {
+				guard.exit();
+			}
+		}
+	}
+
+	/**
+	 * @return every record as a new {@code Person}, in file order, splittable
+	 *         by block for {@code parallel()}
+	 */
+	public Stream<Person> stream() {
+		if (!guard.isOpen())
+			throw new IllegalStateException("reader is closed");
+		return StreamSupport.stream(new BlockSpliterator(0, blockRecords.length), false);
+	}
+
+	/**
+	 * unmaps the file, now or once the reads in flight are done
+	 */
+	@Override
+	public void close() {
+		guard.close();
+	}
+
+	private final class BlockSpliterator implements Spliterator<Person> {
+		private int block;
+		private final int endBlock;
+		/** records left in the block being read, 0 when no block is open */
+		private int remaining;
+		private int position;
+		private ByteBuffer region;
+
+		BlockSpliterator(int block, int endBlock) {
+			this.block = block;
+			this.endBlock = endBlock;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Person> action) {
+			while (remaining == 0) {
+				if (block >= endBlock)
+					return false;
+				region = regions[blockRegion[block]];
+				position = blockStart[block];
+				remaining = blockRecords[block];
+				block++;
+			}
+			int age;
+			byte[] name;
+			guard.enter(); // the regions are unmapped by close()
+			try {
+				age = region.getInt(position);
+				int nameLength = region.getInt(position + 4);
+				name = new byte[nameLength];
+				region.get(position + PersonFileWriter.RECORD_HEADER_BYTES, name);
+				position += PersonFileWriter.RECORD_HEADER_BYTES + nameLength;
+			} finally {
+				guard.exit();
+			}
+			remaining--;
+			action.accept(new Person(new String(name, StandardCharsets.UTF_8), age));
+			return true;
+		}
+
+		/**
+		 * only splits whole blocks that have not been started
+		 */
+		@Override
+		public Spliterator<Person> trySplit() {
+			if (remaining != 0)
+				return null;
+			int middle = (block + endBlock) >>> 1;
+			if (middle <= block)
+				return null;
+			BlockSpliterator prefix = new BlockSpliterator(block, middle);
+			block = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return remaining + (recordsBefore[endBlock] - recordsBefore[Math.min(block, endBlock)]);
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED
+					| Spliterator.IMMUTABLE;
+		}
+	}
+}
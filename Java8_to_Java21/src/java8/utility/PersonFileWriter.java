@@ -0,0 +1,122 @@
+package java8.utility;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Writes {@link Person}s in a compact binary format, read back with
+ * {@link PersonFileReader}. Everything is big-endian.
+ *
+ * <pre>
+ * file   : magic "PRSN" | version int | record count long | block ...
+ * block  : record count int | payload bytes int | record ...
+ * record : age int | name length int | UTF-8 name bytes
+ * </pre>
+ *
+ * Blocks hold up to {@value #MAX_BLOCK_RECORDS} records (or about
+ * {@value #TARGET_BLOCK_BYTES} bytes), they are the unit the reader splits on
+ * for parallel streams. Names must not be {@code null}. Not thread-safe.
+ */
+public class PersonFileWriter implements Closeable {
+
+	static final int MAGIC = 0x5052534E; // "PRSN"
+	static final int VERSION = 1;
+	static final int FILE_HEADER_BYTES = 16;
+	static final int RECORD_COUNT_POSITION = 8;
+	static final int BLOCK_HEADER_BYTES = 8;
+	static final int RECORD_HEADER_BYTES = 8;
+
+	static final int MAX_BLOCK_RECORDS = 16 * 1024;
+	static final int TARGET_BLOCK_BYTES = 512 * 1024;
+
+	private final FileChannel channel;
+	private ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + TARGET_BLOCK_BYTES);
+	private int blockRecords;
+	private long records;
+	private boolean closed;
+
+	public PersonFileWriter(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+		header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+		writeFully(header);
+		block.position(BLOCK_HEADER_BYTES);
+	}
+
+	/**
+	 * writes every person of the iterable and closes the file
+	 */
+	public static void write(Path path, Iterable<Person> people) throws IOException {
+		try (PersonFileWriter writer = new PersonFileWriter(path)) {
+			for (Person person : people)
+				writer.write(person);
+		}
+	}
+
+	public void write(Person person) throws IOException {
+		write(person.getName(), person.getAge());
+	}
+
+	public void write(String name, int age) throws IOException {
+		if (closed)
+			throw new IOException("writer is closed");
+		byte[] bytes = Objects.requireNonNull(name, "name").getBytes(StandardCharsets.UTF_8);
+		int recordBytes = RECORD_HEADER_BYTES + bytes.length;
+		if (blockRecords > 0 && (blockRecords == MAX_BLOCK_RECORDS || block.remaining() < recordBytes))
+			flushBlock();
+		if (block.remaining() < recordBytes) { // a single name bigger than a block
+			ByteBuffer bigger = ByteBuffer.allocate(BLOCK_HEADER_BYTES + recordBytes);
+			block.flip();
+			bigger.put(block);
+			block = bigger;
+		}
+		block.putInt(age).putInt(bytes.length).put(bytes);
+		blockRecords++;
+		records++;
+	}
+
+	public long records() {
+		return records;
+	}
+
+	private void flushBlock() throws IOException {
+		if (blockRecords == 0)
+			return;
+		block.putInt(0, blockRecords);
+		block.putInt(4, block.position() - BLOCK_HEADER_BYTES);
+		block.flip();
+		writeFully(block);
+		if (block.capacity() > BLOCK_HEADER_BYTES + TARGET_BLOCK_BYTES)
+			block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + TARGET_BLOCK_BYTES);
+		block.clear().position(BLOCK_HEADER_BYTES);
+		blockRecords = 0;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * writes the last block and the total record count into the file header
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try (FileChannel channel = this.channel) {
+			flushBlock();
+			ByteBuffer count = ByteBuffer.allocate(Long.BYTES).putLong(records).flip();
+			while (count.hasRemaining())
+				channel.write(count, RECORD_COUNT_POSITION + count.position());
+		}
+	}
+}
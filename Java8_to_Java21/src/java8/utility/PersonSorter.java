@@ -0,0 +1,331 @@
+package java8.utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts {@link Person}s into exactly the order of
+ * {@code Collections.sort(list)} ({@code Person.compareTo}: age, then name;
+ * stable for equal persons) without calling {@code compareTo} for most pairs.
+ * <ul>
+ * <li>every person gets a packed {@code long} key: {@code age - minAge} in the
+ * top bits (only as many bits as the age range needs) and the leading UTF-16
+ * chars of the name below it, padded with 0 so a shorter name sorts first,
+ * just like {@code String.compareTo}. A prefix shared by every name is skipped,
+ * it would not tell any two apart.</li>
+ * <li>the keys are LSD radix sorted (8 bits per pass, passes where every key
+ * has the same digit are skipped) together with an index permutation, so the
+ * persons themselves are only touched once at the end</li>
+ * <li>runs of equal keys (same age and same name prefix) are the only places
+ * where {@code compareTo} is called</li>
+ * <li>{@link #parallelSort(List)} radix sorts chunks in a
+ * {@code ForkJoinPool} and merges them, comparing keys first</li>
+ * </ul>
+ */
+public final class PersonSorter {
+
+	/** chunks at most this big are radix sorted by one thread */
+	private static final int PARALLEL_LEAF_SIZE = 1 << 16;
+	private static final int INSERTION_SORT_RUN = 32;
+
+	private PersonSorter() {
+	}
+
+	public static void main(String[] args) {
+		// one pass at a modest size, a quick look and a check rather than a benchmark
+		int size = (args.length > 0) ? Integer.parseInt(args[0]) : 500_000;
+		Random random = new Random(42);
+		List<Person> people = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			people.add(new Person("name-" + random.nextInt(size), random.nextInt(100)));
+
+		List<Person> expected = new ArrayList<>(people);
+		long start = System.nanoTime();
+		Collections.sort(expected);
+		long collectionsSort = System.nanoTime() - start;
+
+		List<Person> radix = new ArrayList<>(people);
+		start = System.nanoTime();
+		sort(radix);
+		long radixSort = System.nanoTime() - start;
+
+		List<Person> parallel = new ArrayList<>(people);
+		start = System.nanoTime();
+		parallelSort(parallel);
+		long parallelSort = System.nanoTime() - start;
+
+		System.out.printf("Collections.sort: %6d ms  sort: %6d ms  parallelSort: %6d ms  same order: %b%n",
+				collectionsSort / 1_000_000, radixSort / 1_000_000, parallelSort / 1_000_000,
+				sameInstances(expected, radix) && sameInstances(expected, parallel));
+		if (!sameInstances(expected, radix) || !sameInstances(expected, parallel))
+			throw new AssertionError("radix sort order differs from Collections.sort");
+
+		// the corners of the packed keys: negative and huge ages, a shared prefix, names that only differ after
+		// the packed chars, empty and non-ASCII names, equal persons (stability)
+		List<Person> corners = new ArrayList<>();
+		String[] names = { "", "a", "ab", "abcdefghij", "abcdefghik", "abcdefghi", "ä", "\uffff", "Z",
+				"shared-prefix-1", "shared-prefix-2" };
+		int[] ages = { Integer.MIN_VALUE, -1, 0, 0, 17, 17, Integer.MAX_VALUE };
+		for (int i = 0; i < 200_000; i++)
+			corners.add(new Person(names[random.nextInt(names.length)], ages[random.nextInt(ages.length)]));
+		expected = new ArrayList<>(corners);
+		Collections.sort(expected);
+		radix = new ArrayList<>(corners);
+		sort(radix);
+		parallel = new ArrayList<>(corners);
+		parallelSort(parallel);
+		if (!sameInstances(expected, radix) || !sameInstances(expected, parallel))
+			throw new AssertionError("radix sort order differs from Collections.sort on the corner cases");
+		System.out.println("corner cases: same order");
+	}
+
+	private static boolean sameInstances(List<Person> expected, List<Person> actual) {
+		for (int i = 0; i < expected.size(); i++)
+			if (expected.get(i) != actual.get(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * sorts the list in place, same result as {@code Collections.sort(list)}
+	 */
+	public static void sort(List<Person> list) {
+		Person[] people = list.toArray(new Person[0]);
+		Keys keys = new Keys(people);
+		keys.radixSort(0, people.length, new long[people.length], new int[people.length]);
+		writeBack(list, people, keys.order);
+	}
+
+	/**
+	 * same result as {@link #sort(List)}, chunks are sorted and merged on the
+	 * common {@code ForkJoinPool}
+	 */
+	public static void parallelSort(List<Person> list) {
+		Person[] people = list.toArray(new Person[0]);
+		Keys keys = new Keys(people);
+		if (people.length <= PARALLEL_LEAF_SIZE)
+			keys.radixSort(0, people.length, new long[people.length], new int[people.length]);
+		else
+			ForkJoinPool.commonPool()
+					.invoke(new SortTask(keys, 0, people.length, new long[people.length], new int[people.length]));
+		writeBack(list, people, keys.order);
+	}
+
+	private static void writeBack(List<Person> list, Person[] people, int[] order) {
+		ListIterator<Person> iterator = list.listIterator();
+		for (int index : order) {
+			iterator.next();
+			iterator.set(people[index]);
+		}
+	}
+
+	/**
+	 * packed keys and the permutation, both reordered together
+	 */
+	private static final class Keys {
+		final Person[] people;
+		final long[] keys;
+		final int[] order;
+
+		Keys(Person[] people) {
+			this.people = people;
+			this.keys = new long[people.length];
+			this.order = new int[people.length];
+
+			int minAge = Integer.MAX_VALUE;
+			int maxAge = Integer.MIN_VALUE;
+			for (Person person : people) {
+				minAge = Math.min(minAge, person.getAge());
+				maxAge = Math.max(maxAge, person.getAge());
+			}
+			int ageBits = (people.length == 0) ? 0 : 64 - Long.numberOfLeadingZeros((long) maxAge - minAge);
+			int nameChars = (64 - ageBits) / 16;
+			int commonPrefix = commonPrefixLength(people);
+			for (int i = 0; i < people.length; i++) {
+				keys[i] = key(people[i], minAge, ageBits, commonPrefix, nameChars);
+				order[i] = i;
+			}
+		}
+
+		private static int commonPrefixLength(Person[] people) {
+			if (people.length == 0)
+				return 0;
+			String first = people[0].getName();
+			int length = first.length();
+			for (int i = 1; i < people.length && length > 0; i++) {
+				String name = people[i].getName();
+				int limit = Math.min(length, name.length());
+				int same = 0;
+				while (same < limit && name.charAt(same) == first.charAt(same))
+					same++;
+				length = same;
+			}
+			return length;
+		}
+
+		private static long key(Person person, int minAge, int ageBits, int skip, int nameChars) {
+			long key = (ageBits == 0) ? 0 : ((long) person.getAge() - minAge) << (64 - ageBits);
+			String name = person.getName();
+			int end = Math.min(name.length(), skip + nameChars);
+			int shift = 64 - ageBits;
+			for (int i = skip; i < end; i++) {
+				shift -= 16;
+				key |= (long) name.charAt(i) << shift;
+			}
+			return key;
+		}
+
+		/**
+		 * stable LSD radix sort of [from, to), then the equal-key runs are put in
+		 * {@code compareTo} order
+		 */
+		void radixSort(int from, int to, long[] keyBuffer, int[] orderBuffer) {
+			long[] sourceKeys = keys;
+			int[] sourceOrder = order;
+			long[] targetKeys = keyBuffer;
+			int[] targetOrder = orderBuffer;
+			int[] counts = new int[257];
+			for (int shift = 0; shift < 64; shift += 8) {
+				Arrays.fill(counts, 0);
+				for (int i = from; i < to; i++)
+					counts[(int) ((sourceKeys[i] >>> shift) & 0xFF) + 1]++;
+				if (isSingleBucket(counts, to - from))
+					continue; // every key has the same digit here
+				for (int digit = 0; digit < 256; digit++)
+					counts[digit + 1] += counts[digit];
+				for (int i = from; i < to; i++) {
+					int target = from + counts[(int) ((sourceKeys[i] >>> shift) & 0xFF)]++;
+					targetKeys[target] = sourceKeys[i];
+					targetOrder[target] = sourceOrder[i];
+				}
+				long[] swapKeys = sourceKeys;
+				sourceKeys = targetKeys;
+				targetKeys = swapKeys;
+				int[] swapOrder = sourceOrder;
+				sourceOrder = targetOrder;
+				targetOrder = swapOrder;
+			}
+			if (sourceKeys != keys) {
+				System.arraycopy(sourceKeys, from, keys, from, to - from);
+				System.arraycopy(sourceOrder, from, order, from, to - from);
+			}
+			sortTies(from, to);
+		}
+
+		private static boolean isSingleBucket(int[] counts, int length) {
+			for (int digit = 1; digit <= 256; digit++)
+				if (counts[digit] != 0)
+					return counts[digit] == length;
+			return true;
+		}
+
+		private void sortTies(int from, int to) {
+			int runStart = from;
+			for (int i = from + 1; i <= to; i++) {
+				if (i == to || keys[i] != keys[runStart]) {
+					if (i - runStart > 1)
+						sortRun(runStart, i);
+					runStart = i;
+				}
+			}
+		}
+
+		/**
+		 * stable sort of a run that shares the same key, by {@code compareTo}
+		 */
+		private void sortRun(int from, int to) {
+			if (to - from <= INSERTION_SORT_RUN) {
+				for (int i = from + 1; i < to; i++) {
+					int current = order[i];
+					int j = i - 1;
+					while (j >= from && people[order[j]].compareTo(people[current]) > 0) {
+						order[j + 1] = order[j];
+						j--;
+					}
+					order[j + 1] = current;
+				}
+			} else {
+				Integer[] run = new Integer[to - from];
+				for (int i = from; i < to; i++)
+					run[i - from] = order[i];
+				Arrays.sort(run, (a, b) -> people[a].compareTo(people[b])); // TimSort, stable
+				for (int i = from; i < to; i++)
+					order[i] = run[i - from];
+			}
+		}
+
+		/**
+		 * @return the {@code Person.compareTo} order of two sorted positions, by key
+		 *         first
+		 */
+		int compare(long leftKey, int leftIndex, long rightKey, int rightIndex) {
+			int byKey = Long.compareUnsigned(leftKey, rightKey);
+			return (byKey != 0) ? byKey : people[leftIndex].compareTo(people[rightIndex]);
+		}
+
+		/**
+		 * merges the sorted [from, middle) and [middle, to), taking the left one on
+		 * ties to stay stable
+		 */
+		void merge(int from, int middle, int to, long[] keyBuffer, int[] orderBuffer) {
+			int left = from;
+			int right = middle;
+			int target = from;
+			while (left < middle && right < to) {
+				if (compare(keys[left], order[left], keys[right], order[right]) <= 0) {
+					keyBuffer[target] = keys[left];
+					orderBuffer[target++] = order[left++];
+				} else {
+					keyBuffer[target] = keys[right];
+					orderBuffer[target++] = order[right++];
+				}
+			}
+			for (; left < middle; left++, target++) {
+				keyBuffer[target] = keys[left];
+				orderBuffer[target] = order[left];
+			}
+			for (; right < to; right++, target++) {
+				keyBuffer[target] = keys[right];
+				orderBuffer[target] = order[right];
+			}
+			System.arraycopy(keyBuffer, from, keys, from, to - from);
+			System.arraycopy(orderBuffer, from, order, from, to - from);
+		}
+	}
+
+	private static final class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Keys keys;
+		private final int from;
+		private final int to;
+		private final long[] keyBuffer;
+		private final int[] orderBuffer;
+
+		SortTask(Keys keys, int from, int to, long[] keyBuffer, int[] orderBuffer) {
+			this.keys = keys;
+			this.from = from;
+			this.to = to;
+			this.keyBuffer = keyBuffer;
+			this.orderBuffer = orderBuffer;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_LEAF_SIZE) {
+				keys.radixSort(from, to, keyBuffer, orderBuffer);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new SortTask(keys, from, middle, keyBuffer, orderBuffer),
+					new SortTask(keys, middle, to, keyBuffer, orderBuffer));
+			keys.merge(from, middle, to, keyBuffer, orderBuffer);
+		}
+	}
+}
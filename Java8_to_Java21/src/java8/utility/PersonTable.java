@@ -0,0 +1,233 @@
+package java8.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Column oriented (struct-of-arrays) storage for many {@link Person} rows.
+ * <ul>
+ * <li>ages live in one {@code int[]}</li>
+ * <li>names are UTF-8 bytes appended to one shared {@code byte[]} arena, row
+ * {@code i} is {@code arena[nameOffsets[i] .. nameOffsets[i + 1])}</li>
+ * <li>a {@code Person} is only created when a row is asked for through
+ * {@link #get(int)} or {@link #stream()}</li>
+ * </ul>
+ * Per row that is 4 bytes of age, 4 bytes of offset and the name bytes,
+ * instead of a {@code Person} header, a {@code String} header and its backing
+ * array. Names must not be {@code null}. Appending is not thread-safe, reading
+ * (including parallel streams) is, once the appends are done.
+ */
+public class PersonTable {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	/** the largest array some VMs can allocate */
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	private int size;
+	private int[] ages;
+	/** size + 1 entries, the last one is the end of the arena */
+	private int[] nameOffsets;
+	private byte[] nameArena;
+
+	public PersonTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PersonTable(int initialCapacity) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("initialCapacity must not be negative: " + initialCapacity);
+		int capacity = Math.max(Math.min(initialCapacity, MAX_ARRAY_LENGTH - 1), 1);
+		this.ages = new int[capacity];
+		this.nameOffsets = new int[capacity + 1];
+		this.nameArena = new byte[(int) Math.min((long) capacity * 8, MAX_ARRAY_LENGTH)];
+	}
+
+	public static PersonTable of(Collection<Person> people) {
+		PersonTable table = new PersonTable(people.size());
+		people.forEach(table::append);
+		return table;
+	}
+
+	/**
+	 * memory comparison against {@code List<Person>}, heap is measured after a GC
+	 *
+	 * {@code java -Xmx4g java8.utility.PersonTable [rows...]} (default 1M and
+	 * 10M)
+	 */
+	public static void main(String[] args) {
+		int[] rowCounts = (args.length > 0) ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 1_000_000, 10_000_000 };
+		for (int rows : rowCounts) {
+			long before = usedHeap();
+			List<Person> list = new ArrayList<>(rows);
+			for (int i = 0; i < rows; i++)
+				list.add(new Person("person-" + i, i % 100));
+			long listBytes = usedHeap() - before;
+
+			before = usedHeap();
+			PersonTable table = new PersonTable(rows);
+			for (int i = 0; i < rows; i++)
+				table.append("person-" + i, i % 100);
+			table.trimToSize();
+			long tableBytes = usedHeap() - before;
+
+			System.out.printf("%,d rows  List<Person>: %,d bytes  PersonTable: %,d bytes (%,d estimated)  ratio: %.2f%n",
+					rows, listBytes, tableBytes, table.estimatedBytes(), (double) listBytes / tableBytes);
+			// keep both alive until both were measured
+			if (list.size() != table.size())
+				throw new IllegalStateException();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public PersonTable append(Person person) {
+		return append(person.getName(), person.getAge());
+	}
+
+	public PersonTable append(String name, int age) {
+		byte[] bytes = Objects.requireNonNull(name, "name").getBytes(StandardCharsets.UTF_8);
+		if (size == ages.length) {
+			if (size == MAX_ARRAY_LENGTH - 1)
+				throw new OutOfMemoryError("more than " + size + " rows");
+			int capacity = (int) Math.min(Math.max(ages.length * 2L, DEFAULT_CAPACITY), MAX_ARRAY_LENGTH - 1);
+			ages = Arrays.copyOf(ages, capacity);
+			nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+		}
+		int start = nameOffsets[size];
+		int end = start + bytes.length;
+		if (end > nameArena.length || end < 0)
+			nameArena = Arrays.copyOf(nameArena, growArena(end));
+		System.arraycopy(bytes, 0, nameArena, start, bytes.length);
+		ages[size] = age;
+		nameOffsets[++size] = end;
+		return this;
+	}
+
+	private int growArena(int required) {
+		if (required < 0 || required > MAX_ARRAY_LENGTH)
+			throw new OutOfMemoryError("name arena exceeds 2 GiB");
+		long doubled = (long) nameArena.length * 2;
+		return (int) Math.min(MAX_ARRAY_LENGTH, Math.max(doubled, required));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int ageAt(int index) {
+		return ages[checkIndex(index)];
+	}
+
+	public String nameAt(int index) {
+		checkIndex(index);
+		int start = nameOffsets[index];
+		return new String(nameArena, start, nameOffsets[index + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a new {@code Person} for the row, changes to it are not written
+	 *         back
+	 */
+	public Person get(int index) {
+		return new Person(nameAt(index), ageAt(index));
+	}
+
+	/**
+	 * @return the ages column, split by index range so {@code parallel()} scans
+	 *         without creating any {@code Person}
+	 */
+	public IntStream ages() {
+		return Arrays.stream(ages, 0, size);
+	}
+
+	/**
+	 * @return rows materialized one by one, split by index range for
+	 *         {@code parallel()}
+	 */
+	public Stream<Person> stream() {
+		return StreamSupport.stream(new RowSpliterator(0, size), false);
+	}
+
+	/**
+	 * shrinks the columns to the current size
+	 */
+	public void trimToSize() {
+		ages = Arrays.copyOf(ages, Math.max(size, 1));
+		nameOffsets = Arrays.copyOf(nameOffsets, Math.max(size, 1) + 1);
+		nameArena = Arrays.copyOf(nameArena, nameOffsets[size]);
+	}
+
+	/**
+	 * @return bytes held by the three arrays (headers included)
+	 */
+	public long estimatedBytes() {
+		return 16L + ages.length * 4L + 16L + nameOffsets.length * 4L + 16L + nameArena.length;
+	}
+
+	private int checkIndex(int index) {
+		return Objects.checkIndex(index, size);
+	}
+
+	/**
+	 * the same shape as the {@code ArrayList} spliterator, bound to a fixed index
+	 * range
+	 */
+	private final class RowSpliterator implements Spliterator<Person> {
+		private int index;
+		private final int end;
+
+		RowSpliterator(int index, int end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Person> action) {
+			if (index >= end)
+				return false;
+			action.accept(get(index++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super Person> action) {
+			for (; index < end; index++)
+				action.accept(get(index));
+		}
+
+		@Override
+		public Spliterator<Person> trySplit() {
+			int middle = (index + end) >>> 1;
+			if (middle <= index)
+				return null;
+			RowSpliterator prefix = new RowSpliterator(index, middle);
+			index = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package java8.utility;
+
+import java.io.PrintStream;
+
+/**
+ * {@link NumberSink} over a {@code PrintStream}, see
+ * {@link NumberSink#of(PrintStream)}
+ */
+class PrintStreamNumberSink implements NumberSink {
+
+	private final PrintStream out;
+
+	PrintStreamNumberSink(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public NumberSink print(long value) {
+		out.print(value);
+		return this;
+	}
+
+	@Override
+	public NumberSink print(double value) {
+		out.print(value);
+		return this;
+	}
+
+	@Override
+	public NumberSink print(CharSequence text) {
+		out.print(text);
+		return this;
+	}
+
+	/**
+	 * one {@code println} call, a value and its line break are written under
+	 * one lock and lines from parallel pipelines do not interleave
+	 */
+	@Override
+	public NumberSink println(Number value) {
+		out.println(value);
+		return this;
+	}
+
+	@Override
+	public NumberSink println(long value) {
+		out.println(value);
+		return this;
+	}
+
+	@Override
+	public NumberSink println(CharSequence text) {
+		out.println(text);
+		return this;
+	}
+
+	@Override
+	public NumberSink newLine() {
+		out.println();
+		return this;
+	}
+
+	@Override
+	public void flush() {
+		out.flush();
+	}
+
+	@Override
+	public void close() {
+		out.flush();
+	}
+}
@@ -13,9 +13,11 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BinaryOperator;
@@ -57,7 +59,23 @@ import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
+import java8.utility.NumberSink;
+import java8.utility.Object2IntMap;
 import java8.utility.Person;
+import java8to15.java8.collectors.Flattening;
+import java8to15.java8.collectors.IntGroups;
+import java8to15.java8.collectors.JoiningCollectors;
+import java8to15.java8.collectors.KeySort;
+import java8to15.java8.collectors.PrimitiveDistinct;
+import java8to15.java8.collectors.PrimitivePartitions;
+import java8to15.java8.collectors.PrimitivePartitions.IntPartition;
+import java8to15.java8.collectors.TopK;
+import java8to15.java8.io.AsyncChunkedLineReader;
+import java8to15.java8.io.LineMatcher;
+import java8to15.java8.io.MappedLineReader;
+import java8to15.java8.probe.PipelineProbe;
+import java8to15.java9.BatchingSubscriber;
+import java8to15.java9.GeneratorPublisher;
 
 /**
  * <ul>
@@ -235,12 +253,37 @@ public class Streams {
 
 	}
 
+	// volatile: logTo() may be called while another thread logs; a sink is not
+	// thread-safe, so every use of it holds its lock (parallel streams log too)
+	private static volatile NumberSink logSink = NumberSink.of(System.out);
+
+	/**
+	 * redirects {@code log()}, i.e. {@code Streams.logTo(ChannelNumberSink.stdout())}
+	 * for buffered output when logging millions of values. The previous sink is
+	 * flushed and returned so it can be restored (or closed) afterwards.
+	 */
+	public static synchronized NumberSink logTo(NumberSink sink) {
+		Objects.requireNonNull(sink, "sink");
+		NumberSink previous = logSink;
+		synchronized (previous) {
+			previous.flush();
+		}
+		logSink = sink;
+		return previous;
+	}
+
 	public static void log(Number i) {
-		System.out.println(i);
+		NumberSink sink = logSink;
+		synchronized (sink) {
+			sink.println(i);
+		}
 	}
 
 	public static void log(String i) {
-		System.out.println(i);
+		NumberSink sink = logSink;
+		synchronized (sink) {
+			sink.println(i);
+		}
 	}
 
 	/**
@@ -300,6 +343,18 @@ public class Streams {
 //		passed starts check: Paulo
 //		passed length check: Paulo
 //		Answer :Paulo
+
+//		peek() printing is fine for six names, but not for millions of elements or a parallel stream. PipelineProbe
+//		counts what goes in and out of every stage (and samples the time spent in it) without printing anything
+		PipelineProbe probe = PipelineProbe.sampling(1);
+		Stream.of("Nick", "Pia", "Roy", "Zain", "Paulo", "Robbie")
+				.filter(probe.filter("starts with P or R", s -> s.startsWith("P") || s.startsWith("R")))
+				.filter(probe.filter("longer than 3", s -> s.length() > 3)).limit(1)
+				.forEach(s -> System.out.println("Answer :" + s));
+		System.out.print(probe.report());
+//		stage                      kind             in            out  pass %   sampled   avg ns  p50<= ns  p99<= ns    est. ms
+//		starts with P or R       FILTER              5              3   60.00         5 ...
+//		longer than 3            FILTER              3              1   33.33         3 ...
 	}
 
 	public static void mapToStream() {
@@ -315,15 +370,24 @@ public class Streams {
 				.collect(Collectors.toMap(entry -> entry.getKey(), entry -> entry.getValue()));
 
 		System.out.println(youngstersMap); // {Rena=21, Laur=29}
+
+		// the same filter without an Integer or Map.Entry per entry, for maps of millions of names
+		Object2IntMap<String> ages = Object2IntMap.from(map);
+		Object2IntMap<String> youngsters = ages.filter((name, age) -> age < 30 && age > 20); // parallelFilter() for big maps
+		System.out.println(youngsters); // {Rena=21, Laur=29} (in any order)
+		ages.forEachEntry((name, age) -> System.out.println(name + " is " + age));
 	}
 
 	public static void readFilesUsingStreams() {
 		String filePath = "C:\\Users\\piyus\\OneDrive\\Desktop\\apple interview prep.txt";
-		List<String> lines = new LinkedList<>();
-		try {
-//			Files.lines(Path.of(path)).forEach(lines::add); // Path.of(String s) java 11
-			Path path = new File(filePath).toPath(); // File.toPath() java 7
-			Files.lines(path).forEach(lines::add); // Stream<String> java.nio.file.Files.lines(Path path) java 8
+		List<String> lines = new ArrayList<>();
+		Path path = new File(filePath).toPath(); // File.toPath() java 7
+//		Files.lines(Path.of(path)).forEach(lines::add); // Path.of(String s) java 11
+//		Files.lines(path).forEach(lines::add); // Stream<String> java.nio.file.Files.lines(Path path) java 8
+		// Files.lines() feeds one BufferedReader, so it does not get faster with parallel(); the mapped reader
+		// hands out newline aligned chunks of the file instead (see MappedLineReader.main for MB/s)
+		try (MappedLineReader reader = MappedLineReader.open(path)) {
+			lines = reader.lines().parallel().collect(Collectors.toList()); // keeps the file order
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -332,6 +396,42 @@ public class Streams {
 		lines.forEach(System.out::println);
 	}
 
+	/**
+	 * {@link #readFilesUsingStreams()} when only some lines are wanted: the
+	 * filter runs on the raw UTF-8 bytes, so the lines it drops are never turned
+	 * into Strings, i.e.
+	 * {@code readFilesUsingStreams(LineMatcher.contains("ERROR").and(LineMatcher.startsWith("2024")))}
+	 */
+	public static void readFilesUsingStreams(LineMatcher filter) {
+		String filePath = "C:\\Users\\piyus\\OneDrive\\Desktop\\apple interview prep.txt";
+		List<String> lines = new ArrayList<>();
+		try (MappedLineReader reader = MappedLineReader.open(Path.of(filePath))) {
+			lines = reader.lines(filter).parallel().collect(Collectors.toList());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.out.println("total number of matching lines :: " + lines.size());
+		lines.forEach(System.out::println);
+	}
+
+	/**
+	 * same as {@link #readFilesUsingStreams()} for files on slow storage: the
+	 * next chunks are already being read and decoded while the current lines are
+	 * processed, the calling thread only waits when it gets ahead of the reads
+	 */
+	public static void readFilesAsynchronously() {
+		String filePath = "C:\\Users\\piyus\\OneDrive\\Desktop\\apple interview prep.txt";
+		try {
+			AsyncChunkedLineReader reader = AsyncChunkedLineReader.open(Path.of(filePath), 256 * 1024, 8);
+			try (Stream<String> lines = reader.lines()) { // closing the stream closes the reader
+				lines.forEach(System.out::println); // in file order
+			}
+			System.out.println(reader); // read latency vs decode time
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * limit() is a stateful intermediate operation that maintains some state to
 	 * count the current result size and can be used to limit the streams
@@ -351,6 +451,31 @@ public class Streams {
 		intStream1.forEach(System.out::println);
 	}
 
+	/**
+	 * the suppliers of {@link #infiniteStreams()} behind a java 9
+	 * {@code Flow.Publisher}: elements are only generated when the subscriber
+	 * asks for them, so a slow consumer paces the producer instead of being
+	 * flooded, and it can stop the source with {@code cancel()}
+	 */
+	public static void pacedInfiniteStreams() throws InterruptedException {
+		BatchingSubscriber<Integer> slowSink = new BatchingSubscriber<>(n -> {
+			System.out.println(n);
+			try {
+				Thread.sleep(10); // a slow consumer
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, 16, ForkJoinPool.commonPool()); // at most 16 elements wait for it, asks for 8 more at a time
+		GeneratorPublisher.generate(() -> (int) (Math.random() * 10)).subscribe(slowSink);
+
+		BatchingSubscriber<Integer> fastSink = new BatchingSubscriber<>(System.out::println, 16, Runnable::run);
+		GeneratorPublisher.iterate(2, n -> n + 2).subscribe(fastSink);
+
+		Thread.sleep(200);
+		slowSink.cancel(); // both generators stop, unlike the Streams above
+		fastSink.cancel();
+	}
+
 	/**
 	 * <li>Terminal operations can be performed without any intermediate operations
 	 * but not the other way around <br>
@@ -657,6 +782,13 @@ public class Streams {
 		 */
 		String sweetTooth3 = sweetList.stream().collect(Collectors.joining(", ", ">>", "<<"));
 		System.out.println(sweetTooth3); // >>cake, pastry, pies, tarts, wafer, timbale<<
+		/*
+		 * on a parallel stream Collectors.joining() copies the characters again every
+		 * time two StringJoiners are combined, JoiningCollectors.joining() only moves
+		 * references around and copies each element once, straight to its final place
+		 */
+		String sweetTooth4 = sweetList.parallelStream().collect(JoiningCollectors.joining(", ", ">>", "<<"));
+		System.out.println(sweetTooth4); // >>cake, pastry, pies, tarts, wafer, timbale<<
 
 //		java 8
 		/*
@@ -786,6 +918,11 @@ public class Streams {
 		Map<Integer, List<String>> sweetListGroupedBy = sweetList.stream()
 				.collect(Collectors.groupingBy(name -> name.length()));
 		System.out.println(sweetListGroupedBy); // {4=[cake, pies], 5=[tarts, wafer], 6=[pastry], 7=[timbale]}
+//		same grouping without boxing the length, the Map is only built when asked for
+		IntGroups<String> sweetListGroupedByLength = sweetList.stream()
+				.collect(IntGroups.groupingBy(name -> name.length()));
+		System.out.println(sweetListGroupedByLength.get(5)); // [tarts, wafer]
+		System.out.println(sweetListGroupedByLength.toMap().equals(sweetListGroupedBy)); // true
 
 //		grouping by 1st character
 		Map<Character, List<String>> sweetListGroupedByFirstLetter = sweetList.stream()
@@ -821,6 +958,12 @@ public class Streams {
 		Map<Boolean, List<Integer>> integerValuesOver50 = randomIntList.stream()
 				.collect(Collectors.partitioningBy(number -> number > 50));
 		System.out.println(integerValuesOver50); // {false=[10, 20, 40, 20, 40, 10], true=[80, 60, 80]}
+//		same partition on an IntStream, into two int[] instead of two List<Integer>
+		IntPartition intValuesOver50 = PrimitivePartitions.partition(randomIntList.stream().mapToInt(number -> number),
+				number -> number > 50);
+		System.out.println(intValuesOver50); // {false=[10, 20, 40, 20, 40, 10], true=[80, 60, 80]}
+		System.out.println(PrimitivePartitions.count(randomIntList.stream().mapToInt(number -> number),
+				number -> number > 50)); // {false=6, true=3}
 
 //		getting Set<T> as Map's value
 		Map<Boolean, Set<Integer>> integerValuesOver50_set = randomIntList.stream()
@@ -868,6 +1011,9 @@ public class Streams {
 		 */
 //		Getting all the distinct values of the Stream<Integer>
 		System.out.println(randomIntList.stream().distinct().collect(Collectors.toList())); // [10, 20, 80, 40, 60];
+//		same on an IntStream, without boxing every element into a LinkedHashSet
+		System.out.println(Arrays.toString(
+				PrimitiveDistinct.distinct(randomIntList.stream().mapToInt(number -> number)).toArray())); // [10, 20, 80, 40, 60]
 
 //		java 8
 		/*
@@ -907,6 +1053,9 @@ public class Streams {
 		List<Integer> allIntList = Stream.of(intList, randomIntList).flatMap(list -> list.stream())
 				.collect(Collectors.toList());
 		System.out.println(allIntList); // [10, 20, 30, 40, 50, 60, 70, 80, 90, 10, 20, 80, 40, 20, 60, 40, 80, 10]
+//		list.stream() knows its size, so the result can be allocated once and filled at the offsets
+		List<Integer> allIntListPresized = Flattening.flatten(Stream.of(intList, randomIntList).map(list -> list.stream()));
+		System.out.println(allIntListPresized.equals(allIntList)); // true
 
 //		java 8
 		/*
@@ -957,6 +1106,11 @@ public class Streams {
 						new Person("Albus", 59), new Person("Brian", 18))
 				.sorted(Comparator.comparing(Person::getName)).collect(Collectors.toList());
 		System.out.println(people);
+//		Comparator.comparing() calls Person::getName on both sides of every comparison, KeySort calls it once per
+//		element and sorts the precomputed keys (numeric keys go through Arrays.parallelSort() on a long[])
+		List<Person> peopleByAgeThenName = KeySort.comparingInt(Person::getAge).thenComparing(Person::getName)
+				.sorted(people);
+		System.out.println(peopleByAgeThenName); // Brian 18, Harry 18, Patrisha 24, Molly 46, Albus 59
 
 //		Sorting the names based on lexicographical order, but also limiting them to 2 count.
 //		The filtering happens first because next is sort() and sort() needs all the data to perform sorting.
@@ -975,6 +1129,20 @@ public class Streams {
 				.peek(name -> System.out.println("filtered: " + name)) // Pat, Jim, Ron, Joe
 				.sorted().peek(name -> System.out.println("sorted: " + name)) // Jim, Joe
 				.limit(2).forEach(name -> System.out.println("limit: " + name)); // Jim, Joe
+//		the same pipeline with counters per stage instead of printing from every thread
+		PipelineProbe namesProbe = PipelineProbe.sampling(1);
+		names.stream().parallel().filter(namesProbe.filter("length <= 3", name -> name.length() <= 3))
+				.peek(namesProbe.count("filtered")).sorted().peek(namesProbe.count("sorted")).limit(2)
+				.forEach(namesProbe.count("limit"));
+		System.out.print(namesProbe.report());
+//		length <= 3              FILTER             11              4   36.36 ...
+//		filtered                  COUNT              4
+//		sorted                    COUNT              2 (or more, sorted() may hand out more before limit() stops it)
+//		limit                     COUNT              2
+
+//		sorted() above buffers and sorts every filtered name to hand out 2 of them, TopK keeps only the best 2 so far
+//		in a bounded heap per thread and gives the same result as sorted().limit(2)
+		System.out.println(names.stream().parallel().filter(name -> name.length() <= 3).collect(TopK.smallest(2))); // [Jim, Joe]
 
 	}
 
@@ -1381,6 +1549,12 @@ public class Streams {
 			return l1; // not a parallel stream thus Combiner implementation does not matter
 		});
 		System.out.println("combined list: " + combined); // 1 2 3 4 5 6 7 8 9
+//		the reduce above mutates its identity, on a parallel stream every thread would add to that same ArrayList.
+//		Flattening.flattening() only collects the lists, then fills one exactly sized array (in parallel when large)
+		List<Integer> combinedInParallel = lists.parallelStream().collect(Flattening.flattening());
+		System.out.println("combined list: " + combinedInParallel); // [1, 2, 3, 4, 5, 6, 7, 8, 9]
+		int[] combinedInts = Flattening.flattenToInt(lists);
+		System.out.println("combined int[]: " + Arrays.toString(combinedInts)); // [1, 2, 3, 4, 5, 6, 7, 8, 9]
 
 //		factorial of integer
 		int n = 5;
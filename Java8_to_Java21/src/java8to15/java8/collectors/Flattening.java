@@ -0,0 +1,281 @@
+package java8to15.java8.collectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Concatenating many collections / streams into one list or {@code int[]}
+ * with a single allocation.
+ * <ul>
+ * <li>{@code flatMap(list -> list.stream()).collect(toList())} does not know
+ * how many elements are coming, the {@code ArrayList} grows (and copies) on
+ * the way, and on a parallel stream every split has its own list which is
+ * copied again when the lists are combined</li>
+ * <li>the {@code reduce(new ArrayList<>(), ...)} of
+ * {@code Streams.snippets()} mutates its identity, so on a parallel stream
+ * several threads add to the same {@code ArrayList}</li>
+ * <li>here the sizes of the parts are added up first, the target array is
+ * allocated once with the exact size, and every part is copied to its own
+ * offset, in parallel for large results since the ranges are disjoint</li>
+ * <li>a {@code Stream<Stream<T>>} is flattened the same way as long as every
+ * sub-stream knows its size ({@code Spliterator.SIZED}, e.g.
+ * {@code list.stream().map(...)}, not after a {@code filter()}), otherwise
+ * its elements are simply collected one after the other. Draining a sub-stream
+ * runs its lazy stages ({@code map(...)} lambdas), so the sub-streams are only
+ * drained on several threads when the outer stream is {@code parallel()}
+ * itself, like {@code flatMap()} would</li>
+ * </ul>
+ * The lists returned are fixed-size, like {@code Arrays.asList()}.
+ */
+public final class Flattening {
+
+	static final int PARALLEL_FILL_SIZE = 1 << 16;
+
+	private Flattening() {
+	}
+
+	/**
+	 * all elements of all collections, in order
+	 */
+	public static <T> List<T> flatten(Collection<? extends Collection<? extends T>> collections) {
+		Parts<T> parts = new Parts<>();
+		collections.forEach(parts::add);
+		return parts.toList();
+	}
+
+	/**
+	 * all elements of all collections, unboxed, in order
+	 */
+	public static int[] flattenToInt(Collection<? extends Collection<Integer>> collections) {
+		Parts<Integer> parts = new Parts<>();
+		collections.forEach(parts::add);
+		return parts.toIntArray();
+	}
+
+	/**
+	 * the parallel-safe form of {@code reduce(new ArrayList<>(), addAll)}: the
+	 * accumulator and combiner only collect references to the collections, the
+	 * finisher copies every element once
+	 */
+	public static <T> Collector<Collection<? extends T>, ?, List<T>> flattening() {
+		return Collector.of(Parts<T>::new, Parts::add, Parts::merge, Parts::toList);
+	}
+
+	/**
+	 * {@link #flattening()} into an {@code int[]}
+	 */
+	public static Collector<Collection<Integer>, ?, int[]> flatteningToInt() {
+		return Collector.of(Parts<Integer>::new, Parts::add, Parts::merge, Parts::toIntArray);
+	}
+
+	/**
+	 * {@code streams.flatMap(stream -> stream).collect(toList())}, closing the
+	 * sub-streams like {@code flatMap()} does; the sub-streams are drained in
+	 * parallel only if {@code streams} is parallel
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> flatten(Stream<? extends Stream<? extends T>> streams) {
+		boolean parallel = streams.isParallel();
+		List<Stream<? extends T>> subStreams = streams.collect(Collectors.toList());
+		try {
+			List<Spliterator<? extends T>> spliterators = new ArrayList<>(subStreams.size());
+			long[] offsets = new long[subStreams.size() + 1];
+			boolean sized = true;
+			for (int i = 0; i < subStreams.size(); i++) {
+				Spliterator<? extends T> spliterator = subStreams.get(i).spliterator();
+				spliterators.add(spliterator);
+				long size = spliterator.getExactSizeIfKnown();
+				sized &= size >= 0;
+				offsets[i + 1] = offsets[i] + Math.max(0, size);
+			}
+			if (!sized) {
+				List<T> result = new ArrayList<>((int) Math.min(Integer.MAX_VALUE - 8, offsets[offsets.length - 1]));
+				spliterators.forEach(spliterator -> spliterator.forEachRemaining(result::add));
+				return result;
+			}
+			Object[] result = new Object[checkedLength(offsets[offsets.length - 1])];
+			parts(spliterators.size(), result.length, parallel).forEach(part -> {
+				int[] position = { (int) offsets[part] };
+				spliterators.get(part).forEachRemaining(element -> result[position[0]++] = element);
+				if (position[0] != offsets[part + 1])
+					throw new IllegalStateException("sub-stream " + part + " did not have the "
+							+ (offsets[part + 1] - offsets[part]) + " elements it reported");
+			});
+			return Arrays.asList((T[]) result);
+		} finally {
+			subStreams.forEach(Stream::close);
+		}
+	}
+
+	/**
+	 * {@code streams.flatMapToInt(stream -> stream).toArray()}, closing the
+	 * sub-streams like {@code flatMapToInt()} does; the sub-streams are drained
+	 * in parallel only if {@code streams} is parallel
+	 */
+	public static int[] flattenToInt(Stream<? extends IntStream> streams) {
+		boolean parallel = streams.isParallel();
+		List<IntStream> subStreams = streams.collect(Collectors.toList());
+		try {
+			List<Spliterator.OfInt> spliterators = new ArrayList<>(subStreams.size());
+			long[] offsets = new long[subStreams.size() + 1];
+			boolean sized = true;
+			for (int i = 0; i < subStreams.size(); i++) {
+				Spliterator.OfInt spliterator = subStreams.get(i).spliterator();
+				spliterators.add(spliterator);
+				long size = spliterator.getExactSizeIfKnown();
+				sized &= size >= 0;
+				offsets[i + 1] = offsets[i] + Math.max(0, size);
+			}
+			if (!sized)
+				return spliterators.stream().flatMapToInt(spliterator -> StreamSupport.intStream(spliterator, false))
+						.toArray();
+			int[] result = new int[checkedLength(offsets[offsets.length - 1])];
+			parts(spliterators.size(), result.length, parallel).forEach(part -> {
+				int[] position = { (int) offsets[part] };
+				spliterators.get(part).forEachRemaining((int value) -> result[position[0]++] = value);
+				if (position[0] != offsets[part + 1])
+					throw new IllegalStateException("sub-stream " + part + " did not have the "
+							+ (offsets[part + 1] - offsets[part]) + " elements it reported");
+			});
+			return result;
+		} finally {
+			subStreams.forEach(IntStream::close);
+		}
+	}
+
+	private static int checkedLength(long length) {
+		if (length > Integer.MAX_VALUE - 8)
+			throw new OutOfMemoryError("flattened array would have " + length + " elements");
+		return (int) length;
+	}
+
+	/**
+	 * the indexes of the parts, parallel if allowed and there is enough to copy
+	 */
+	private static IntStream parts(int count, int totalLength, boolean parallel) {
+		IntStream parts = IntStream.range(0, count);
+		return (parallel && totalLength >= PARALLEL_FILL_SIZE) ? parts.parallel() : parts;
+	}
+
+	/**
+	 * the collections seen so far and how many elements they have
+	 */
+	static final class Parts<T> {
+		private final List<Collection<? extends T>> collections = new ArrayList<>();
+		private long size;
+
+		void add(Collection<? extends T> collection) {
+			collections.add(collection);
+			size += collection.size();
+		}
+
+		Parts<T> merge(Parts<T> right) {
+			collections.addAll(right.collections);
+			size += right.size;
+			return this;
+		}
+
+		private long[] offsets() {
+			long[] offsets = new long[collections.size() + 1];
+			for (int i = 0; i < collections.size(); i++)
+				offsets[i + 1] = offsets[i] + collections.get(i).size();
+			if (offsets[collections.size()] != size)
+				throw new ConcurrentModificationException();
+			return offsets;
+		}
+
+		@SuppressWarnings("unchecked")
+		List<T> toList() {
+			long[] offsets = offsets();
+			Object[] result = new Object[checkedLength(size)];
+			parts(collections.size(), result.length, true).forEach(part -> {
+				int position = (int) offsets[part];
+				for (T element : collections.get(part))
+					result[position++] = element;
+				if (position != offsets[part + 1])
+					throw new ConcurrentModificationException();
+			});
+			return Arrays.asList((T[]) result);
+		}
+
+		int[] toIntArray() {
+			long[] offsets = offsets();
+			int[] result = new int[checkedLength(size)];
+			parts(collections.size(), result.length, true).forEach(part -> {
+				int position = (int) offsets[part];
+				for (T element : collections.get(part))
+					result[position++] = (Integer) element;
+				if (position != offsets[part + 1])
+					throw new ConcurrentModificationException();
+			});
+			return result;
+		}
+	}
+
+	/**
+	 * 1000 lists of 10,000 Integers, combined like {@code Streams.snippets()}
+	 * does and with the presized fill
+	 *
+	 * {@code java java8to15.java8.collectors.Flattening [lists]} (default 1000)
+	 */
+	public static void main(String[] args) {
+		int listCount = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		List<List<Integer>> lists = IntStream.range(0, listCount)
+				.mapToObj(list -> IntStream.range(list * 10_000, (list + 1) * 10_000).boxed()
+						.collect(Collectors.toList()))
+				.collect(Collectors.toList());
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			List<Integer> reduced = lists.stream().reduce(new ArrayList<>(), (acc, list) -> {
+				acc.addAll(list);
+				return acc;
+			}, (l1, l2) -> l1);
+			long reduceTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			List<Integer> flatMapped = lists.parallelStream().flatMap(list -> list.stream())
+					.collect(Collectors.toList());
+			long flatMapTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			List<Integer> flattened = lists.parallelStream().collect(flattening());
+			long flattenTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			List<Integer> ofStreams = flatten(lists.stream().map(list -> list.stream()));
+			long ofStreamsTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int[] ints = flattenToInt(lists);
+			long intTime = System.nanoTime() - start;
+
+			System.out.printf(
+					"%,d elements  reduce: %4d ms  parallel flatMap: %4d ms  flattening(): %4d ms  flatten(Stream<Stream>): %4d ms  flattenToInt: %4d ms  %s%n",
+					flattened.size(), reduceTime / 1_000_000, flatMapTime / 1_000_000, flattenTime / 1_000_000,
+					ofStreamsTime / 1_000_000, intTime / 1_000_000,
+					(reduced.equals(flattened) && flatMapped.equals(flattened) && ofStreams.equals(flattened)
+							&& ints.length == flattened.size()) ? "same" : "DIFFERENT");
+			if (!reduced.equals(flattened) || !flatMapped.equals(flattened) || !ofStreams.equals(flattened)
+					|| !Arrays.equals(ints, flattened.stream().mapToInt(Integer::intValue).toArray()))
+				throw new AssertionError("flattened lists differ");
+		}
+
+		// a sequential outer stream runs the lambdas of the sub-streams on the calling thread only, like flatMap()
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		flatten(lists.stream().map(list -> list.stream().peek(element -> threads.add(Thread.currentThread()))));
+		if (!threads.equals(Set.of(Thread.currentThread())))
+			throw new AssertionError("sub-streams of a sequential stream were drained on " + threads);
+		System.out.println("sequential flatten(Stream<Stream>) stays on the calling thread");
+	}
+}
@@ -0,0 +1,406 @@
+package java8to15.java8.collectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The result of {@link #groupingBy(ToIntFunction)}, a
+ * {@code Collectors.groupingBy()} for {@code int} keys such as
+ * {@code String::length}.
+ * <ul>
+ * <li>{@code Collectors.groupingBy(name -> name.length())} boxes the key of
+ * every element and looks it up in a {@code HashMap}; here the key stays an
+ * {@code int}</li>
+ * <li>as long as the keys seen so far lie within a range of
+ * {@value #MAX_DENSE_RANGE} values, a group is found by indexing an array with
+ * {@code key - base}; a wider key range switches to an open-addressing table
+ * of {@code int} keys (linear probing, like {@code Object2IntMap})</li>
+ * <li>on a parallel stream every thread fills its own {@code IntGroups}, the
+ * combiner appends the groups of the right one to the left one, so the
+ * elements of a group keep their encounter order</li>
+ * <li>{@link #toMap()} builds the {@code Map<Integer, List<T>>} of
+ * {@code Collectors.groupingBy()} only when it is asked for</li>
+ * </ul>
+ * Not thread-safe, but reading can be shared once the collect is done.
+ */
+public final class IntGroups<T> {
+
+	/**
+	 * {@code BiConsumer<Integer, List<T>>} for an {@code int} key
+	 */
+	@FunctionalInterface
+	public interface GroupConsumer<T> {
+		void accept(int key, List<T> group);
+	}
+
+	static final int MAX_DENSE_RANGE = 1 << 16;
+	static final int MAX_LOAD_PERCENT = 60;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/** dense mode: the group of {@code key} is {@code dense[key - base]} */
+	private ArrayList<T>[] dense;
+	private int base;
+	/** sparse mode (once {@code dense} is null): linear probing on {@code keys} */
+	private int[] keys;
+	private ArrayList<T>[] groups;
+	private int mask;
+	private int resizeAt;
+	private int size;
+
+	public IntGroups() {
+		dense = newArray(16);
+	}
+
+	/**
+	 * {@code Collectors.groupingBy(classifier)} with an {@code int} classifier
+	 */
+	public static <T> Collector<T, ?, IntGroups<T>> groupingBy(ToIntFunction<? super T> classifier) {
+		Objects.requireNonNull(classifier, "classifier");
+		return Collector.of(IntGroups::new, (groups, element) -> groups.add(classifier.applyAsInt(element), element),
+				IntGroups::merge, Collector.Characteristics.IDENTITY_FINISH);
+	}
+
+	/**
+	 * groups a few million strings by length (dense keys) and by hash code
+	 * (sparse keys) with both collectors, sequential and parallel
+	 *
+	 * {@code java java8to15.java8.collectors.IntGroups [strings]} (default 5M)
+	 */
+	public static void main(String[] args) {
+		// one 500K pass, IntGroupsBenchmark has the warmed up 10M numbers
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 500_000;
+		checkAgainstGroupingBy();
+		List<String> strings = IntStream.range(0, count).mapToObj(i -> "x".repeat(i % 20) + i)
+				.collect(Collectors.toList());
+		for (boolean parallel : new boolean[] { false, true }) {
+			long start = System.nanoTime();
+			Map<Integer, List<String>> boxed = (parallel ? strings.parallelStream() : strings.stream())
+					.collect(Collectors.groupingBy(name -> name.length()));
+			long boxedTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			IntGroups<String> byLength = (parallel ? strings.parallelStream() : strings.stream())
+					.collect(groupingBy(name -> name.length()));
+			long denseTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Map<Integer, List<String>> boxedByHash = (parallel ? strings.parallelStream() : strings.stream())
+					.collect(Collectors.groupingBy(name -> name.hashCode() % 1_000_000));
+			long boxedSparseTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			IntGroups<String> byHash = (parallel ? strings.parallelStream() : strings.stream())
+					.collect(groupingBy(name -> name.hashCode() % 1_000_000));
+			long sparseTime = System.nanoTime() - start;
+
+			System.out.printf("%-10s by length (%d groups)  Collectors.groupingBy: %4d ms  IntGroups: %4d ms  %s%n",
+					parallel ? "parallel" : "sequential", byLength.size(), boxedTime / 1_000_000,
+					denseTime / 1_000_000, boxed.equals(byLength.toMap()) ? "same" : "DIFFERENT");
+			if (!boxed.equals(byLength.toMap()))
+				throw new AssertionError("IntGroups by length differs from Collectors.groupingBy");
+			System.out.printf("%-10s by hash (%,d groups)  Collectors.groupingBy: %4d ms  IntGroups: %4d ms  %s%n",
+					parallel ? "parallel" : "sequential", byHash.size(), boxedSparseTime / 1_000_000,
+					sparseTime / 1_000_000, boxedByHash.equals(byHash.toMap()) ? "same" : "DIFFERENT");
+			if (!boxedByHash.equals(byHash.toMap()))
+				throw new AssertionError("IntGroups by hash differs from Collectors.groupingBy");
+		}
+		System.out.println(List.of("cake", "pastry", "pies", "tarts", "wafer", "timbale").stream()
+				.collect(groupingBy(name -> name.length()))); // {4=[cake, pies], 5=[tarts, wafer], 6=[pastry], 7=[timbale]}
+	}
+
+	/**
+	 * small random inputs, sequential and parallel, whose keys start dense and
+	 * then leave the dense range (above and below the first key, up to
+	 * {@code Integer.MIN_VALUE} / {@code MAX_VALUE}): the groups, their order,
+	 * {@code keys()} and {@code get()} must match {@code Collectors.groupingBy}
+	 */
+	private static void checkAgainstGroupingBy() {
+		Random random = new Random(42);
+		int[] extremes = { Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -MAX_DENSE_RANGE, -1, 0, MAX_DENSE_RANGE - 1,
+				MAX_DENSE_RANGE, Integer.MAX_VALUE - 1, Integer.MAX_VALUE };
+		for (int round = 0; round < 500; round++) {
+			int size = random.nextInt(3_000);
+			int range = 1 << random.nextInt(31);
+			int first = random.nextInt();
+			int[] keys = new int[size];
+			for (int i = 0; i < size; i++)
+				keys[i] = (random.nextInt(20) == 0) ? extremes[random.nextInt(extremes.length)]
+						: first + random.nextInt(range) - range / 2;
+			List<Integer> elements = IntStream.range(0, size).boxed().collect(Collectors.toList());
+			for (boolean parallel : new boolean[] { false, true }) {
+				Map<Integer, List<Integer>> expected = (parallel ? elements.parallelStream() : elements.stream())
+						.collect(Collectors.groupingBy(i -> keys[i]));
+				IntGroups<Integer> actual = (parallel ? elements.parallelStream() : elements.stream())
+						.collect(groupingBy(i -> keys[i]));
+				if (!expected.equals(actual.toMap()) || actual.size() != expected.size())
+					throw new AssertionError("IntGroups differs from Collectors.groupingBy, round " + round);
+				if (!Arrays.equals(actual.keys(), expected.keySet().stream().mapToInt(Integer::intValue).sorted()
+						.toArray()))
+					throw new AssertionError("keys() are not the sorted keys, round " + round);
+				for (int key : extremes)
+					if (!actual.get(key).equals(expected.getOrDefault(key, List.of()))
+							|| actual.containsKey(key) != expected.containsKey(key))
+						throw new AssertionError("get(" + key + ") differs, round " + round);
+			}
+		}
+		System.out.println("IntGroups: same groups as Collectors.groupingBy");
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> ArrayList<T>[] newArray(int length) {
+		return (ArrayList<T>[]) new ArrayList[length];
+	}
+
+	/**
+	 * number of groups
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(int key) {
+		return group(key) != null;
+	}
+
+	/**
+	 * @return the elements with that key in encounter order, an empty list if
+	 *         there are none
+	 */
+	public List<T> get(int key) {
+		ArrayList<T> group = group(key);
+		return (group == null) ? Collections.emptyList() : Collections.unmodifiableList(group);
+	}
+
+	/**
+	 * the keys in ascending order
+	 */
+	public int[] keys() {
+		int[] result = new int[size];
+		int index = 0;
+		if (dense != null) {
+			for (int i = 0; i < dense.length; i++)
+				if (dense[i] != null)
+					result[index++] = base + i;
+		} else {
+			for (int i = 0; i < groups.length; i++)
+				if (groups[i] != null)
+					result[index++] = keys[i];
+			Arrays.sort(result);
+		}
+		return result;
+	}
+
+	/**
+	 * visits every group in ascending key order
+	 */
+	public void forEach(GroupConsumer<? super T> action) {
+		if (dense != null) {
+			for (int i = 0; i < dense.length; i++)
+				if (dense[i] != null)
+					action.accept(base + i, Collections.unmodifiableList(dense[i]));
+		} else {
+			for (int key : keys())
+				action.accept(key, Collections.unmodifiableList(group(key)));
+		}
+	}
+
+	/**
+	 * what {@code Collectors.groupingBy()} would have returned; the map is new,
+	 * the lists are the ones of this {@code IntGroups} (no element is copied)
+	 */
+	public Map<Integer, List<T>> toMap() {
+		Map<Integer, List<T>> map = new HashMap<>((int) (size / 0.75f) + 1);
+		if (dense != null) {
+			for (int i = 0; i < dense.length; i++)
+				if (dense[i] != null)
+					map.put(base + i, dense[i]);
+		} else {
+			for (int i = 0; i < groups.length; i++)
+				if (groups[i] != null)
+					map.put(keys[i], groups[i]);
+		}
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		forEach((key, group) -> {
+			if (builder.length() > 1)
+				builder.append(", ");
+			builder.append(key).append('=').append(group);
+		});
+		return builder.append('}').toString();
+	}
+
+	void add(int key, T element) {
+		groupFor(key).add(element);
+	}
+
+	/**
+	 * the combiner: appends the groups of {@code right} (the later elements)
+	 */
+	IntGroups<T> merge(IntGroups<T> right) {
+		if (right.size == 0)
+			return this;
+		if (size == 0)
+			return right;
+		if (right.dense != null) {
+			for (int i = 0; i < right.dense.length; i++)
+				if (right.dense[i] != null)
+					append(right.base + i, right.dense[i]);
+		} else {
+			for (int i = 0; i < right.groups.length; i++)
+				if (right.groups[i] != null)
+					append(right.keys[i], right.groups[i]);
+		}
+		return this;
+	}
+
+	private void append(int key, ArrayList<T> elements) {
+		ArrayList<T> group = groupFor(key);
+		if (group.isEmpty())
+			replace(key, elements); // just created, take the right list over
+		else
+			group.addAll(elements);
+	}
+
+	private ArrayList<T> group(int key) {
+		if (dense != null) {
+			long index = (long) key - base;
+			return (index >= 0 && index < dense.length) ? dense[(int) index] : null;
+		}
+		for (int slot = slot(key); groups[slot] != null; slot = (slot + 1) & mask)
+			if (keys[slot] == key)
+				return groups[slot];
+		return null;
+	}
+
+	private void replace(int key, ArrayList<T> group) {
+		if (dense != null) {
+			dense[key - base] = group;
+			return;
+		}
+		int slot = slot(key);
+		while (keys[slot] != key)
+			slot = (slot + 1) & mask;
+		groups[slot] = group;
+	}
+
+	/**
+	 * the group of the key, created if it is not there yet
+	 */
+	private ArrayList<T> groupFor(int key) {
+		if (dense != null) {
+			if (size == 0)
+				base = key;
+			long index = (long) key - base;
+			if (index >= 0 && index < dense.length) {
+				ArrayList<T> group = dense[(int) index];
+				if (group == null) {
+					dense[(int) index] = group = new ArrayList<>();
+					size++;
+				}
+				return group;
+			}
+			if (!growDense(key))
+				toSparse();
+			return groupFor(key);
+		}
+		int slot = slot(key);
+		for (ArrayList<T> group; (group = groups[slot]) != null; slot = (slot + 1) & mask)
+			if (keys[slot] == key)
+				return group;
+		ArrayList<T> group = new ArrayList<>();
+		keys[slot] = key;
+		groups[slot] = group;
+		if (++size > resizeAt)
+			resize();
+		return group;
+	}
+
+	/**
+	 * widens the dense array to cover {@code key}, unless the range would get
+	 * wider than {@value #MAX_DENSE_RANGE}
+	 */
+	private boolean growDense(int key) {
+		long low = Math.min(base, key);
+		long high = Math.max((long) base + dense.length - 1, key);
+		long range = high - low + 1;
+		if (range > MAX_DENSE_RANGE)
+			return false;
+		int length = (int) Math.min(MAX_DENSE_RANGE, Math.max(range, dense.length * 2L));
+		// the slack goes to the side the keys are moving to
+		long newBase = (key < base) ? Math.max(Integer.MIN_VALUE, high - length + 1) : low;
+		ArrayList<T>[] grown = newArray(length);
+		System.arraycopy(dense, 0, grown, (int) (base - newBase), dense.length);
+		dense = grown;
+		base = (int) newBase;
+		return true;
+	}
+
+	private void toSparse() {
+		ArrayList<T>[] old = dense;
+		int oldBase = base;
+		dense = null;
+		allocate(capacityFor(size * 2));
+		for (int i = 0; i < old.length; i++)
+			if (old[i] != null)
+				putNew(oldBase + i, old[i]);
+	}
+
+	private static int capacityFor(int expectedSize) {
+		long needed = Math.max(2, (long) expectedSize * 100 / MAX_LOAD_PERCENT + 1);
+		if (needed > MAX_CAPACITY)
+			throw new IllegalArgumentException("too many groups: " + expectedSize);
+		return Integer.highestOneBit((int) needed - 1) << 1;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		groups = newArray(capacity);
+		mask = capacity - 1;
+		resizeAt = (int) ((long) capacity * MAX_LOAD_PERCENT / 100);
+	}
+
+	/**
+	 * inserts a key known not to be in the table, size is counted by the caller
+	 */
+	private void putNew(int key, ArrayList<T> group) {
+		int slot = slot(key);
+		while (groups[slot] != null)
+			slot = (slot + 1) & mask;
+		keys[slot] = key;
+		groups[slot] = group;
+	}
+
+	private void resize() {
+		if (keys.length == MAX_CAPACITY)
+			throw new IllegalStateException("too many groups");
+		int[] oldKeys = keys;
+		ArrayList<T>[] oldGroups = groups;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldGroups[i] != null)
+				putNew(oldKeys[i], oldGroups[i]);
+	}
+
+	private int slot(int key) {
+		int h = key * 0x9E3779B9; // spreads consecutive keys
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
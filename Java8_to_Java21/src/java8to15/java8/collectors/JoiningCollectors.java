@@ -0,0 +1,222 @@
+package java8to15.java8.collectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Drop-in replacements for {@code Collectors.joining()} that copy every
+ * character a fixed number of times, however the parallel stream was split.
+ * <ul>
+ * <li>{@code Collectors.joining()} accumulates into {@code StringJoiner}s, and
+ * the combiner of a parallel stream merges them by turning the right one into
+ * a {@code String} and appending it to the left one, so the characters are
+ * copied again on every level of the split tree (the same thing the
+ * {@code StringBuilder} collect of {@code Streams.collect_TerminalOperation()}
+ * shows)</li>
+ * <li>here a thread only collects references to its elements in blocks, the
+ * combiner just hands its blocks over to the left side, and the finisher
+ * computes the exact length (elements, delimiters, prefix and suffix) and
+ * copies every element straight into one {@code char[]} at its final offset,
+ * block by block on a parallel stream when there are many blocks</li>
+ * <li>{@code new String(char[])} then copies the characters once more (and
+ * compresses them to Latin-1 when it can), there is no public way to hand a
+ * filled array to a {@code String}. So it is two copies, not one, and the
+ * {@code char[]} and the {@code String} are both alive for a moment: about 3
+ * bytes per Latin-1 character at the peak, 4 otherwise</li>
+ * </ul>
+ * Elements are turned into {@code String}s when they are accumulated, like
+ * {@code Collectors.joining()} does by appending them, so a
+ * {@code StringBuilder} element changed later does not change the result.
+ */
+public final class JoiningCollectors {
+
+	static final int BLOCK_SIZE = 4096;
+	private static final int PARALLEL_FILL_BLOCKS = 16;
+
+	private JoiningCollectors() {
+	}
+
+	public static Collector<CharSequence, ?, String> joining() {
+		return joining("", "", "");
+	}
+
+	public static Collector<CharSequence, ?, String> joining(CharSequence delimiter) {
+		return joining(delimiter, "", "");
+	}
+
+	public static Collector<CharSequence, ?, String> joining(CharSequence delimiter, CharSequence prefix,
+			CharSequence suffix) {
+		String delimiterString = Objects.requireNonNull(delimiter, "delimiter").toString();
+		String prefixString = Objects.requireNonNull(prefix, "prefix").toString();
+		String suffixString = Objects.requireNonNull(suffix, "suffix").toString();
+		return Collector.of(Parts::new, Parts::add, Parts::merge,
+				parts -> parts.join(delimiterString, prefixString, suffixString));
+	}
+
+	/**
+	 * joins a few million short strings on a parallel stream with both
+	 * collectors
+	 *
+	 * {@code java java8to15.java8.collectors.JoiningCollectors [strings]} (default
+	 * 5M)
+	 */
+	public static void main(String[] args) {
+		// one pass, JoiningBenchmark has the warmed up 10M numbers
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+		checkAgainstCollectorsJoining();
+		List<String> strings = IntStream.range(0, count).mapToObj(i -> "item-" + i).collect(Collectors.toList());
+		long start = System.nanoTime();
+		String jdk = strings.parallelStream().collect(Collectors.joining(", ", "[", "]"));
+		long jdkTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		String presized = strings.parallelStream().collect(joining(", ", "[", "]"));
+		long presizedTime = System.nanoTime() - start;
+
+		System.out.printf("%,d chars  Collectors.joining: %4d ms  JoiningCollectors.joining: %4d ms  %s%n",
+				presized.length(), jdkTime / 1_000_000, presizedTime / 1_000_000,
+				jdk.equals(presized) ? "same" : "DIFFERENT");
+		if (!jdk.equals(presized))
+			throw new AssertionError("JoiningCollectors.joining differs from Collectors.joining");
+		System.out.println(Stream.of("cake", "pastry", "pies").collect(joining(", ", ">>", "<<"))); // >>cake, pastry, pies<<
+	}
+
+	/**
+	 * element counts around the block size and past the parallel fill, empty,
+	 * {@code null} and non Latin-1 elements, empty and multi-char delimiters,
+	 * sequential and parallel: the result must be the one of
+	 * {@code Collectors.joining()}
+	 */
+	private static void checkAgainstCollectorsJoining() {
+		Random random = new Random(42);
+		String[] samples = { "", "a", "item", "caf\u00e9", "\u65e5\u672c", "\ud83c\udf70", null };
+		String[][] affixes = { { "", "", "" }, { ", ", "[", "]" }, { "\u2192", "", "\u00bb" }, { "--", "<<", "" } };
+		int[] sizes = { 0, 1, 2, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, PARALLEL_FILL_BLOCKS * BLOCK_SIZE,
+				PARALLEL_FILL_BLOCKS * BLOCK_SIZE + 1, 3 * PARALLEL_FILL_BLOCKS * BLOCK_SIZE + 17 };
+		for (int round = 0; round < 200; round++) {
+			int size = (round < sizes.length) ? sizes[round] : random.nextInt(3 * BLOCK_SIZE);
+			List<String> elements = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				elements.add(samples[random.nextInt(samples.length)]);
+			String[] affix = affixes[round % affixes.length];
+			for (boolean parallel : new boolean[] { false, true }) {
+				String expected = (parallel ? elements.parallelStream() : elements.stream())
+						.collect(Collectors.joining(affix[0], affix[1], affix[2]));
+				String actual = (parallel ? elements.parallelStream() : elements.stream())
+						.collect(joining(affix[0], affix[1], affix[2]));
+				if (!expected.equals(actual))
+					throw new AssertionError("joining differs from Collectors.joining for " + size + " elements");
+			}
+		}
+		if (!Stream.<CharSequence>of("a", "b").collect(joining()).equals("ab")
+				|| !Stream.<CharSequence>of("a", "b").collect(joining("/")).equals("a/b"))
+			throw new AssertionError("joining() / joining(delimiter) differ from Collectors.joining");
+		System.out.println("JoiningCollectors: same strings as Collectors.joining");
+	}
+
+	private static final class Block {
+		final String[] strings;
+		final int size;
+		final long chars;
+
+		Block(String[] strings, int size, long chars) {
+			this.strings = strings;
+			this.size = size;
+			this.chars = chars;
+		}
+	}
+
+	/**
+	 * the elements seen by one thread, in full blocks plus the one being filled
+	 */
+	static final class Parts {
+		private final List<Block> blocks = new ArrayList<>();
+		private String[] current = new String[16];
+		private int currentSize;
+		private long currentChars;
+
+		void add(CharSequence element) {
+			String string = String.valueOf(element);
+			if (currentSize == current.length) {
+				if (current.length < BLOCK_SIZE) {
+					current = Arrays.copyOf(current, current.length * 2);
+				} else {
+					seal();
+					current = new String[BLOCK_SIZE];
+				}
+			}
+			current[currentSize++] = string;
+			currentChars += string.length();
+		}
+
+		private void seal() {
+			if (currentSize == 0)
+				return;
+			blocks.add(new Block(current, currentSize, currentChars));
+			current = new String[16];
+			currentSize = 0;
+			currentChars = 0;
+		}
+
+		/**
+		 * no characters are copied, only the block lists
+		 */
+		Parts merge(Parts right) {
+			seal();
+			right.seal();
+			blocks.addAll(right.blocks);
+			return this;
+		}
+
+		String join(String delimiter, String prefix, String suffix) {
+			seal();
+			int blockCount = blocks.size();
+			long elements = 0;
+			long chars = 0;
+			for (Block block : blocks) {
+				elements += block.size;
+				chars += block.chars;
+			}
+			long length = prefix.length() + chars + suffix.length()
+					+ ((elements == 0) ? 0 : (elements - 1) * delimiter.length());
+			if (length > Integer.MAX_VALUE - 8)
+				throw new OutOfMemoryError("joined string would be " + length + " chars");
+
+			char[] result = new char[(int) length];
+			prefix.getChars(0, prefix.length(), result, 0);
+			suffix.getChars(0, suffix.length(), result, (int) length - suffix.length());
+			// where each block starts in the result, a delimiter goes before every element but the first
+			int[] offsets = new int[blockCount];
+			long offset = prefix.length();
+			for (int block = 0; block < blockCount; block++) {
+				offsets[block] = (int) offset;
+				int delimiters = (block == 0) ? blocks.get(block).size - 1 : blocks.get(block).size;
+				offset += blocks.get(block).chars + (long) delimiters * delimiter.length();
+			}
+			IntStream blockIndexes = IntStream.range(0, blockCount);
+			if (blockCount >= PARALLEL_FILL_BLOCKS)
+				blockIndexes = blockIndexes.parallel();
+			blockIndexes.forEach(block -> {
+				String[] strings = blocks.get(block).strings;
+				int size = blocks.get(block).size;
+				int position = offsets[block];
+				for (int i = 0; i < size; i++) {
+					if (block > 0 || i > 0) {
+						delimiter.getChars(0, delimiter.length(), result, position);
+						position += delimiter.length();
+					}
+					strings[i].getChars(0, strings[i].length(), result, position);
+					position += strings[i].length();
+				}
+			});
+			return new String(result); // the second copy, see the class comment
+		}
+	}
+}
@@ -0,0 +1,632 @@
+package java8to15.java8.collectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import java8.utility.Person;
+
+/**
+ * A sort order built like {@code Comparator.comparing(...).thenComparing(...)}
+ * that calls every key extractor once per element instead of twice per
+ * comparison (decorate-sort-undecorate).
+ * <ul>
+ * <li>{@code sorted(Comparator.comparing(Person::getAge))} calls
+ * {@code getAge()} on both sides of each of the ~n log n comparisons, here the
+ * keys are extracted once into an {@code int[]} / {@code long[]} /
+ * {@code double[]} / {@code Object[]} per level of the chain (in parallel for
+ * large inputs)</li>
+ * <li>when the first key is numeric, the key (made order-preserving as a
+ * {@code long}, minus its minimum) and the element index are packed into one
+ * {@code long} and the {@code long[]} is sorted with
+ * {@code Arrays.parallelSort()}: no comparator, no boxing, and the index in
+ * the low bits keeps equal keys in encounter order. An {@code int} key always
+ * fits; a {@code long} / {@code double} key whose range leaves no room for the
+ * index (every {@code double} key but the narrowest, timestamps) is replaced
+ * by its rank among the distinct keys first, one more primitive sort</li>
+ * <li>the later keys of a {@code thenComparing} chain only sort the runs of
+ * equal first keys, on their precomputed key arrays</li>
+ * <li>a non-numeric first key sorts the indexes with a comparator on the
+ * precomputed keys</li>
+ * </ul>
+ * The sort is stable like {@code sorted()}, and sorts exactly like
+ * {@link #comparator()}.
+ */
+public final class KeySort<T> {
+
+	private static final int PARALLEL_EXTRACT_SIZE = 1 << 16;
+
+	private final List<Key<T>> keys;
+
+	private KeySort(List<Key<T>> keys) {
+		this.keys = keys;
+	}
+
+	public static <T> KeySort<T> comparingInt(ToIntFunction<? super T> keyExtractor) {
+		return new KeySort<T>(List.of()).thenComparingInt(keyExtractor);
+	}
+
+	public static <T> KeySort<T> comparingLong(ToLongFunction<? super T> keyExtractor) {
+		return new KeySort<T>(List.of()).thenComparingLong(keyExtractor);
+	}
+
+	/**
+	 * in the order of {@code Double.compare()}
+	 */
+	public static <T> KeySort<T> comparingDouble(ToDoubleFunction<? super T> keyExtractor) {
+		return new KeySort<T>(List.of()).thenComparingDouble(keyExtractor);
+	}
+
+	public static <T, U extends Comparable<? super U>> KeySort<T> comparing(
+			Function<? super T, ? extends U> keyExtractor) {
+		return new KeySort<T>(List.of()).thenComparing(keyExtractor);
+	}
+
+	public static <T, U> KeySort<T> comparing(Function<? super T, ? extends U> keyExtractor,
+			Comparator<? super U> keyComparator) {
+		return new KeySort<T>(List.of()).thenComparing(keyExtractor, keyComparator);
+	}
+
+	public KeySort<T> thenComparingInt(ToIntFunction<? super T> keyExtractor) {
+		return then(new IntKey<>(Objects.requireNonNull(keyExtractor, "keyExtractor"), false));
+	}
+
+	public KeySort<T> thenComparingLong(ToLongFunction<? super T> keyExtractor) {
+		return then(new LongKey<>(Objects.requireNonNull(keyExtractor, "keyExtractor"), false));
+	}
+
+	public KeySort<T> thenComparingDouble(ToDoubleFunction<? super T> keyExtractor) {
+		return then(new DoubleKey<>(Objects.requireNonNull(keyExtractor, "keyExtractor"), false));
+	}
+
+	public <U extends Comparable<? super U>> KeySort<T> thenComparing(Function<? super T, ? extends U> keyExtractor) {
+		return thenComparing(keyExtractor, Comparator.naturalOrder());
+	}
+
+	@SuppressWarnings("unchecked")
+	public <U> KeySort<T> thenComparing(Function<? super T, ? extends U> keyExtractor,
+			Comparator<? super U> keyComparator) {
+		return then(new ObjectKey<>(Objects.requireNonNull(keyExtractor, "keyExtractor"),
+				(Comparator<Object>) Objects.requireNonNull(keyComparator, "keyComparator"), false));
+	}
+
+	/**
+	 * like {@code Comparator.reversed()}: reverses all the keys so far, equal
+	 * elements still keep their encounter order
+	 */
+	public KeySort<T> reversed() {
+		List<Key<T>> reversed = new ArrayList<>(keys.size());
+		for (Key<T> key : keys)
+			reversed.add(key.reversed());
+		return new KeySort<>(List.copyOf(reversed));
+	}
+
+	private KeySort<T> then(Key<T> key) {
+		List<Key<T>> chain = new ArrayList<>(keys);
+		chain.add(key);
+		return new KeySort<>(List.copyOf(chain));
+	}
+
+	/**
+	 * the same order as a {@code Comparator}, extracting the keys on every
+	 * comparison
+	 */
+	public Comparator<T> comparator() {
+		Comparator<T> comparator = (a, b) -> 0;
+		for (Key<T> key : keys)
+			comparator = comparator.thenComparing(key.comparator());
+		return comparator;
+	}
+
+	/**
+	 * a sorted, fixed-size copy of the elements
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> sorted(Collection<? extends T> elements) {
+		Object[] array = elements.toArray();
+		sortArray(array);
+		return Arrays.asList((T[]) array);
+	}
+
+	/**
+	 * sorts the array in place
+	 */
+	public void sort(T[] elements) {
+		sortArray(elements);
+	}
+
+	/**
+	 * {@code sorted(comparator).collect(toList())} as a collector
+	 */
+	public Collector<T, ?, List<T>> toSortedList() {
+		return Collectors.collectingAndThen(Collectors.toList(), this::sorted);
+	}
+
+	private void sortArray(Object[] elements) {
+		int n = elements.length;
+		if (n < 2 || keys.isEmpty())
+			return;
+		boolean parallel = n >= PARALLEL_EXTRACT_SIZE;
+		Object[] extracted = new Object[keys.size()];
+		for (int level = 0; level < keys.size(); level++)
+			extracted[level] = keys.get(level).extract(elements, parallel);
+
+		int[] order = packedOrder(extracted[0], n);
+		if (order == null) {
+			order = indexOrder(extracted, 0, IntStream.range(0, n).toArray());
+		} else if (keys.size() > 1) {
+			// the packed sort only looked at the first key, sort every run of equal
+			// first keys on the rest of the chain
+			long[] first = sortable(keys.get(0), extracted[0]);
+			List<int[]> runs = new ArrayList<>();
+			for (int start = 0; start < n;) {
+				int end = start + 1;
+				while (end < n && first[order[end]] == first[order[start]])
+					end++;
+				if (end - start > 1)
+					runs.add(new int[] { start, end });
+				start = end;
+			}
+			int[] sortedOrder = order;
+			(parallel ? runs.parallelStream() : runs.stream()).forEach(run -> {
+				int[] indexes = Arrays.copyOfRange(sortedOrder, run[0], run[1]);
+				System.arraycopy(indexOrder(extracted, 1, indexes), 0, sortedOrder, run[0], indexes.length);
+			});
+		}
+
+		Object[] copy = elements.clone();
+		int[] finalOrder = order;
+		IntStream positions = IntStream.range(0, n);
+		(parallel ? positions.parallel() : positions).forEach(i -> elements[i] = copy[finalOrder[i]]);
+	}
+
+	/**
+	 * the indexes in the order of the first key by sorting packed
+	 * {@code (key - min) << indexBits | index} longs, or {@code null} if the key
+	 * is not numeric. A range too wide to leave room for the index (any
+	 * {@code double} key, {@code long} timestamps) is first replaced by the
+	 * ranks of the keys, which always fit
+	 */
+	private int[] packedOrder(Object firstKeys, int n) {
+		long[] sortable = sortable(keys.get(0), firstKeys);
+		if (sortable == null)
+			return null;
+		boolean parallel = n >= PARALLEL_EXTRACT_SIZE;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (long key : sortable) {
+			min = Math.min(min, key);
+			max = Math.max(max, key);
+		}
+		int indexBits = 32 - Integer.numberOfLeadingZeros(n - 1);
+		long span = max - min; // unsigned
+		long[] packable = sortable;
+		long lowest = min;
+		if (Long.compareUnsigned(span, (1L << (63 - indexBits)) - 1) > 0) {
+			packable = ranks(sortable, parallel);
+			lowest = 0;
+		}
+		long[] packed = new long[n];
+		long[] packedKeys = packable;
+		long base = lowest;
+		IntStream indexes = IntStream.range(0, n);
+		(parallel ? indexes.parallel() : indexes).forEach(i -> packed[i] = ((packedKeys[i] - base) << indexBits) | i);
+		Arrays.parallelSort(packed);
+		int[] order = new int[n];
+		long indexMask = (1L << indexBits) - 1;
+		for (int i = 0; i < n; i++)
+			order[i] = (int) (packed[i] & indexMask);
+		return order;
+	}
+
+	/**
+	 * every key replaced by the number of distinct smaller keys, same order and
+	 * same ties in {@code [0, n)}
+	 */
+	private static long[] ranks(long[] sortable, boolean parallel) {
+		long[] distinct = sortable.clone();
+		Arrays.parallelSort(distinct);
+		int count = 0;
+		for (int i = 0; i < distinct.length; i++)
+			if (i == 0 || distinct[i] != distinct[count - 1])
+				distinct[count++] = distinct[i];
+		int distinctCount = count;
+		long[] ranks = new long[sortable.length];
+		IntStream indexes = IntStream.range(0, sortable.length);
+		(parallel ? indexes.parallel() : indexes)
+				.forEach(i -> ranks[i] = Arrays.binarySearch(distinct, 0, distinctCount, sortable[i]));
+		return ranks;
+	}
+
+	/**
+	 * the first key as longs in the same order, {@code null} for object keys
+	 */
+	private long[] sortable(Key<T> key, Object extracted) {
+		return (key instanceof ObjectKey) ? null : ((NumericKey<T>) key).sortable(extracted);
+	}
+
+	/**
+	 * sorts the indexes on the keys from {@code level} on, with a comparator on
+	 * the precomputed key arrays; the sort is stable so equal elements keep the
+	 * order they are passed in
+	 */
+	private int[] indexOrder(Object[] extracted, int level, int[] indexes) {
+		Integer[] boxed = new Integer[indexes.length];
+		for (int i = 0; i < indexes.length; i++)
+			boxed[i] = indexes[i];
+		Arrays.parallelSort(boxed, (a, b) -> {
+			for (int l = level; l < keys.size(); l++) {
+				int compared = keys.get(l).compare(extracted[l], a, b);
+				if (compared != 0)
+					return compared;
+			}
+			return 0;
+		});
+		for (int i = 0; i < indexes.length; i++)
+			indexes[i] = boxed[i];
+		return indexes;
+	}
+
+	/**
+	 * one level of the chain: extracts its keys once into an array and compares
+	 * two indexes of that array
+	 */
+	private abstract static class Key<T> {
+		final boolean descending;
+
+		Key(boolean descending) {
+			this.descending = descending;
+		}
+
+		abstract Object extract(Object[] elements, boolean parallel);
+
+		abstract int compare(Object extracted, int a, int b);
+
+		abstract Key<T> reversed();
+
+		abstract Comparator<T> comparator();
+
+		static IntStream indexes(int n, boolean parallel) {
+			IntStream indexes = IntStream.range(0, n);
+			return parallel ? indexes.parallel() : indexes;
+		}
+	}
+
+	private abstract static class NumericKey<T> extends Key<T> {
+		NumericKey(boolean descending) {
+			super(descending);
+		}
+
+		/**
+		 * the keys as longs whose natural order is the order of this key
+		 */
+		abstract long[] sortable(Object extracted);
+	}
+
+	private static final class IntKey<T> extends NumericKey<T> {
+		private final ToIntFunction<? super T> extractor;
+
+		IntKey(ToIntFunction<? super T> extractor, boolean descending) {
+			super(descending);
+			this.extractor = extractor;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Object extract(Object[] elements, boolean parallel) {
+			int[] keys = new int[elements.length];
+			indexes(elements.length, parallel).forEach(i -> keys[i] = extractor.applyAsInt((T) elements[i]));
+			return keys;
+		}
+
+		@Override
+		int compare(Object extracted, int a, int b) {
+			int[] keys = (int[]) extracted;
+			return descending ? Integer.compare(keys[b], keys[a]) : Integer.compare(keys[a], keys[b]);
+		}
+
+		@Override
+		long[] sortable(Object extracted) {
+			int[] keys = (int[]) extracted;
+			long[] sortable = new long[keys.length];
+			for (int i = 0; i < keys.length; i++)
+				sortable[i] = descending ? ~(long) keys[i] : keys[i];
+			return sortable;
+		}
+
+		@Override
+		Key<T> reversed() {
+			return new IntKey<>(extractor, !descending);
+		}
+
+		@Override
+		Comparator<T> comparator() {
+			Comparator<T> comparator = Comparator.comparingInt(extractor);
+			return descending ? comparator.reversed() : comparator;
+		}
+	}
+
+	private static final class LongKey<T> extends NumericKey<T> {
+		private final ToLongFunction<? super T> extractor;
+
+		LongKey(ToLongFunction<? super T> extractor, boolean descending) {
+			super(descending);
+			this.extractor = extractor;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Object extract(Object[] elements, boolean parallel) {
+			long[] keys = new long[elements.length];
+			indexes(elements.length, parallel).forEach(i -> keys[i] = extractor.applyAsLong((T) elements[i]));
+			return keys;
+		}
+
+		@Override
+		int compare(Object extracted, int a, int b) {
+			long[] keys = (long[]) extracted;
+			return descending ? Long.compare(keys[b], keys[a]) : Long.compare(keys[a], keys[b]);
+		}
+
+		@Override
+		long[] sortable(Object extracted) {
+			long[] keys = (long[]) extracted;
+			if (!descending)
+				return keys;
+			long[] sortable = new long[keys.length];
+			for (int i = 0; i < keys.length; i++)
+				sortable[i] = ~keys[i];
+			return sortable;
+		}
+
+		@Override
+		Key<T> reversed() {
+			return new LongKey<>(extractor, !descending);
+		}
+
+		@Override
+		Comparator<T> comparator() {
+			Comparator<T> comparator = Comparator.comparingLong(extractor);
+			return descending ? comparator.reversed() : comparator;
+		}
+	}
+
+	private static final class DoubleKey<T> extends NumericKey<T> {
+		private final ToDoubleFunction<? super T> extractor;
+
+		DoubleKey(ToDoubleFunction<? super T> extractor, boolean descending) {
+			super(descending);
+			this.extractor = extractor;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Object extract(Object[] elements, boolean parallel) {
+			double[] keys = new double[elements.length];
+			indexes(elements.length, parallel).forEach(i -> keys[i] = extractor.applyAsDouble((T) elements[i]));
+			return keys;
+		}
+
+		@Override
+		int compare(Object extracted, int a, int b) {
+			double[] keys = (double[]) extracted;
+			return descending ? Double.compare(keys[b], keys[a]) : Double.compare(keys[a], keys[b]);
+		}
+
+		/**
+		 * flipping the magnitude bits of negative numbers makes the bits sort
+		 * like {@code Double.compare()} (-0.0 before 0.0, NaN last)
+		 */
+		@Override
+		long[] sortable(Object extracted) {
+			double[] keys = (double[]) extracted;
+			long[] sortable = new long[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				long bits = Double.doubleToLongBits(keys[i]);
+				bits ^= (bits >> 63) & Long.MAX_VALUE;
+				sortable[i] = descending ? ~bits : bits;
+			}
+			return sortable;
+		}
+
+		@Override
+		Key<T> reversed() {
+			return new DoubleKey<>(extractor, !descending);
+		}
+
+		@Override
+		Comparator<T> comparator() {
+			Comparator<T> comparator = Comparator.comparingDouble(extractor);
+			return descending ? comparator.reversed() : comparator;
+		}
+	}
+
+	private static final class ObjectKey<T> extends Key<T> {
+		private final Function<? super T, ?> extractor;
+		private final Comparator<Object> keyComparator;
+
+		ObjectKey(Function<? super T, ?> extractor, Comparator<Object> keyComparator, boolean descending) {
+			super(descending);
+			this.extractor = extractor;
+			this.keyComparator = keyComparator;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Object extract(Object[] elements, boolean parallel) {
+			Object[] keys = new Object[elements.length];
+			indexes(elements.length, parallel).forEach(i -> keys[i] = extractor.apply((T) elements[i]));
+			return keys;
+		}
+
+		@Override
+		int compare(Object extracted, int a, int b) {
+			Object[] keys = (Object[]) extracted;
+			return descending ? keyComparator.compare(keys[b], keys[a]) : keyComparator.compare(keys[a], keys[b]);
+		}
+
+		@Override
+		Key<T> reversed() {
+			return new ObjectKey<>(extractor, keyComparator, !descending);
+		}
+
+		@Override
+		Comparator<T> comparator() {
+			Comparator<T> comparator = Comparator.comparing(extractor, keyComparator);
+			return descending ? comparator.reversed() : comparator;
+		}
+	}
+
+	/**
+	 * sorts a few million {@code Person}s by age, and by age then name, with
+	 * {@code Comparator.comparing} and with {@code KeySort}, and counts the
+	 * {@code getAge()} calls of both
+	 *
+	 * {@code java java8to15.java8.collectors.KeySort [people]} (default 10M)
+	 */
+	public static void main(String[] args) {
+		// one pass, PersonSortBenchmark has the warmed up 10M numbers
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 500_000;
+		checkAgainstComparator();
+		Random random = new Random(42);
+		List<Person> people = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			people.add(new Person("name-" + random.nextInt(count), random.nextInt(100)));
+
+		long start = System.nanoTime();
+		List<Person> byComparator = people.parallelStream().sorted(Comparator.comparing(Person::getAge))
+				.collect(Collectors.toList());
+		long comparatorTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		List<Person> byKeys = KeySort.comparingInt(Person::getAge).sorted(people);
+		long keyTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		List<Person> byComparator2 = people.parallelStream()
+				.sorted(Comparator.comparing(Person::getAge).thenComparing(Person::getName))
+				.collect(Collectors.toList());
+		long comparatorTime2 = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		List<Person> byKeys2 = KeySort.comparingInt(Person::getAge).thenComparing(Person::getName).sorted(people);
+		long keyTime2 = System.nanoTime() - start;
+
+		System.out.printf(
+				"%,d people  by age  Comparator: %5d ms  KeySort: %4d ms  %s   by age, name  Comparator: %5d ms  KeySort: %5d ms  %s%n",
+				count, comparatorTime / 1_000_000, keyTime / 1_000_000,
+				byComparator.equals(byKeys) ? "same" : "DIFFERENT", comparatorTime2 / 1_000_000,
+				keyTime2 / 1_000_000, byComparator2.equals(byKeys2) ? "same" : "DIFFERENT");
+		if (!sameInstances(byComparator, byKeys) || !sameInstances(byComparator2, byKeys2))
+			throw new AssertionError("KeySort order differs from the Comparator");
+
+		LongAdder comparatorCalls = new LongAdder();
+		people.stream().sorted(Comparator.comparing((Person person) -> {
+			comparatorCalls.increment();
+			return person.getAge();
+		})).collect(Collectors.toList());
+		LongAdder keyCalls = new LongAdder();
+		KeySort.comparingInt((Person person) -> {
+			keyCalls.increment();
+			return person.getAge();
+		}).sorted(people);
+		System.out.printf("getAge() calls  Comparator.comparing: %,d  KeySort: %,d%n", comparatorCalls.sum(),
+				keyCalls.sum());
+	}
+
+	/**
+	 * random chains of 1 to 3 keys of every kind, some reversed, over keys with
+	 * narrow and full ranges (so numeric keys are packed both as they are and
+	 * as ranks, object keys go through the comparator), ties, {@code NaN}, {@code -0.0} and
+	 * {@code null}s; elements are their own index so a stable sort has exactly
+	 * one right answer, the one of {@code List.sort} with the same
+	 * {@code Comparator} chain
+	 */
+	private static void checkAgainstComparator() {
+		Random random = new Random(42);
+		double[] specialDoubles = { Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.MIN_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE };
+		String[] kinds = { "int", "long", "double", "string" };
+		for (int round = 0; round < 150; round++) {
+			int size = (round % 50 == 0) ? PARALLEL_EXTRACT_SIZE + random.nextInt(1_000) : random.nextInt(2_000);
+			boolean wide = random.nextBoolean();
+			int[] ints = new int[size];
+			long[] longs = new long[size];
+			double[] doubles = new double[size];
+			String[] strings = new String[size];
+			for (int i = 0; i < size; i++) {
+				ints[i] = wide ? random.nextInt() : random.nextInt(10) - 5;
+				longs[i] = wide ? random.nextLong() : Long.MAX_VALUE - random.nextInt(10);
+				// narrow doubles are a few ulps apart, so their bits are packed as they are
+				doubles[i] = !wide ? 1.0 + random.nextInt(10) * Math.ulp(1.0)
+						: (random.nextInt(10) == 0) ? specialDoubles[random.nextInt(specialDoubles.length)]
+								: random.nextGaussian() * 1e300;
+				strings[i] = (random.nextInt(20) == 0) ? null : "s" + random.nextInt(wide ? 1_000 : 5);
+			}
+			List<Integer> elements = IntStream.range(0, size).boxed().collect(Collectors.toList());
+
+			KeySort<Integer> keySort = null;
+			Comparator<Integer> comparator = null;
+			StringBuilder chain = new StringBuilder();
+			for (int level = 1 + random.nextInt(3); level > 0; level--) {
+				int kind = random.nextInt(4);
+				chain.append(' ').append(kinds[kind]);
+				Comparator<Integer> next;
+				if (kind == 0) {
+					next = Comparator.comparingInt(i -> ints[i]);
+					keySort = (keySort == null) ? comparingInt(i -> ints[i]) : keySort.thenComparingInt(i -> ints[i]);
+				} else if (kind == 1) {
+					next = Comparator.comparingLong(i -> longs[i]);
+					keySort = (keySort == null) ? comparingLong(i -> longs[i])
+							: keySort.thenComparingLong(i -> longs[i]);
+				} else if (kind == 2) {
+					next = Comparator.comparingDouble(i -> doubles[i]);
+					keySort = (keySort == null) ? comparingDouble(i -> doubles[i])
+							: keySort.thenComparingDouble(i -> doubles[i]);
+				} else {
+					Comparator<String> nullsFirst = Comparator.nullsFirst(Comparator.naturalOrder());
+					next = Comparator.comparing(i -> strings[i], nullsFirst);
+					keySort = (keySort == null) ? comparing(i -> strings[i], nullsFirst)
+							: keySort.thenComparing(i -> strings[i], nullsFirst);
+				}
+				comparator = (comparator == null) ? next : comparator.thenComparing(next);
+				if (random.nextInt(4) == 0) {
+					chain.append(" reversed");
+					comparator = comparator.reversed();
+					keySort = keySort.reversed();
+				}
+			}
+
+			List<Integer> expected = new ArrayList<>(elements);
+			expected.sort(comparator);
+			Integer[] array = elements.toArray(new Integer[0]);
+			keySort.sort(array);
+			if (!expected.equals(keySort.sorted(elements)) || !expected.equals(Arrays.asList(array))
+					|| !expected.equals(elements.parallelStream().collect(keySort.toSortedList())))
+				throw new AssertionError("KeySort order differs from the Comparator, keys" + chain + ", " + size
+						+ (wide ? " wide" : " narrow") + " elements");
+		}
+		System.out.println("KeySort: same order as the Comparator chains");
+	}
+
+	private static boolean sameInstances(List<Person> expected, List<Person> actual) {
+		if (expected.size() != actual.size())
+			return false;
+		for (int i = 0; i < expected.size(); i++)
+			if (expected.get(i) != actual.get(i))
+				return false;
+		return true;
+	}
+}
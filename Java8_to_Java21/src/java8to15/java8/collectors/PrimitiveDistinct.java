@@ -0,0 +1,551 @@
+package java8to15.java8.collectors;
+
+import java.util.Arrays;
+import java.util.IntSummaryStatistics;
+import java.util.LongSummaryStatistics;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@code distinct()} for {@code int} / {@code long} values, keeping the first
+ * occurrence of every value in encounter order.
+ * <ul>
+ * <li>{@code IntStream.distinct()} boxes every element and puts it in a
+ * {@code LinkedHashSet} (on a parallel stream, one per split, merged)</li>
+ * <li>{@link #distinct(IntStream)} on a sequential stream is a lazy filter on
+ * a primitive open-addressing set</li>
+ * <li>{@link #distinct(int[])} first looks at the value range: when it is at
+ * most {@value #BITMAP_RANGE_PER_ELEMENT} times the number of elements (2
+ * bytes per element), a value is seen by testing a bit at
+ * {@code value - min}, otherwise by the open-addressing set</li>
+ * <li>large arrays are done in parallel (with the set also on a single core):
+ * the values are spread over buckets (by value range for the bitmap, by hash
+ * for the set), so all occurrences of a value land in the same bucket, in
+ * encounter order. Every bucket is
+ * deduplicated on its own with a set or bitmap small enough for the cache,
+ * the first occurrences are marked in a bitset over the source index, and the
+ * marked values are copied out chunk by chunk at offsets taken from the bit
+ * counts</li>
+ * </ul>
+ */
+public final class PrimitiveDistinct {
+
+	static final int BITMAP_RANGE_PER_ELEMENT = 16;
+	private static final int MIN_BITMAP_RANGE = 1 << 16;
+	/** about this many elements per bucket */
+	private static final int BUCKET_SIZE = 1 << 16;
+	private static final int MAX_BUCKET_BITS = 16;
+	private static final int PARALLEL_THRESHOLD = 1 << 17;
+
+	private PrimitiveDistinct() {
+	}
+
+	/**
+	 * lazy on a sequential stream, a parallel stream is collected into an array
+	 * first. The lazy stream never splits, so a {@code parallel()} added later
+	 * still feeds the (not thread-safe) set from one thread at a time
+	 */
+	public static IntStream distinct(IntStream values) {
+		if (values.isParallel())
+			return Arrays.stream(distinct(values.toArray())).parallel().onClose(values::close);
+		IntSet seen = new IntSet(16);
+		return StreamSupport.intStream(new UnsplittableInt(values.filter(seen::add).spliterator()), false)
+				.onClose(values::close);
+	}
+
+	/**
+	 * lazy on a sequential stream, a parallel stream is collected into an array
+	 * first. The lazy stream never splits, so a {@code parallel()} added later
+	 * still feeds the (not thread-safe) set from one thread at a time
+	 */
+	public static LongStream distinct(LongStream values) {
+		if (values.isParallel())
+			return Arrays.stream(distinct(values.toArray())).parallel().onClose(values::close);
+		LongSet seen = new LongSet(16);
+		return StreamSupport.longStream(new UnsplittableLong(values.filter(seen::add).spliterator()), false)
+				.onClose(values::close);
+	}
+
+	public static int[] distinct(int[] values) {
+		int length = values.length;
+		if (length == 0)
+			return new int[0];
+		IntStream all = Arrays.stream(values);
+		IntSummaryStatistics stats = ((length >= PARALLEL_THRESHOLD) ? all.parallel() : all).summaryStatistics();
+		int min = stats.getMin();
+		long span = (long) stats.getMax() - min; // range - 1
+		boolean bitmap = span < Math.max(MIN_BITMAP_RANGE, (long) BITMAP_RANGE_PER_ELEMENT * length);
+
+		// with one pool thread the buckets only pay off for the set, they keep it in the cache
+		if (length < PARALLEL_THRESHOLD || (bitmap && ForkJoinPool.getCommonPoolParallelism() < 2)) {
+			int[] result = new int[length];
+			int size = 0;
+			if (bitmap) {
+				long[] seen = new long[(int) ((span >>> 6) + 1)];
+				for (int value : values) {
+					int offset = (int) ((long) value - min);
+					if ((seen[offset >>> 6] & (1L << offset)) == 0) {
+						seen[offset >>> 6] |= 1L << offset;
+						result[size++] = value;
+					}
+				}
+			} else {
+				IntSet seen = new IntSet(length);
+				for (int value : values)
+					if (seen.add(value))
+						result[size++] = value;
+			}
+			return Arrays.copyOf(result, size);
+		}
+
+		int bucketBits = bucketBits(length);
+		int shift = bitmap ? Math.max(6, (64 - Long.numberOfLeadingZeros(span)) - bucketBits) : 32 - bucketBits;
+		int bucketCount = bitmap ? (int) (span >>> shift) + 1 : 1 << bucketBits;
+		int chunkSize = chunkSize(length);
+		char[] bucketIds = new char[length];
+		chunkIndexes(length, chunkSize).forEach(chunk -> {
+			int to = (int) Math.min(length, (long) chunk * chunkSize + chunkSize);
+			for (int i = chunk * chunkSize; i < to; i++)
+				bucketIds[i] = (char) (bitmap ? ((long) values[i] - min) >>> shift
+						: (values[i] * 0x9E3779B9) >>> shift);
+		});
+		int[] bucketStarts = new int[bucketCount + 1];
+		int[] byBucket = scatter(bucketIds, bucketCount, chunkSize, bucketStarts);
+
+		AtomicLongArray first = new AtomicLongArray((length + 63) >>> 6);
+		IntStream.range(0, bucketCount).parallel().forEach(bucket -> {
+			int from = bucketStarts[bucket];
+			int to = bucketStarts[bucket + 1];
+			if (bitmap) {
+				long base = (long) min + ((long) bucket << shift);
+				long[] seen = new long[1 << (shift - 6)];
+				for (int i = from; i < to; i++) {
+					int index = byBucket[i];
+					int offset = (int) (values[index] - base);
+					if ((seen[offset >>> 6] & (1L << offset)) == 0) {
+						seen[offset >>> 6] |= 1L << offset;
+						mark(first, index);
+					}
+				}
+			} else {
+				IntSet seen = new IntSet(to - from);
+				for (int i = from; i < to; i++)
+					if (seen.add(values[byBucket[i]]))
+						mark(first, byBucket[i]);
+			}
+		});
+
+		int[] offsets = chunkOffsets(first, length, chunkSize);
+		int[] result = new int[offsets[offsets.length - 1]];
+		chunkIndexes(length, chunkSize).forEach(chunk -> {
+			int to = (int) Math.min(length, (long) chunk * chunkSize + chunkSize);
+			int position = offsets[chunk];
+			for (int i = chunk * chunkSize; i < to; i++)
+				if ((first.get(i >>> 6) & (1L << i)) != 0)
+					result[position++] = values[i];
+		});
+		return result;
+	}
+
+	public static long[] distinct(long[] values) {
+		int length = values.length;
+		if (length == 0)
+			return new long[0];
+		LongStream all = Arrays.stream(values);
+		LongSummaryStatistics stats = ((length >= PARALLEL_THRESHOLD) ? all.parallel() : all).summaryStatistics();
+		long min = stats.getMin();
+		long span = stats.getMax() - min; // range - 1, unsigned
+		boolean bitmap = Long.compareUnsigned(span,
+				Math.max(MIN_BITMAP_RANGE, (long) BITMAP_RANGE_PER_ELEMENT * length)) < 0;
+
+		// with one pool thread the buckets only pay off for the set, they keep it in the cache
+		if (length < PARALLEL_THRESHOLD || (bitmap && ForkJoinPool.getCommonPoolParallelism() < 2)) {
+			long[] result = new long[length];
+			int size = 0;
+			if (bitmap) {
+				long[] seen = new long[(int) ((span >>> 6) + 1)];
+				for (long value : values) {
+					long offset = value - min; // the span can pass 2^32 with more than 2^28 values
+					int word = (int) (offset >>> 6);
+					if ((seen[word] & (1L << offset)) == 0) {
+						seen[word] |= 1L << offset;
+						result[size++] = value;
+					}
+				}
+			} else {
+				LongSet seen = new LongSet(length);
+				for (long value : values)
+					if (seen.add(value))
+						result[size++] = value;
+			}
+			return Arrays.copyOf(result, size);
+		}
+
+		int bucketBits = bucketBits(length);
+		int shift = bitmap ? Math.max(6, (64 - Long.numberOfLeadingZeros(span)) - bucketBits) : 64 - bucketBits;
+		int bucketCount = bitmap ? (int) (span >>> shift) + 1 : 1 << bucketBits;
+		int chunkSize = chunkSize(length);
+		char[] bucketIds = new char[length];
+		chunkIndexes(length, chunkSize).forEach(chunk -> {
+			int to = (int) Math.min(length, (long) chunk * chunkSize + chunkSize);
+			for (int i = chunk * chunkSize; i < to; i++)
+				bucketIds[i] = (char) (bitmap ? (values[i] - min) >>> shift
+						: (values[i] * 0x9E3779B97F4A7C15L) >>> shift);
+		});
+		int[] bucketStarts = new int[bucketCount + 1];
+		int[] byBucket = scatter(bucketIds, bucketCount, chunkSize, bucketStarts);
+
+		AtomicLongArray first = new AtomicLongArray((length + 63) >>> 6);
+		IntStream.range(0, bucketCount).parallel().forEach(bucket -> {
+			int from = bucketStarts[bucket];
+			int to = bucketStarts[bucket + 1];
+			if (bitmap) {
+				long base = min + ((long) bucket << shift);
+				long[] seen = new long[1 << (shift - 6)];
+				for (int i = from; i < to; i++) {
+					int index = byBucket[i];
+					int offset = (int) (values[index] - base);
+					if ((seen[offset >>> 6] & (1L << offset)) == 0) {
+						seen[offset >>> 6] |= 1L << offset;
+						mark(first, index);
+					}
+				}
+			} else {
+				LongSet seen = new LongSet(to - from);
+				for (int i = from; i < to; i++)
+					if (seen.add(values[byBucket[i]]))
+						mark(first, byBucket[i]);
+			}
+		});
+
+		int[] offsets = chunkOffsets(first, length, chunkSize);
+		long[] result = new long[offsets[offsets.length - 1]];
+		chunkIndexes(length, chunkSize).forEach(chunk -> {
+			int to = (int) Math.min(length, (long) chunk * chunkSize + chunkSize);
+			int position = offsets[chunk];
+			for (int i = chunk * chunkSize; i < to; i++)
+				if ((first.get(i >>> 6) & (1L << i)) != 0)
+					result[position++] = values[i];
+		});
+		return result;
+	}
+
+	/**
+	 * enough bucket bits for about {@link #BUCKET_SIZE} elements per bucket, at
+	 * least 2 buckets
+	 */
+	private static int bucketBits(int length) {
+		int bits = 64 - Long.numberOfLeadingZeros(((long) length - 1) / BUCKET_SIZE);
+		return Math.max(1, Math.min(MAX_BUCKET_BITS, bits));
+	}
+
+	/**
+	 * a few chunks per pool thread, a multiple of 64 so a chunk owns whole words
+	 * of a bitset over the index
+	 */
+	private static int chunkSize(int length) {
+		long chunks = 8L * ForkJoinPool.getCommonPoolParallelism();
+		long size = Math.max(PARALLEL_THRESHOLD / 2, (length + chunks - 1) / chunks);
+		return (int) Math.min((Integer.MAX_VALUE / 2) & ~63, (size + 63) & ~63L);
+	}
+
+	private static IntStream chunkIndexes(int length, int chunkSize) {
+		return IntStream.range(0, (int) (((long) length + chunkSize - 1) / chunkSize)).parallel();
+	}
+
+	/**
+	 * the source indexes ordered by bucket, and by index within a bucket
+	 *
+	 * @param bucketStarts filled with where every bucket starts, plus the end
+	 */
+	private static int[] scatter(char[] bucketIds, int bucketCount, int chunkSize, int[] bucketStarts) {
+		int length = bucketIds.length;
+		int chunks = (int) (((long) length + chunkSize - 1) / chunkSize);
+		// one row per chunk, so the chunks do not count into the same cache lines
+		int[] positions = new int[chunks * bucketCount];
+		chunkIndexes(length, chunkSize).forEach(chunk -> {
+			int row = chunk * bucketCount;
+			int to = (int) Math.min(length, (long) chunk * chunkSize + chunkSize);
+			for (int i = chunk * chunkSize; i < to; i++)
+				positions[row + bucketIds[i]]++;
+		});
+		int position = 0;
+		for (int bucket = 0; bucket < bucketCount; bucket++) {
+			bucketStarts[bucket] = position;
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				int count = positions[chunk * bucketCount + bucket];
+				positions[chunk * bucketCount + bucket] = position;
+				position += count;
+			}
+		}
+		bucketStarts[bucketCount] = position;
+		int[] byBucket = new int[length];
+		chunkIndexes(length, chunkSize).forEach(chunk -> {
+			int row = chunk * bucketCount;
+			int to = (int) Math.min(length, (long) chunk * chunkSize + chunkSize);
+			for (int i = chunk * chunkSize; i < to; i++)
+				byBucket[positions[row + bucketIds[i]]++] = i;
+		});
+		return byBucket;
+	}
+
+	/**
+	 * buckets are not aligned to words, two of them can mark in the same word
+	 */
+	private static void mark(AtomicLongArray bits, int index) {
+		int word = index >>> 6;
+		long bit = 1L << index;
+		long old;
+		do {
+			old = bits.get(word);
+		} while (!bits.compareAndSet(word, old, old | bit));
+	}
+
+	/**
+	 * where the marked values of every chunk go, plus the total at the end
+	 */
+	private static int[] chunkOffsets(AtomicLongArray first, int length, int chunkSize) {
+		int chunks = (int) (((long) length + chunkSize - 1) / chunkSize);
+		int[] offsets = new int[chunks + 1];
+		chunkIndexes(length, chunkSize).forEach(chunk -> {
+			int fromWord = (int) (((long) chunk * chunkSize) >>> 6);
+			int toWord = Math.min(first.length(), fromWord + (chunkSize >>> 6));
+			int count = 0;
+			for (int word = fromWord; word < toWord; word++)
+				count += Long.bitCount(first.get(word));
+			offsets[chunk + 1] = count;
+		});
+		for (int chunk = 0; chunk < chunks; chunk++)
+			offsets[chunk + 1] += offsets[chunk];
+		return offsets;
+	}
+
+	/**
+	 * hands out the elements of a spliterator and refuses to split
+	 */
+	private static final class UnsplittableInt implements Spliterator.OfInt {
+		private final Spliterator.OfInt source;
+
+		UnsplittableInt(Spliterator.OfInt source) {
+			this.source = source;
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			return source.tryAdvance(action);
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			source.forEachRemaining(action);
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return source.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return source.characteristics();
+		}
+	}
+
+	private static final class UnsplittableLong implements Spliterator.OfLong {
+		private final Spliterator.OfLong source;
+
+		UnsplittableLong(Spliterator.OfLong source) {
+			this.source = source;
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			return source.tryAdvance(action);
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			source.forEachRemaining(action);
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return source.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return source.characteristics();
+		}
+	}
+
+	/**
+	 * growable open-addressing set of {@code int}s, 0 is the empty slot so it is
+	 * tracked apart
+	 */
+	static final class IntSet {
+		private int[] slots;
+		private int mask;
+		private int size;
+		private int resizeAt;
+		private boolean containsZero;
+
+		IntSet(int expectedSize) {
+			allocate(Integer.highestOneBit(Math.max(2, (int) Math.min(1 << 30, expectedSize * 2L)) - 1) << 1);
+		}
+
+		private void allocate(int capacity) {
+			slots = new int[capacity];
+			mask = capacity - 1;
+			resizeAt = capacity / 2;
+		}
+
+		/**
+		 * @return {@code true} if the value was not in the set
+		 */
+		boolean add(int value) {
+			if (value == 0) {
+				if (containsZero)
+					return false;
+				return containsZero = true;
+			}
+			int h = value * 0x9E3779B9;
+			int slot = (h ^ (h >>> 16)) & mask;
+			for (int current; (current = slots[slot]) != 0; slot = (slot + 1) & mask)
+				if (current == value)
+					return false;
+			slots[slot] = value;
+			if (++size > resizeAt)
+				resize();
+			return true;
+		}
+
+		private void resize() {
+			int[] old = slots;
+			allocate(old.length * 2);
+			size = 0;
+			for (int value : old)
+				if (value != 0)
+					add(value);
+		}
+	}
+
+	/**
+	 * growable open-addressing set of {@code long}s, 0 is the empty slot so it
+	 * is tracked apart
+	 */
+	static final class LongSet {
+		private long[] slots;
+		private int mask;
+		private int size;
+		private int resizeAt;
+		private boolean containsZero;
+
+		LongSet(int expectedSize) {
+			allocate(Integer.highestOneBit(Math.max(2, (int) Math.min(1 << 30, expectedSize * 2L)) - 1) << 1);
+		}
+
+		private void allocate(int capacity) {
+			slots = new long[capacity];
+			mask = capacity - 1;
+			resizeAt = capacity / 2;
+		}
+
+		/**
+		 * @return {@code true} if the value was not in the set
+		 */
+		boolean add(long value) {
+			if (value == 0) {
+				if (containsZero)
+					return false;
+				return containsZero = true;
+			}
+			long h = value * 0x9E3779B97F4A7C15L;
+			int slot = (int) (h ^ (h >>> 32)) & mask;
+			for (long current; (current = slots[slot]) != 0; slot = (slot + 1) & mask)
+				if (current == value)
+					return false;
+			slots[slot] = value;
+			if (++size > resizeAt)
+				resize();
+			return true;
+		}
+
+		private void resize() {
+			long[] old = slots;
+			allocate(old.length * 2);
+			size = 0;
+			for (long value : old)
+				if (value != 0)
+					add(value);
+		}
+	}
+
+	/**
+	 * 10M ids from a bounded range (bitmap) and from all of int (set), against
+	 * {@code IntStream.distinct()}
+	 *
+	 * {@code java java8to15.java8.collectors.PrimitiveDistinct [values]}
+	 * (default 10M)
+	 */
+	public static void main(String[] args) {
+		// one pass, DistinctBenchmark has the warmed up 10M numbers
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+		Random random = new Random(42);
+		int[] bounded = random.ints(count, 1_000_000, 1_000_000 + count / 2).toArray();
+		int[] unbounded = random.ints(count).map(value -> value % (count / 2 * 3)).toArray();
+		for (int[] values : new int[][] { bounded, unbounded }) {
+			long start = System.nanoTime();
+			int[] jdk = Arrays.stream(values).distinct().toArray();
+			long jdkTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int[] primitive = distinct(values);
+			long primitiveTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long lazy = distinct(Arrays.stream(values)).count();
+			long lazyTime = System.nanoTime() - start;
+
+			System.out.printf(
+					"%s %,d distinct  IntStream.distinct: %5d ms  distinct(int[]): %4d ms  sequential distinct(IntStream): %4d ms  %s%n",
+					(values == bounded) ? "bounded  " : "unbounded", primitive.length, jdkTime / 1_000_000,
+					primitiveTime / 1_000_000, lazyTime / 1_000_000,
+					(Arrays.equals(jdk, primitive) && lazy == primitive.length) ? "same" : "DIFFERENT");
+			if (!Arrays.equals(jdk, primitive) || lazy != primitive.length)
+				throw new AssertionError("distinct differs from IntStream.distinct()");
+		}
+		// a parallel() after the lazy distinct must not share its set between threads
+		int[] expected = distinct(unbounded);
+		if (!Arrays.equals(expected, distinct(Arrays.stream(unbounded)).parallel().map(value -> value).toArray())
+				|| !Arrays.equals(Arrays.stream(expected).asLongStream().toArray(),
+						distinct(Arrays.stream(unbounded).asLongStream()).parallel().toArray()))
+			throw new AssertionError("parallel() after distinct(IntStream / LongStream) lost or repeated values");
+		System.out.println("parallel() after the lazy distinct: same");
+		int[] closed = { 0 };
+		distinct(IntStream.of(1, 1).parallel().onClose(() -> closed[0]++)).close();
+		distinct(LongStream.of(1, 1).parallel().onClose(() -> closed[0]++)).close();
+		distinct(IntStream.of(1, 1).onClose(() -> closed[0]++)).close();
+		distinct(LongStream.of(1, 1).onClose(() -> closed[0]++)).close();
+		if (closed[0] != 4)
+			throw new AssertionError("closing a distinct stream must close its source");
+		System.out.println(Arrays.toString(distinct(new int[] { 10, 20, 80, 40, 20, 60, 40, 80, 10 }))); // [10, 20, 80, 40, 60]
+	}
+}
@@ -0,0 +1,450 @@
+package java8to15.java8.collectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * {@code Collectors.partitioningBy()} for {@code IntStream} /
+ * {@code LongStream} and {@code int[]} / {@code long[]}, without an
+ * {@code Integer} per element.
+ * <ul>
+ * <li>{@link #partition(IntStream, IntPredicate)} : the elements go into two
+ * growable primitive arrays, on a parallel stream every thread fills its own
+ * pair and the combiner appends the right pair, so both sides keep the
+ * encounter order</li>
+ * <li>{@link #select(int[], IntPredicate)} : the predicate is evaluated once
+ * per index into a selection {@code BitSet} over the source. The array is cut
+ * into chunks of {@value #CHUNK} indexes, a multiple of 64, so every chunk owns
+ * whole words of the bitset, the chunks are tested in parallel and their
+ * bitsets are simply concatenated (written next to each other)</li>
+ * <li>{@link #partition(int[], IntPredicate)} : from the selection, the bit
+ * count of every chunk gives where its elements go, the two result arrays are
+ * allocated with their exact size and filled chunk by chunk in parallel</li>
+ * <li>{@link #count(IntStream, IntPredicate)} : only the two sizes, nothing is
+ * materialized</li>
+ * </ul>
+ */
+public final class PrimitivePartitions {
+
+	static final int CHUNK = 1 << 16;
+	private static final int PARALLEL_THRESHOLD = 1 << 17;
+
+	private PrimitivePartitions() {
+	}
+
+	/**
+	 * how many elements did and did not match
+	 */
+	public static final class Counts {
+		private final long matching;
+		private final long rest;
+
+		Counts(long matching, long rest) {
+			this.matching = matching;
+			this.rest = rest;
+		}
+
+		public long matching() {
+			return matching;
+		}
+
+		public long rest() {
+			return rest;
+		}
+
+		@Override
+		public String toString() {
+			return "{false=" + rest + ", true=" + matching + "}";
+		}
+	}
+
+	/**
+	 * the two sides of an {@code int} partition, in encounter order
+	 */
+	public static final class IntPartition {
+		private int[] matching;
+		private int matchingSize;
+		private int[] rest;
+		private int restSize;
+
+		IntPartition() {
+			this(new int[16], 0, new int[16], 0);
+		}
+
+		IntPartition(int[] matching, int matchingSize, int[] rest, int restSize) {
+			this.matching = matching;
+			this.matchingSize = matchingSize;
+			this.rest = rest;
+			this.restSize = restSize;
+		}
+
+		/**
+		 * the {@code true} side, the array itself and not a copy
+		 */
+		public int[] matching() {
+			if (matching.length != matchingSize)
+				matching = Arrays.copyOf(matching, matchingSize);
+			return matching;
+		}
+
+		/**
+		 * the {@code false} side, the array itself and not a copy
+		 */
+		public int[] rest() {
+			if (rest.length != restSize)
+				rest = Arrays.copyOf(rest, restSize);
+			return rest;
+		}
+
+		/**
+		 * what {@code Collectors.partitioningBy()} would have returned, built on
+		 * demand
+		 */
+		public Map<Boolean, List<Integer>> toMap() {
+			Map<Boolean, List<Integer>> map = new LinkedHashMap<>();
+			map.put(false, Arrays.stream(rest()).boxed().collect(Collectors.toCollection(ArrayList::new)));
+			map.put(true, Arrays.stream(matching()).boxed().collect(Collectors.toCollection(ArrayList::new)));
+			return map;
+		}
+
+		@Override
+		public String toString() {
+			return "{false=" + Arrays.toString(rest()) + ", true=" + Arrays.toString(matching()) + "}";
+		}
+
+		void add(int value, boolean matches) {
+			if (matches) {
+				if (matchingSize == matching.length)
+					matching = Arrays.copyOf(matching, Math.max(16, matchingSize * 2));
+				matching[matchingSize++] = value;
+			} else {
+				if (restSize == rest.length)
+					rest = Arrays.copyOf(rest, Math.max(16, restSize * 2));
+				rest[restSize++] = value;
+			}
+		}
+
+		void append(IntPartition right) {
+			matching = append(matching, matchingSize, right.matching, right.matchingSize);
+			matchingSize += right.matchingSize;
+			rest = append(rest, restSize, right.rest, right.restSize);
+			restSize += right.restSize;
+		}
+
+		private static int[] append(int[] left, int leftSize, int[] right, int rightSize) {
+			if (leftSize + rightSize > left.length)
+				left = Arrays.copyOf(left, Math.max(leftSize + rightSize, left.length * 2));
+			System.arraycopy(right, 0, left, leftSize, rightSize);
+			return left;
+		}
+	}
+
+	/**
+	 * the two sides of a {@code long} partition, in encounter order
+	 */
+	public static final class LongPartition {
+		private long[] matching;
+		private int matchingSize;
+		private long[] rest;
+		private int restSize;
+
+		LongPartition() {
+			this(new long[16], 0, new long[16], 0);
+		}
+
+		LongPartition(long[] matching, int matchingSize, long[] rest, int restSize) {
+			this.matching = matching;
+			this.matchingSize = matchingSize;
+			this.rest = rest;
+			this.restSize = restSize;
+		}
+
+		/**
+		 * the {@code true} side, the array itself and not a copy
+		 */
+		public long[] matching() {
+			if (matching.length != matchingSize)
+				matching = Arrays.copyOf(matching, matchingSize);
+			return matching;
+		}
+
+		/**
+		 * the {@code false} side, the array itself and not a copy
+		 */
+		public long[] rest() {
+			if (rest.length != restSize)
+				rest = Arrays.copyOf(rest, restSize);
+			return rest;
+		}
+
+		/**
+		 * what {@code Collectors.partitioningBy()} would have returned, built on
+		 * demand
+		 */
+		public Map<Boolean, List<Long>> toMap() {
+			Map<Boolean, List<Long>> map = new LinkedHashMap<>();
+			map.put(false, Arrays.stream(rest()).boxed().collect(Collectors.toCollection(ArrayList::new)));
+			map.put(true, Arrays.stream(matching()).boxed().collect(Collectors.toCollection(ArrayList::new)));
+			return map;
+		}
+
+		@Override
+		public String toString() {
+			return "{false=" + Arrays.toString(rest()) + ", true=" + Arrays.toString(matching()) + "}";
+		}
+
+		void add(long value, boolean matches) {
+			if (matches) {
+				if (matchingSize == matching.length)
+					matching = Arrays.copyOf(matching, Math.max(16, matchingSize * 2));
+				matching[matchingSize++] = value;
+			} else {
+				if (restSize == rest.length)
+					rest = Arrays.copyOf(rest, Math.max(16, restSize * 2));
+				rest[restSize++] = value;
+			}
+		}
+
+		void append(LongPartition right) {
+			matching = append(matching, matchingSize, right.matching, right.matchingSize);
+			matchingSize += right.matchingSize;
+			rest = append(rest, restSize, right.rest, right.restSize);
+			restSize += right.restSize;
+		}
+
+		private static long[] append(long[] left, int leftSize, long[] right, int rightSize) {
+			if (leftSize + rightSize > left.length)
+				left = Arrays.copyOf(left, Math.max(leftSize + rightSize, left.length * 2));
+			System.arraycopy(right, 0, left, leftSize, rightSize);
+			return left;
+		}
+	}
+
+	public static IntPartition partition(IntStream values, IntPredicate predicate) {
+		Objects.requireNonNull(predicate, "predicate");
+		return values.collect(IntPartition::new, (partition, value) -> partition.add(value, predicate.test(value)),
+				IntPartition::append);
+	}
+
+	public static LongPartition partition(LongStream values, LongPredicate predicate) {
+		Objects.requireNonNull(predicate, "predicate");
+		return values.collect(LongPartition::new, (partition, value) -> partition.add(value, predicate.test(value)),
+				LongPartition::append);
+	}
+
+	/**
+	 * counting-only partition, {@code partitioningBy(predicate, counting())}
+	 */
+	public static Counts count(IntStream values, IntPredicate predicate) {
+		Objects.requireNonNull(predicate, "predicate");
+		long[] counts = values.collect(() -> new long[2], (sums, value) -> sums[predicate.test(value) ? 1 : 0]++,
+				PrimitivePartitions::addCounts);
+		return new Counts(counts[1], counts[0]);
+	}
+
+	/**
+	 * counting-only partition, {@code partitioningBy(predicate, counting())}
+	 */
+	public static Counts count(LongStream values, LongPredicate predicate) {
+		Objects.requireNonNull(predicate, "predicate");
+		long[] counts = values.collect(() -> new long[2], (sums, value) -> sums[predicate.test(value) ? 1 : 0]++,
+				PrimitivePartitions::addCounts);
+		return new Counts(counts[1], counts[0]);
+	}
+
+	private static void addCounts(long[] left, long[] right) {
+		left[0] += right[0];
+		left[1] += right[1];
+	}
+
+	/**
+	 * bit {@code i} is set if {@code values[i]} matches
+	 */
+	public static BitSet select(int[] values, IntPredicate predicate) {
+		return BitSet.valueOf(selectWords(values, predicate));
+	}
+
+	/**
+	 * bit {@code i} is set if {@code values[i]} matches
+	 */
+	public static BitSet select(long[] values, LongPredicate predicate) {
+		return BitSet.valueOf(selectWords(values, predicate));
+	}
+
+	public static IntPartition partition(int[] values, IntPredicate predicate) {
+		long[] words = selectWords(values, predicate);
+		int chunks = chunks(values.length);
+		int[] matchingOffsets = new int[chunks + 1];
+		for (int chunk = 0; chunk < chunks; chunk++)
+			matchingOffsets[chunk + 1] = matchingOffsets[chunk] + bitCount(words, chunk);
+		int matchingSize = matchingOffsets[chunks];
+		int[] matching = new int[matchingSize];
+		int[] rest = new int[values.length - matchingSize];
+		chunkIndexes(values.length).forEach(chunk -> {
+			int from = chunk * CHUNK;
+			int to = Math.min(values.length, from + CHUNK);
+			int m = matchingOffsets[chunk];
+			int r = from - m; // everything before this chunk that did not match
+			for (int i = from; i < to; i++) {
+				if ((words[i >>> 6] & (1L << i)) != 0)
+					matching[m++] = values[i];
+				else
+					rest[r++] = values[i];
+			}
+		});
+		return new IntPartition(matching, matching.length, rest, rest.length);
+	}
+
+	public static LongPartition partition(long[] values, LongPredicate predicate) {
+		long[] words = selectWords(values, predicate);
+		int chunks = chunks(values.length);
+		int[] matchingOffsets = new int[chunks + 1];
+		for (int chunk = 0; chunk < chunks; chunk++)
+			matchingOffsets[chunk + 1] = matchingOffsets[chunk] + bitCount(words, chunk);
+		int matchingSize = matchingOffsets[chunks];
+		long[] matching = new long[matchingSize];
+		long[] rest = new long[values.length - matchingSize];
+		chunkIndexes(values.length).forEach(chunk -> {
+			int from = chunk * CHUNK;
+			int to = Math.min(values.length, from + CHUNK);
+			int m = matchingOffsets[chunk];
+			int r = from - m;
+			for (int i = from; i < to; i++) {
+				if ((words[i >>> 6] & (1L << i)) != 0)
+					matching[m++] = values[i];
+				else
+					rest[r++] = values[i];
+			}
+		});
+		return new LongPartition(matching, matching.length, rest, rest.length);
+	}
+
+	/**
+	 * every chunk fills the words of its own indexes, no two chunks share a word
+	 */
+	private static long[] selectWords(int[] values, IntPredicate predicate) {
+		Objects.requireNonNull(predicate, "predicate");
+		long[] words = new long[(values.length + 63) >>> 6];
+		chunkIndexes(values.length).forEach(chunk -> {
+			int from = chunk * CHUNK;
+			int to = Math.min(values.length, from + CHUNK);
+			for (int i = from; i < to; i++)
+				if (predicate.test(values[i]))
+					words[i >>> 6] |= 1L << i;
+		});
+		return words;
+	}
+
+	private static long[] selectWords(long[] values, LongPredicate predicate) {
+		Objects.requireNonNull(predicate, "predicate");
+		long[] words = new long[(values.length + 63) >>> 6];
+		chunkIndexes(values.length).forEach(chunk -> {
+			int from = chunk * CHUNK;
+			int to = Math.min(values.length, from + CHUNK);
+			for (int i = from; i < to; i++)
+				if (predicate.test(values[i]))
+					words[i >>> 6] |= 1L << i;
+		});
+		return words;
+	}
+
+	private static int chunks(int length) {
+		return (int) (((long) length + CHUNK - 1) / CHUNK);
+	}
+
+	private static IntStream chunkIndexes(int length) {
+		IntStream chunks = IntStream.range(0, chunks(length));
+		return (length >= PARALLEL_THRESHOLD) ? chunks.parallel() : chunks;
+	}
+
+	private static int bitCount(long[] words, int chunk) {
+		int from = chunk * (CHUNK >>> 6);
+		int to = Math.min(words.length, from + (CHUNK >>> 6));
+		int count = 0;
+		for (int word = from; word < to; word++)
+			count += Long.bitCount(words[word]);
+		return count;
+	}
+
+	/**
+	 * partitions 20M random ints at 50 like {@code integerValuesOver50} of
+	 * {@code Streams.collect_TerminalOperation()}, boxed and primitive
+	 *
+	 * {@code java java8to15.java8.collectors.PrimitivePartitions [values]}
+	 * (default 20M)
+	 */
+	public static void main(String[] args) {
+		// one pass, PartitionBenchmark has the warmed up 10M numbers
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 2_000_000;
+		int[] values = new Random(42).ints(count, 0, 100).toArray();
+		List<Integer> boxedValues = Arrays.stream(values).boxed().collect(Collectors.toList());
+		long start = System.nanoTime();
+		Map<Boolean, List<Integer>> boxed = boxedValues.parallelStream()
+				.collect(Collectors.partitioningBy(number -> number > 50));
+		long boxedTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		IntPartition streamed = partition(Arrays.stream(values).parallel(), number -> number > 50);
+		long streamedTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		IntPartition selected = partition(values, number -> number > 50);
+		long selectedTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		Counts counts = count(Arrays.stream(values).parallel(), number -> number > 50);
+		long countTime = System.nanoTime() - start;
+
+		boolean same = boxed.get(true).size() == selected.matching().length
+				&& Arrays.equals(streamed.matching(), selected.matching())
+				&& Arrays.equals(streamed.rest(), selected.rest()) && counts.matching() == selected.matching().length;
+		System.out.printf(
+				"%,d over 50  partitioningBy: %4d ms  IntStream partition: %4d ms  int[] partition: %4d ms  count: %3d ms  %s%n",
+				selected.matching().length, boxedTime / 1_000_000, streamedTime / 1_000_000,
+				selectedTime / 1_000_000, countTime / 1_000_000, same ? "same" : "DIFFERENT");
+		if (!same)
+			throw new AssertionError("partitions differ");
+
+		// sizes around the word and chunk boundaries, int and long, against partitioningBy in encounter order
+		Random random = new Random(7);
+		for (int size : new int[] { 0, 1, 63, 64, 65, (1 << 16) - 1, 1 << 16, (1 << 16) + 1, 200_003 }) {
+			long[] longs = random.longs(size, -1000, 1000).toArray();
+			int[] ints = Arrays.stream(longs).mapToInt(value -> (int) value).toArray();
+			Map<Boolean, List<Long>> expected = Arrays.stream(longs).boxed()
+					.collect(Collectors.partitioningBy(value -> value % 3 == 0));
+			BitSet bits = select(longs, value -> value % 3 == 0);
+			if (!partition(longs, value -> value % 3 == 0).toMap().equals(expected)
+					|| !partition(Arrays.stream(longs).parallel(), value -> value % 3 == 0).toMap().equals(expected)
+					|| !partition(Arrays.stream(ints), value -> value % 3 == 0).toMap().equals(intMap(expected))
+					|| !partition(ints, value -> value % 3 == 0).toMap().equals(intMap(expected))
+					|| count(Arrays.stream(ints).parallel(), value -> value % 3 == 0)
+							.matching() != expected.get(true).size()
+					|| count(Arrays.stream(longs), value -> value % 3 == 0).rest() != expected.get(false).size()
+					|| bits.cardinality() != expected.get(true).size()
+					|| (size > 0 && bits.get(0) != (longs[0] % 3 == 0)) || bits.length() > size)
+				throw new AssertionError("partitions of " + size + " values differ from partitioningBy");
+		}
+		System.out.println("chunk boundaries: same as partitioningBy");
+		System.out.println(partition(IntStream.of(10, 20, 80, 40, 20, 60, 40, 80, 10), number -> number > 50));
+		// {false=[10, 20, 40, 20, 40, 10], true=[80, 60, 80]}
+	}
+
+	private static Map<Boolean, List<Integer>> intMap(Map<Boolean, List<Long>> longs) {
+		Map<Boolean, List<Integer>> ints = new HashMap<>();
+		longs.forEach((key, values) -> ints.put(key,
+				values.stream().map(value -> (int) (long) value).collect(Collectors.toList())));
+		return ints;
+	}
+}
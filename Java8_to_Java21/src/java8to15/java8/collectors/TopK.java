@@ -0,0 +1,498 @@
+package java8to15.java8.collectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * {@code sorted().limit(k)} without sorting everything.
+ * <ul>
+ * <li>{@code sorted()} has to buffer and sort the whole stream to hand out its
+ * first {@code k} elements, that is O(n log n) time and O(n) memory</li>
+ * <li>here every thread keeps only its best {@code k} elements so far in a
+ * bounded max-heap, the worst of them at the root: a new element is compared
+ * with the root and either dropped or replaces it, O(n log k) time and O(k)
+ * memory per thread. The combiner offers the elements of the right heap to the
+ * left one, the finisher sorts the {@code k} survivors</li>
+ * <li>the result is exactly what {@code sorted().limit(k)} returns, including
+ * which of several equal elements make it and their order: every element
+ * carries its position in the encounter order, and on equal elements the
+ * earlier one wins</li>
+ * <li>{@link #smallest(IntStream, int)} and friends do the same on a heap of
+ * primitives</li>
+ * </ul>
+ */
+public final class TopK {
+
+	private TopK() {
+	}
+
+	/**
+	 * {@code sorted().limit(k)}
+	 */
+	public static <T extends Comparable<? super T>> Collector<T, ?, List<T>> smallest(int k) {
+		return smallest(k, Comparator.naturalOrder());
+	}
+
+	/**
+	 * {@code sorted(comparator).limit(k)}
+	 */
+	public static <T> Collector<T, ?, List<T>> smallest(int k, Comparator<? super T> comparator) {
+		checkK(k);
+		Objects.requireNonNull(comparator, "comparator");
+		return Collector.of(() -> new Heap<T>(k, comparator), Heap::add, Heap::merge, Heap::toSortedList);
+	}
+
+	/**
+	 * {@code sorted(Comparator.reverseOrder()).limit(k)}
+	 */
+	public static <T extends Comparable<? super T>> Collector<T, ?, List<T>> largest(int k) {
+		return smallest(k, Comparator.reverseOrder());
+	}
+
+	/**
+	 * {@code sorted(comparator.reversed()).limit(k)}
+	 */
+	public static <T> Collector<T, ?, List<T>> largest(int k, Comparator<? super T> comparator) {
+		return smallest(k, comparator.reversed());
+	}
+
+	/**
+	 * {@code values.sorted().limit(k).toArray()}
+	 */
+	public static int[] smallest(IntStream values, int k) {
+		checkK(k);
+		return values.collect(() -> new IntHeap(k, false), IntHeap::add, IntHeap::merge).toSortedArray();
+	}
+
+	/**
+	 * the {@code k} largest values, largest first
+	 */
+	public static int[] largest(IntStream values, int k) {
+		checkK(k);
+		return values.collect(() -> new IntHeap(k, true), IntHeap::add, IntHeap::merge).toSortedArray();
+	}
+
+	/**
+	 * {@code values.sorted().limit(k).toArray()}
+	 */
+	public static long[] smallest(LongStream values, int k) {
+		checkK(k);
+		return values.collect(() -> new LongHeap(k, false), LongHeap::add, LongHeap::merge).toSortedArray();
+	}
+
+	/**
+	 * the {@code k} largest values, largest first
+	 */
+	public static long[] largest(LongStream values, int k) {
+		checkK(k);
+		return values.collect(() -> new LongHeap(k, true), LongHeap::add, LongHeap::merge).toSortedArray();
+	}
+
+	/**
+	 * {@code values.sorted().limit(k).toArray()}, in the order of
+	 * {@code Double.compare()} like {@code sorted()}
+	 */
+	public static double[] smallest(DoubleStream values, int k) {
+		checkK(k);
+		return values.collect(() -> new DoubleHeap(k, false), DoubleHeap::add, DoubleHeap::merge).toSortedArray();
+	}
+
+	/**
+	 * the {@code k} largest values, largest first
+	 */
+	public static double[] largest(DoubleStream values, int k) {
+		checkK(k);
+		return values.collect(() -> new DoubleHeap(k, true), DoubleHeap::add, DoubleHeap::merge).toSortedArray();
+	}
+
+	private static void checkK(int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("k must not be negative: " + k);
+	}
+
+	/**
+	 * the best {@code k} elements seen by one thread, as a max-heap on
+	 * (comparator, encounter position)
+	 */
+	static final class Heap<T> {
+		private final int k;
+		private final Comparator<? super T> comparator;
+		private Object[] elements;
+		private long[] positions;
+		private int size;
+		/** elements seen, the next one gets this position */
+		private long count;
+
+		Heap(int k, Comparator<? super T> comparator) {
+			this.k = k;
+			this.comparator = comparator;
+			// grown up to k, so a big k on a short stream costs nothing
+			this.elements = new Object[Math.min(k, 16)];
+			this.positions = new long[Math.min(k, 16)];
+		}
+
+		void add(T element) {
+			offer(element, count++);
+		}
+
+		/**
+		 * the right heap saw its elements after all the ones of this heap
+		 */
+		Heap<T> merge(Heap<T> right) {
+			for (int i = 0; i < right.size; i++)
+				offer(right.elements[i], count + right.positions[i]);
+			count += right.count;
+			return this;
+		}
+
+		@SuppressWarnings("unchecked")
+		List<T> toSortedList() {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+			Arrays.sort(order, (a, b) -> {
+				int compared = comparator.compare((T) elements[a], (T) elements[b]);
+				return (compared != 0) ? compared : Long.compare(positions[a], positions[b]);
+			});
+			List<T> result = new ArrayList<>(size);
+			for (Integer index : order)
+				result.add((T) elements[index]);
+			return result;
+		}
+
+		/**
+		 * {@code a} comes after {@code b} in {@code sorted()} order
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean worse(Object a, long positionA, Object b, long positionB) {
+			int compared = comparator.compare((T) a, (T) b);
+			return (compared != 0) ? compared > 0 : positionA > positionB;
+		}
+
+		private void offer(Object element, long position) {
+			if (size < k) {
+				if (size == elements.length) {
+					elements = Arrays.copyOf(elements, (int) Math.min(k, elements.length * 2L));
+					positions = Arrays.copyOf(positions, elements.length);
+				}
+				// sift up
+				int child = size++;
+				while (child > 0) {
+					int parent = (child - 1) >>> 1;
+					if (!worse(element, position, elements[parent], positions[parent]))
+						break;
+					elements[child] = elements[parent];
+					positions[child] = positions[parent];
+					child = parent;
+				}
+				elements[child] = element;
+				positions[child] = position;
+			} else if (k > 0 && worse(elements[0], positions[0], element, position)) {
+				// replace the worst one and sift down
+				int parent = 0;
+				while (true) {
+					int child = 2 * parent + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && worse(elements[child + 1], positions[child + 1], elements[child],
+							positions[child]))
+						child++;
+					if (!worse(elements[child], positions[child], element, position))
+						break;
+					elements[parent] = elements[child];
+					positions[parent] = positions[child];
+					parent = child;
+				}
+				elements[parent] = element;
+				positions[parent] = position;
+			}
+		}
+	}
+
+	/**
+	 * the best {@code k} ints seen by one thread; for {@code largest} the values
+	 * are stored negated with {@code ~}, so the heap is always on the smallest
+	 */
+	static final class IntHeap {
+		private final int k;
+		private final boolean largest;
+		private int[] values;
+		private int size;
+
+		IntHeap(int k, boolean largest) {
+			this.k = k;
+			this.largest = largest;
+			this.values = new int[Math.min(k, 16)];
+		}
+
+		void add(int value) {
+			offer(largest ? ~value : value);
+		}
+
+		void merge(IntHeap right) {
+			for (int i = 0; i < right.size; i++)
+				offer(right.values[i]);
+		}
+
+		int[] toSortedArray() {
+			int[] result = Arrays.copyOf(values, size);
+			Arrays.sort(result);
+			if (largest)
+				for (int i = 0; i < result.length; i++)
+					result[i] = ~result[i];
+			return result;
+		}
+
+		/**
+		 * max-heap, the largest kept value at the root
+		 */
+		private void offer(int value) {
+			if (size < k) {
+				if (size == values.length)
+					values = Arrays.copyOf(values, (int) Math.min(k, values.length * 2L));
+				int child = size++;
+				while (child > 0) {
+					int parent = (child - 1) >>> 1;
+					if (values[parent] >= value)
+						break;
+					values[child] = values[parent];
+					child = parent;
+				}
+				values[child] = value;
+			} else if (k > 0 && value < values[0]) {
+				int parent = 0;
+				while (true) {
+					int child = 2 * parent + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && values[child + 1] > values[child])
+						child++;
+					if (values[child] <= value)
+						break;
+					values[parent] = values[child];
+					parent = child;
+				}
+				values[parent] = value;
+			}
+		}
+	}
+
+	/**
+	 * the best {@code k} longs seen by one thread, see {@link IntHeap}
+	 */
+	static final class LongHeap {
+		private final int k;
+		private final boolean largest;
+		private long[] values;
+		private int size;
+
+		LongHeap(int k, boolean largest) {
+			this.k = k;
+			this.largest = largest;
+			this.values = new long[Math.min(k, 16)];
+		}
+
+		void add(long value) {
+			offer(largest ? ~value : value);
+		}
+
+		void merge(LongHeap right) {
+			for (int i = 0; i < right.size; i++)
+				offer(right.values[i]);
+		}
+
+		long[] toSortedArray() {
+			long[] result = Arrays.copyOf(values, size);
+			Arrays.sort(result);
+			if (largest)
+				for (int i = 0; i < result.length; i++)
+					result[i] = ~result[i];
+			return result;
+		}
+
+		private void offer(long value) {
+			if (size < k) {
+				if (size == values.length)
+					values = Arrays.copyOf(values, (int) Math.min(k, values.length * 2L));
+				int child = size++;
+				while (child > 0) {
+					int parent = (child - 1) >>> 1;
+					if (values[parent] >= value)
+						break;
+					values[child] = values[parent];
+					child = parent;
+				}
+				values[child] = value;
+			} else if (k > 0 && value < values[0]) {
+				int parent = 0;
+				while (true) {
+					int child = 2 * parent + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && values[child + 1] > values[child])
+						child++;
+					if (values[child] <= value)
+						break;
+					values[parent] = values[child];
+					parent = child;
+				}
+				values[parent] = value;
+			}
+		}
+	}
+
+	/**
+	 * the best {@code k} doubles seen by one thread, compared with
+	 * {@code Double.compare()} (-0.0 before 0.0, NaN last)
+	 */
+	static final class DoubleHeap {
+		private final int k;
+		private final boolean largest;
+		private double[] values;
+		private int size;
+
+		DoubleHeap(int k, boolean largest) {
+			this.k = k;
+			this.largest = largest;
+			this.values = new double[Math.min(k, 16)];
+		}
+
+		void add(double value) {
+			offer(value);
+		}
+
+		void merge(DoubleHeap right) {
+			for (int i = 0; i < right.size; i++)
+				offer(right.values[i]);
+		}
+
+		double[] toSortedArray() {
+			double[] result = Arrays.copyOf(values, size);
+			Arrays.sort(result);
+			if (largest)
+				for (int i = 0, j = result.length - 1; i < j; i++, j--) {
+					double swap = result[i];
+					result[i] = result[j];
+					result[j] = swap;
+				}
+			return result;
+		}
+
+		/**
+		 * {@code a} is kept rather than {@code b}
+		 */
+		private boolean better(double a, double b) {
+			return largest ? Double.compare(a, b) > 0 : Double.compare(a, b) < 0;
+		}
+
+		private void offer(double value) {
+			if (size < k) {
+				if (size == values.length)
+					values = Arrays.copyOf(values, (int) Math.min(k, values.length * 2L));
+				int child = size++;
+				while (child > 0) {
+					int parent = (child - 1) >>> 1;
+					if (!better(values[parent], value))
+						break;
+					values[child] = values[parent];
+					child = parent;
+				}
+				values[child] = value;
+			} else if (k > 0 && better(value, values[0])) {
+				int parent = 0;
+				while (true) {
+					int child = 2 * parent + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && better(values[child], values[child + 1]))
+						child++;
+					if (!better(value, values[child]))
+						break;
+					values[parent] = values[child];
+					parent = child;
+				}
+				values[parent] = value;
+			}
+		}
+	}
+
+	/**
+	 * the 100 smallest of a few million boxed and primitive values, against
+	 * {@code sorted().limit(100)}
+	 *
+	 * {@code java java8to15.java8.collectors.TopK [values]} (default 10M)
+	 */
+	public static void main(String[] args) {
+		// one pass, TopKBenchmark has the warmed up 10M numbers
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+		int k = 100;
+		int[] values = new Random(42).ints(count).toArray();
+		List<Integer> boxed = Arrays.stream(values).boxed().collect(Collectors.toList());
+		long start = System.nanoTime();
+		List<Integer> sorted = boxed.stream().sorted().limit(k).collect(Collectors.toList());
+		long sortedTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		List<Integer> heap = boxed.stream().collect(smallest(k));
+		long heapTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int[] primitive = smallest(Arrays.stream(values), k);
+		long primitiveTime = System.nanoTime() - start;
+
+		System.out.printf("k=%d of %,d  sorted().limit(k): %5d ms  TopK.smallest(k): %4d ms  int TopK: %4d ms  %s%n",
+				k, count, sortedTime / 1_000_000, heapTime / 1_000_000, primitiveTime / 1_000_000,
+				(sorted.equals(heap) && Arrays.equals(primitive, heap.stream().mapToInt(i -> i).toArray()))
+						? "same"
+						: "DIFFERENT");
+		if (!sorted.equals(heap) || !Arrays.equals(primitive, heap.stream().mapToInt(i -> i).toArray()))
+			throw new AssertionError("TopK differs from sorted().limit(k)");
+
+		// small parallel inputs with many ties, every k from 0 to past the size: the same elements (by identity, so
+		// ties keep their encounter order) as sorted().limit(k), NaN and -0.0 ordered like DoubleStream.sorted()
+		Random random = new Random(7);
+		Comparator<String> byLength = Comparator.comparingInt(String::length);
+		double[] specials = { Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY };
+		for (int test = 0; test < 300; test++) {
+			List<String> words = random.ints(random.nextInt(300), 0, 50).mapToObj(i -> "w" + i)
+					.collect(Collectors.toList());
+			double[] doubles = random.doubles(words.size())
+					.map(d -> (d < 0.2) ? specials[(int) (d * 25)] : Math.floor(d * 20) - 10).toArray();
+			for (int n : new int[] { 0, 1, 7, words.size() / 2, words.size(), words.size() + 3 }) {
+				checkSame(words.stream().sorted(byLength).limit(n).collect(Collectors.toList()),
+						words.parallelStream().collect(smallest(n, byLength)));
+				checkSame(words.stream().sorted(byLength.reversed()).limit(n).collect(Collectors.toList()),
+						words.parallelStream().collect(largest(n, byLength)));
+				int[] ints = words.stream().mapToInt(String::length).toArray();
+				if (!Arrays.equals(Arrays.stream(ints).sorted().limit(n).toArray(),
+						smallest(Arrays.stream(ints).parallel(), n))
+						|| !Arrays.equals(
+								Arrays.stream(ints).mapToObj(i -> -(long) i).sorted().limit(n).mapToLong(i -> -i)
+										.toArray(),
+								largest(Arrays.stream(ints).asLongStream().parallel(), n))
+						|| !Arrays.equals(Arrays.stream(doubles).sorted().limit(n).toArray(),
+								smallest(Arrays.stream(doubles).parallel(), n)))
+					throw new AssertionError("primitive TopK differs from sorted().limit(" + n + ")");
+			}
+		}
+		System.out.println("ties, NaN and every k: same as sorted().limit(k)");
+		System.out.println(List.of("Pat", "Jim", "Ron", "Joe").parallelStream().collect(smallest(2))); // [Jim, Joe]
+	}
+
+	private static <T> void checkSame(List<T> expected, List<T> actual) {
+		if (expected.size() != actual.size())
+			throw new AssertionError(expected + " != " + actual);
+		for (int i = 0; i < expected.size(); i++)
+			if (expected.get(i) != actual.get(i))
+				throw new AssertionError(expected + " != " + actual);
+	}
+}
@@ -1,20 +1,65 @@
 package java8to15.java8.intresting;
 
+import java.math.BigInteger;
 import java.util.stream.Stream;
 
+import java8.utility.ChannelNumberSink;
+import java8.utility.NumberSink;
+
 public class Fibonacci {
 	public static void main(String[] args) {
 		fibonacciTuples(30);
-		fibonacciSeries(30);		
+		fibonacciSeries(30);
+		System.out.println();
+		System.out.println(fibonacciTerm(300)); // computed once, served from the memo table afterwards
+
+		// same series, formatted into a byte buffer and written to stdout in chunks
+		try (NumberSink sink = ChannelNumberSink.stdout()) {
+			fibonacciSeries(FibonacciEngine.MAX_LONG_INDEX + 1, sink);
+			sink.newLine();
+		}
 	}
 
+	/**
+	 * allocates a new {@code int[]} per term and silently overflows after F(46),
+	 * kept as a {@code Stream.iterate()} example
+	 */
 	public static void fibonacciTuples(int target) {
 		Stream.iterate(new int[] { 0, 1 }, arr -> new int[] { arr[1], arr[0] + arr[1] }).limit(target)
 				.forEach(tuple -> System.out.println("[" + tuple[0] + ", " + tuple[1] + "]"));
 	}
 
+	/**
+	 * uses {@link FibonacciEngine#longSequence(int)}, which does not allocate per
+	 * term and throws {@code ArithmeticException} instead of overflowing
+	 */
 	public static void fibonacciSeries(int target) {
-		Stream.iterate(new int[] { 0, 1 }, arr -> new int[] { arr[1], arr[0] + arr[1] }).limit(target)
-		.forEach(tuple -> System.out.print(tuple[0]+", "));
+		fibonacciSeries(target, NumberSink.of(System.out));
+	}
+
+	/**
+	 * prints the series to the given sink, with a {@link ChannelNumberSink} there
+	 * is no String per term and no {@code PrintStream} lock per call
+	 */
+	public static void fibonacciSeries(int target, NumberSink sink) {
+		FibonacciEngine.longSequence(target).forEach(term -> sink.print(term).print(", "));
+		sink.flush();
+	}
+
+	/**
+	 * nth term through {@link FibonacciMemo#shared()}, so repeated and concurrent
+	 * requests do not start again from F(0)
+	 */
+	public static BigInteger fibonacciTerm(int n) {
+		return FibonacciMemo.shared().get(n);
+	}
+
+	/**
+	 * nth term for huge indices (millions), the BigInteger multiplications of
+	 * each squaring step run on the common {@code ForkJoinPool}, see
+	 * {@link ParallelFibonacci}
+	 */
+	public static BigInteger fibonacciTermParallel(int n) {
+		return ParallelFibonacci.fibonacci(n);
 	}
 }
@@ -0,0 +1,204 @@
+package java8to15.java8.intresting;
+
+import java.math.BigInteger;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Fibonacci terms without the {@code int[]} tuple that
+ * {@code Stream.iterate(new int[] { 0, 1 }, ...)} allocates for every term.
+ * <ul>
+ * <li><b>long path</b> : F(0)..F({@value #MAX_LONG_INDEX}) fit in a
+ * {@code long}, anything beyond that throws {@code ArithmeticException}
+ * instead of silently wrapping to a negative value (the {@code int} version
+ * already wraps at F(47)).</li>
+ * <li><b>BigInteger path</b> : nth term in O(log n) steps using <i>fast
+ * doubling</i><br>
+ * {@code F(2k) = F(k) * (2 * F(k+1) - F(k))}<br>
+ * {@code F(2k+1) = F(k)^2 + F(k+1)^2}</li>
+ * <li><b>streams</b> : the running pair is kept in two fields of a
+ * {@code Spliterator}, so a {@code LongStream} produces no garbage at all and a
+ * {@code Stream<BigInteger>} only allocates the terms themselves.</li>
+ * </ul>
+ */
+public final class FibonacciEngine {
+
+	/**
+	 * index of the largest Fibonacci term that fits in a {@code long}
+	 * (7540113804746346429)
+	 */
+	public static final int MAX_LONG_INDEX = 92;
+
+	private FibonacciEngine() {
+	}
+
+	public static void main(String[] args) {
+		System.out.println(fibonacci(10)); // 55
+		System.out.println(fibonacci(MAX_LONG_INDEX)); // 7540113804746346429
+		System.out.println(fibonacciBig(100)); // 354224848179261915075
+
+		longSequence(15).forEach(term -> System.out.print(term + ", ")); // 0, 1, 1, 2, 3, 5, 8, ...
+		System.out.println();
+		bigSequence().skip(90).limit(5).forEach(System.out::println); // keeps going past F(92)
+
+		try {
+			fibonacci(MAX_LONG_INDEX + 1);
+		} catch (ArithmeticException e) {
+			System.out.println(e.getMessage()); // F(93) overflows long
+		}
+	}
+
+	/**
+	 * @return F(n) as a {@code long}
+	 * @throws ArithmeticException if F(n) does not fit in a {@code long}
+	 */
+	public static long fibonacci(int n) {
+		checkIndex(n);
+		if (n > MAX_LONG_INDEX)
+			throw overflow(n);
+
+		// fast doubling, walking the bits of 'n' from the most significant one
+		long a = 0; // F(k)
+		long b = 1; // F(k+1)
+		for (int bit = Integer.highestOneBit(n); bit != 0; bit >>>= 1) {
+			long c = a * (2 * b - a); // F(2k)
+			long d = a * a + b * b; // F(2k+1)
+			if ((n & bit) == 0) {
+				a = c;
+				b = d;
+			} else {
+				a = d;
+				b = c + d;
+			}
+		}
+		// only F(n+1) may wrap here (n == 92), F(n) itself is exact
+		return a;
+	}
+
+	/**
+	 * @return F(n) computed with fast doubling in O(log n) BigInteger
+	 *         multiplications
+	 */
+	public static BigInteger fibonacciBig(int n) {
+		checkIndex(n);
+		if (n <= MAX_LONG_INDEX)
+			return BigInteger.valueOf(fibonacci(n));
+		return fastDoubling(n)[0];
+	}
+
+	/**
+	 * @return {F(n), F(n+1)}
+	 */
+	static BigInteger[] fastDoubling(int n) {
+		BigInteger a = BigInteger.ZERO;
+		BigInteger b = BigInteger.ONE;
+		for (int bit = Integer.highestOneBit(n); bit != 0; bit >>>= 1) {
+			BigInteger c = a.multiply(b.shiftLeft(1).subtract(a));
+			BigInteger d = a.multiply(a).add(b.multiply(b));
+			if ((n & bit) == 0) {
+				a = c;
+				b = d;
+			} else {
+				a = d;
+				b = c.add(d);
+			}
+		}
+		return new BigInteger[] { a, b };
+	}
+
+	/**
+	 * @return F(0), F(1), ... F(count - 1) as a {@code LongStream}
+	 * @throws ArithmeticException if the last requested term does not fit in a
+	 *                             {@code long}
+	 */
+	public static LongStream longSequence(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("count must not be negative: " + count);
+		if (count > MAX_LONG_INDEX + 1)
+			throw overflow(count - 1);
+		return StreamSupport.longStream(new LongTermSpliterator(count), false);
+	}
+
+	/**
+	 * @return an infinite {@code Stream<BigInteger>} of F(0), F(1), ...
+	 */
+	public static Stream<BigInteger> bigSequence() {
+		return StreamSupport.stream(new BigTermSpliterator(), false);
+	}
+
+	private static void checkIndex(int n) {
+		if (n < 0)
+			throw new IllegalArgumentException("index must not be negative: " + n);
+	}
+
+	private static ArithmeticException overflow(int n) {
+		return new ArithmeticException("F(" + n + ") overflows long, use fibonacciBig()/bigSequence()");
+	}
+
+	/**
+	 * keeps the current pair in two {@code long} fields instead of a tuple array
+	 */
+	private static final class LongTermSpliterator extends Spliterators.AbstractLongSpliterator {
+		private long current = 0;
+		private long next = 1;
+		private int remaining;
+
+		LongTermSpliterator(int count) {
+			super(count, Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL | Spliterator.SIZED);
+			this.remaining = count;
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			if (remaining == 0)
+				return false;
+			action.accept(current);
+			advance();
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			while (remaining > 0) {
+				action.accept(current);
+				advance();
+			}
+		}
+
+		private void advance() {
+			remaining--;
+			// F(93) would be the 'next' of the last term, it is never emitted
+			long sum = current + next;
+			current = next;
+			next = sum;
+		}
+
+		@Override
+		public long estimateSize() {
+			return remaining;
+		}
+	}
+
+	private static final class BigTermSpliterator extends Spliterators.AbstractSpliterator<BigInteger> {
+		private BigInteger current = BigInteger.ZERO;
+		private BigInteger next = BigInteger.ONE;
+
+		BigTermSpliterator() {
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super BigInteger> action) {
+			action.accept(current);
+			BigInteger sum = current.add(next);
+			current = next;
+			next = sum;
+			return true;
+		}
+	}
+}
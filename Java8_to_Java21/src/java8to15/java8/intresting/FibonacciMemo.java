@@ -0,0 +1,257 @@
+package java8to15.java8.intresting;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * Memo table of Fibonacci terms that can be shared by many threads.
+ * <ul>
+ * <li><b>long tier</b> : F(0)..F({@value FibonacciEngine#MAX_LONG_INDEX}), all
+ * the terms that fit in a {@code long}. It is a single segment of 93 slots, so
+ * it is filled once up front.</li>
+ * <li><b>BigInteger tier</b> : F(93) onwards, kept in fixed size segments that
+ * only ever grow at the end. Readers never lock: a term is visible once the
+ * {@code volatile} limit has moved past it, and the limit is only written after
+ * the term and its segment have been stored. A single writer (guarded by a
+ * {@code ReentrantLock}) extends the table.</li>
+ * <li><b>memory cap</b> : when the estimated footprint of the BigInteger tier
+ * goes over the cap, the oldest segments are dropped (the newest one is kept so
+ * the table can keep extending). A request for an evicted term, or one so far
+ * ahead that caching it would blow the cap by itself, is computed with
+ * {@link FibonacciEngine#fibonacciBig(int)} and not stored.</li>
+ * </ul>
+ */
+public final class FibonacciMemo {
+
+	private static final int SEGMENT_SHIFT = 10;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private static final int FIRST_BIG_INDEX = FibonacciEngine.MAX_LONG_INDEX + 1;
+	private static final long[] LONG_TIER = FibonacciEngine.longSequence(FIRST_BIG_INDEX).toArray();
+
+	/** rough size of a BigInteger object plus the header of its int[] */
+	private static final int BIG_INTEGER_OVERHEAD = 40;
+	/** log2 of the golden ratio, F(n) has about n * 0.694 bits */
+	private static final double BITS_PER_INDEX = 0.6942419136306174;
+
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	private static final FibonacciMemo SHARED = new FibonacciMemo(DEFAULT_MAX_BYTES);
+
+	private final long maxBigIntegerBytes;
+
+	private volatile BigInteger[][] segments = new BigInteger[0][];
+	/** terms below the limit have been computed (they may have been evicted) */
+	private volatile int limit = FIRST_BIG_INDEX;
+
+	/* writer state, guarded by extendLock */
+	private final ReentrantLock extendLock = new ReentrantLock();
+	private BigInteger previous = BigInteger.valueOf(LONG_TIER[FIRST_BIG_INDEX - 2]);
+	private BigInteger last = BigInteger.valueOf(LONG_TIER[FIRST_BIG_INDEX - 1]);
+	private long[] segmentBytes = new long[0];
+	private int firstLiveSegment = 0;
+	private volatile long bigIntegerBytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public FibonacciMemo(long maxBigIntegerBytes) {
+		if (maxBigIntegerBytes < 0)
+			throw new IllegalArgumentException("maxBigIntegerBytes must not be negative: " + maxBigIntegerBytes);
+		this.maxBigIntegerBytes = maxBigIntegerBytes;
+	}
+
+	/**
+	 * @return the table shared by all callers of {@link Fibonacci}, capped at
+	 *         {@value #DEFAULT_MAX_BYTES} bytes
+	 */
+	public static FibonacciMemo shared() {
+		return SHARED;
+	}
+
+	public static void main(String[] args) {
+		FibonacciMemo memo = new FibonacciMemo(1L << 20);
+
+		// many callers asking for overlapping terms, only the first ones compute
+		IntStream.range(0, 64).parallel().forEach(caller -> memo.get(2_000 + caller));
+		System.out.println(memo.get(2_000).bitLength()); // 1388
+		System.out.println(memo.getLong(50)); // 12586269025
+		System.out.println(memo); // hits/misses/evictions
+
+		// growing the table past its cap evicts the oldest BigInteger segments
+		for (int n = 3_000; n <= 8_000; n += 1_000)
+			memo.get(n);
+		System.out.println(memo);
+	}
+
+	/**
+	 * @return F(n), from the table when it is there
+	 */
+	public BigInteger get(int n) {
+		if (n < 0)
+			throw new IllegalArgumentException("index must not be negative: " + n);
+		if (n < FIRST_BIG_INDEX) {
+			hits.increment();
+			return BigInteger.valueOf(LONG_TIER[n]);
+		}
+		BigInteger cached = lookup(n);
+		if (cached != null) {
+			hits.increment();
+			return cached;
+		}
+		misses.increment();
+		BigInteger extended = extendTo(n);
+		return (extended != null) ? extended : FibonacciEngine.fibonacciBig(n);
+	}
+
+	/**
+	 * @return F(n) as a {@code long}
+	 * @throws ArithmeticException if F(n) does not fit in a {@code long}
+	 */
+	public long getLong(int n) {
+		if (n < 0)
+			throw new IllegalArgumentException("index must not be negative: " + n);
+		if (n >= FIRST_BIG_INDEX)
+			throw new ArithmeticException("F(" + n + ") overflows long, use get()");
+		hits.increment();
+		return LONG_TIER[n];
+	}
+
+	/**
+	 * lock-free read, {@code limit} is read before {@code segments} so the
+	 * directory is at least as new as the limit
+	 */
+	private BigInteger lookup(int n) {
+		if (n >= limit)
+			return null;
+		int relative = n - FIRST_BIG_INDEX;
+		BigInteger[] segment = segments[relative >>> SEGMENT_SHIFT];
+		return (segment == null) ? null : segment[relative & SEGMENT_MASK];
+	}
+
+	/**
+	 * @return F(n), or {@code null} when it was evicted or is not worth caching
+	 */
+	private BigInteger extendTo(int n) {
+		if (!fitsInCap(n))
+			return null;
+		extendLock.lock();
+		try {
+			int end = limit;
+			if (n < end) // another thread got there first, or the term was evicted
+				return lookup(n);
+
+			BigInteger[][] directory = segments;
+			BigInteger prev = previous;
+			BigInteger current = last;
+			for (; end <= n; end++) {
+				int relative = end - FIRST_BIG_INDEX;
+				int segmentIndex = relative >>> SEGMENT_SHIFT;
+				if (segmentIndex == directory.length) {
+					directory = Arrays.copyOf(directory, segmentIndex + 1);
+					directory[segmentIndex] = new BigInteger[SEGMENT_SIZE];
+					segmentBytes = Arrays.copyOf(segmentBytes, segmentIndex + 1);
+				}
+				BigInteger next = prev.add(current);
+				directory[segmentIndex][relative & SEGMENT_MASK] = next;
+				segmentBytes[segmentIndex] += footprint(next);
+				prev = current;
+				current = next;
+			}
+			previous = prev;
+			last = current;
+
+			// publish: the directory first, then the limit that makes the terms visible
+			segments = directory;
+			limit = end;
+			evictOverCap();
+			return current;
+		} finally {
+			extendLock.unlock();
+		}
+	}
+
+	/**
+	 * drops the oldest segments while over the cap, always keeping the segment
+	 * that holds the last term
+	 */
+	private void evictOverCap() {
+		long total = 0;
+		for (long bytes : segmentBytes)
+			total += bytes;
+
+		BigInteger[][] directory = segments;
+		int newestSegment = directory.length - 1;
+		boolean evicted = false;
+		while (total > maxBigIntegerBytes && firstLiveSegment < newestSegment) {
+			if (!evicted) {
+				directory = directory.clone(); // readers may still hold the old directory
+				evicted = true;
+			}
+			directory[firstLiveSegment] = null;
+			total -= segmentBytes[firstLiveSegment];
+			segmentBytes[firstLiveSegment] = 0;
+			firstLiveSegment++;
+			evictions.increment();
+		}
+		if (evicted)
+			segments = directory;
+		bigIntegerBytes = total;
+	}
+
+	/**
+	 * @return {@code false} when caching every term up to F(n) would go over the
+	 *         cap on its own
+	 */
+	private boolean fitsInCap(int n) {
+		long count = (long) n - limit + 1;
+		double averageBits = BITS_PER_INDEX * ((double) limit + n) / 2;
+		double estimate = count * (averageBits / 8 + BIG_INTEGER_OVERHEAD);
+		return estimate <= maxBigIntegerBytes;
+	}
+
+	private static long footprint(BigInteger value) {
+		return BIG_INTEGER_OVERHEAD + (((value.bitLength() + 31) >>> 5) << 2);
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of BigInteger segments dropped to stay under the cap
+	 */
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return estimated bytes held by the BigInteger tier
+	 */
+	public long bigIntegerBytes() {
+		return bigIntegerBytes;
+	}
+
+	/**
+	 * @return index one past the highest term computed so far
+	 */
+	public int limit() {
+		return limit;
+	}
+
+	@Override
+	public String toString() {
+		return "FibonacciMemo [limit=" + limit + ", hits=" + hits() + ", misses=" + misses() + ", evictions="
+				+ evictions() + ", bigIntegerBytes=" + bigIntegerBytes + ", maxBigIntegerBytes=" + maxBigIntegerBytes
+				+ "]";
+	}
+}
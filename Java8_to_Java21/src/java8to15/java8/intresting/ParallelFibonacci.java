@@ -0,0 +1,164 @@
+package java8to15.java8.intresting;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * F(n) for very large n using the 2x2 matrix power
+ *
+ * <pre>
+ * | 1 1 |^n   | F(n+1) F(n)   |
+ * | 1 0 |   = | F(n)   F(n-1) |
+ * </pre>
+ *
+ * The matrix is symmetric and its bottom row follows from the top one, so
+ * squaring it only needs three big multiplications: {@code F(k+1)^2},
+ * {@code F(k)^2} and {@code F(k) * (F(k+1) + F(k-1))}. Those three are
+ * independent, so each squaring step forks two of them as {@code RecursiveTask}s
+ * on a {@code ForkJoinPool} and does the third in the current worker;
+ * multiplying by the base matrix for a set bit is only additions.
+ * <ul>
+ * <li>indices below {@value #SEQUENTIAL_THRESHOLD} go to
+ * {@link FibonacciEngine#fibonacciBig(int)} (sequential fast doubling), the
+ * fork/join overhead is larger than the work there</li>
+ * <li>operands shorter than {@value #FORK_THRESHOLD_BITS} bits are multiplied
+ * in the calling thread, only the late (large) squaring steps fork</li>
+ * </ul>
+ */
+public final class ParallelFibonacci {
+
+	public static final int SEQUENTIAL_THRESHOLD = 100_000;
+	public static final int FORK_THRESHOLD_BITS = 1 << 15;
+
+	private ParallelFibonacci() {
+	}
+
+	/**
+	 * scaling benchmark, F(n) computed on pools of 1, 2, 4 ... N threads
+	 *
+	 * {@code java java8to15.java8.intresting.ParallelFibonacci [n] [rounds]}
+	 */
+	public static void main(String[] args) {
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000_000;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		BigInteger expected = FibonacciEngine.fibonacciBig(n); // also warms up BigInteger.multiply
+		System.out.println("F(" + n + ") has " + expected.bitLength() + " bits, " + cores + " cores");
+
+		double baseline = 0;
+		for (int parallelism = 1; parallelism <= cores; parallelism = nextParallelism(parallelism, cores)) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				long best = Long.MAX_VALUE;
+				for (int round = 0; round < rounds; round++) {
+					long start = System.nanoTime();
+					BigInteger result = fibonacci(n, pool);
+					best = Math.min(best, System.nanoTime() - start);
+					if (!result.equals(expected))
+						throw new IllegalStateException("parallel result differs for F(" + n + ")");
+				}
+				double millis = best / 1_000_000.0;
+				if (parallelism == 1)
+					baseline = millis;
+				System.out.printf("threads: %3d  best: %9.1f ms  speedup: %5.2fx%n", parallelism, millis,
+						baseline / millis);
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private static int nextParallelism(int parallelism, int cores) {
+		return (parallelism < cores && parallelism * 2 > cores) ? cores : parallelism * 2;
+	}
+
+	/**
+	 * @return F(n) using the common pool
+	 */
+	public static BigInteger fibonacci(int n) {
+		return fibonacci(n, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @return F(n), the squaring steps run their multiplications on the given
+	 *         pool
+	 */
+	public static BigInteger fibonacci(int n, ForkJoinPool pool) {
+		if (n < 0)
+			throw new IllegalArgumentException("index must not be negative: " + n);
+		if (n < SEQUENTIAL_THRESHOLD)
+			return FibonacciEngine.fibonacciBig(n);
+		return pool.invoke(new MatrixPowerTask(n));
+	}
+
+	/**
+	 * walks the bits of n from the top, keeping only {F(k+1), F(k)} of the
+	 * symmetric matrix
+	 */
+	private static final class MatrixPowerTask extends RecursiveTask<BigInteger> {
+		private static final long serialVersionUID = 1L;
+
+		private final int n;
+
+		MatrixPowerTask(int n) {
+			this.n = n;
+		}
+
+		@Override
+		protected BigInteger compute() {
+			BigInteger next = BigInteger.ONE; // F(k+1)
+			BigInteger current = BigInteger.ZERO; // F(k)
+			for (int bit = Integer.highestOneBit(n); bit != 0; bit >>>= 1) {
+				BigInteger previous = next.subtract(current); // F(k-1)
+
+				// square, k -> 2k
+				BigInteger nextSquare;
+				BigInteger currentSquare;
+				BigInteger cross;
+				if (current.bitLength() < FORK_THRESHOLD_BITS) {
+					nextSquare = next.multiply(next);
+					currentSquare = current.multiply(current);
+					cross = current.multiply(next.add(previous));
+				} else {
+					Multiply nextSquareTask = new Multiply(next, next);
+					Multiply currentSquareTask = new Multiply(current, current);
+					nextSquareTask.fork();
+					currentSquareTask.fork();
+					cross = current.multiply(next.add(previous)); // third one in this thread
+					currentSquare = currentSquareTask.join();
+					nextSquare = nextSquareTask.join();
+				}
+				next = nextSquare.add(currentSquare); // F(2k+1)
+				current = cross; // F(2k)
+				// F(2k-1) = F(k)^2 + F(k-1)^2 is implied by the two above, not computed
+
+				// multiply by the base matrix, 2k -> 2k+1
+				if ((n & bit) != 0) {
+					BigInteger sum = next.add(current);
+					current = next;
+					next = sum;
+				}
+			}
+			return current;
+		}
+	}
+
+	private static final class Multiply extends RecursiveTask<BigInteger> {
+		private static final long serialVersionUID = 1L;
+
+		private final BigInteger left;
+		private final BigInteger right;
+
+		Multiply(BigInteger left, BigInteger right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		protected BigInteger compute() {
+			return left.multiply(right);
+		}
+	}
+}
@@ -0,0 +1,387 @@
+package java8to15.java8.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lines of a file read with overlapping {@code AsynchronousFileChannel} reads,
+ * for storage where waiting on one read at a time is the bottleneck.
+ * <ul>
+ * <li>the file is read in chunks of {@code chunkSize} bytes, at most
+ * {@code maxInFlight} chunks are being read or decoded ahead of the consumer
+ * (bounded read-ahead, one reusable buffer per slot)</li>
+ * <li>as soon as a chunk's read completes it is decoded on the decode
+ * {@code Executor}: the complete lines in the middle of the chunk become
+ * Strings there, only the bytes before the first and after the last
+ * {@code '\n'} are stitched with the neighbouring chunks by the consumer</li>
+ * <li>{@link #lines()} hands out the lines in file order, terminators are
+ * {@code \n}, {@code \r\n} and {@code \r} like
+ * {@code BufferedReader.readLine()}</li>
+ * <li>read latency (read issued to completed), decode time and the time the
+ * consumer spent waiting are collected, see {@link #toString()}</li>
+ * </ul>
+ * Same charset restriction as {@link MappedLineReader}. The lines are
+ * consumed once, closing the stream closes the reader.
+ */
+public class AsyncChunkedLineReader implements Closeable {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+	private final AsynchronousFileChannel channel;
+	private final Charset charset;
+	private final Executor decodeExecutor;
+	private final long size;
+	private final int chunkSize;
+	private final long chunks;
+	/** chunk i is read into buffers[i % buffers.length] */
+	private final ByteBuffer[] buffers;
+	/** chunk i's result is in pending[i % pending.length] until consumed */
+	private final CompletableFuture<Chunk>[] pending;
+	private long nextToRead;
+	private boolean started;
+
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder readNanos = new LongAdder();
+	private final LongAdder decodeNanos = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private AsyncChunkedLineReader(AsynchronousFileChannel channel, Charset charset, int chunkSize,
+			int maxInFlight, Executor decodeExecutor) throws IOException {
+		this.channel = channel;
+		this.charset = charset;
+		this.decodeExecutor = decodeExecutor;
+		this.size = channel.size();
+		this.chunkSize = chunkSize;
+		this.chunks = (size + chunkSize - 1) / chunkSize;
+		int slots = (int) Math.max(1, Math.min(maxInFlight, chunks));
+		this.buffers = new ByteBuffer[slots];
+		this.pending = new CompletableFuture[slots];
+	}
+
+	public static AsyncChunkedLineReader open(Path path) throws IOException {
+		return open(path, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	public static AsyncChunkedLineReader open(Path path, int chunkSize, int maxInFlight) throws IOException {
+		return open(path, StandardCharsets.UTF_8, chunkSize, maxInFlight, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param decodeExecutor runs the decoding of completed chunks, on java 21
+	 *                       {@code Executors.newVirtualThreadPerTaskExecutor()}
+	 *                       works as well
+	 */
+	public static AsyncChunkedLineReader open(Path path, Charset charset, int chunkSize, int maxInFlight,
+			Executor decodeExecutor) throws IOException {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		if (!charset.equals(StandardCharsets.UTF_8) && charset.newEncoder().maxBytesPerChar() != 1)
+			throw new IllegalArgumentException("only UTF-8 and single byte charsets are supported: " + charset);
+		AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new AsyncChunkedLineReader(channel, charset, chunkSize, maxInFlight, decodeExecutor);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * reads a generated file with a few chunk sizes and read-ahead depths and
+	 * prints the read latency against the decode time
+	 *
+	 * {@code java java8to15.java8.io.AsyncChunkedLineReader [megabytes]} (default
+	 * 128)
+	 */
+	public static void main(String[] args) throws IOException {
+		int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 128;
+		Path file = Files.createTempFile("lines", ".txt");
+		try {
+			long bytes = MappedLineReader.writeSampleFile(file, megabytes * 1024L * 1024L);
+			int[][] configurations = { { 64 * 1024, 1 }, { 64 * 1024, 8 }, { 1024 * 1024, 1 }, { 1024 * 1024, 4 },
+					{ 4 * 1024 * 1024, 8 } };
+			for (int[] configuration : configurations) {
+				long start = System.nanoTime();
+				long errors;
+				AsyncChunkedLineReader reader = open(file, configuration[0], configuration[1]);
+				try (Stream<String> lines = reader.lines()) {
+					errors = lines.filter(line -> line.contains("ERROR")).count();
+				}
+				long elapsed = System.nanoTime() - start;
+				System.out.printf("chunk %5d KB  in flight %d : %7.1f MB/s  %s  (%d)%n", configuration[0] / 1024,
+						configuration[1], MappedLineReader.throughput(bytes, elapsed), reader, errors);
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * starts reading; the stream can only be consumed once and closing it closes
+	 * the reader
+	 */
+	public Stream<String> lines() {
+		if (started)
+			throw new IllegalStateException("lines() can only be called once");
+		if (!channel.isOpen())
+			throw new IllegalStateException("reader is closed");
+		started = true;
+		while (nextToRead < chunks && nextToRead < pending.length)
+			readNext();
+		return StreamSupport.stream(new LineSpliterator(), false).onClose(this::close);
+	}
+
+	private void readNext() {
+		long index = nextToRead++;
+		int slot = (int) (index % pending.length);
+		ByteBuffer buffer = buffers[slot];
+		if (buffer == null)
+			buffer = buffers[slot] = ByteBuffer.allocateDirect(chunkSize);
+		buffer.clear().limit((int) Math.min(chunkSize, size - index * chunkSize));
+		CompletableFuture<Chunk> chunk = new CompletableFuture<>();
+		pending[slot] = chunk;
+		read(buffer, index * chunkSize, System.nanoTime(), chunk);
+	}
+
+	/**
+	 * reads until the buffer is full (a read may return less), then hands the
+	 * buffer to the decode executor
+	 */
+	private void read(ByteBuffer buffer, long chunkStart, long issued, CompletableFuture<Chunk> chunk) {
+		channel.read(buffer, chunkStart + buffer.position(), null, new CompletionHandler<Integer, Void>() {
+			@Override
+			public void completed(Integer read, Void attachment) {
+				if (read >= 0 && buffer.hasRemaining()) {
+					read(buffer, chunkStart, issued, chunk);
+					return;
+				}
+				readNanos.add(System.nanoTime() - issued);
+				bytesRead.add(buffer.position());
+				buffer.flip();
+				try {
+					decodeExecutor.execute(() -> {
+						try {
+							chunk.complete(decode(buffer));
+						} catch (Throwable t) {
+							chunk.completeExceptionally(t);
+						}
+					});
+				} catch (RuntimeException e) { // executor rejected it
+					chunk.completeExceptionally(e);
+				}
+			}
+
+			@Override
+			public void failed(Throwable exception, Void attachment) {
+				chunk.completeExceptionally(exception);
+			}
+		});
+	}
+
+	private Chunk decode(ByteBuffer buffer) {
+		long start = System.nanoTime();
+		int limit = buffer.limit();
+		int first = 0;
+		while (first < limit && buffer.get(first) != '\n')
+			first++;
+		Chunk chunk;
+		if (first == limit) { // no newline, the whole chunk belongs to a longer line
+			chunk = new Chunk(bytes(buffer, 0, limit), null, null);
+		} else {
+			int last = limit - 1;
+			while (buffer.get(last) != '\n')
+				last--;
+			List<String> lines = new ArrayList<>();
+			splitLines(buffer, first + 1, last + 1, charset, lines);
+			chunk = new Chunk(bytes(buffer, 0, first + 1), lines, bytes(buffer, last + 1, limit));
+		}
+		decodeNanos.add(System.nanoTime() - start);
+		return chunk;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		buffer.get(from, bytes);
+		return bytes;
+	}
+
+	/**
+	 * adds the lines of [from, to) to {@code lines}; the range starts at the
+	 * beginning of a line and ends after a {@code '\n'} or at the end of the file
+	 */
+	static void splitLines(ByteBuffer buffer, int from, int to, Charset charset, List<String> lines) {
+		byte[] scratch = new byte[256];
+		int position = from;
+		while (position < to) {
+			int lineEnd = position;
+			while (lineEnd < to) {
+				byte b = buffer.get(lineEnd);
+				if (b == '\n' || b == '\r')
+					break;
+				lineEnd++;
+			}
+			int length = lineEnd - position;
+			if (scratch.length < length)
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			buffer.get(position, scratch, 0, length);
+			lines.add(new String(scratch, 0, length, charset));
+			position = lineEnd + 1;
+			if (lineEnd < to && buffer.get(lineEnd) == '\r' && position < to && buffer.get(position) == '\n')
+				position++;
+		}
+	}
+
+	public long bytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * @return summed over all chunks, from issuing a chunk's read to its
+	 *         completion
+	 */
+	public long readNanos() {
+		return readNanos.sum();
+	}
+
+	/**
+	 * @return summed over all chunks, time spent turning bytes into lines on the
+	 *         decode executor
+	 */
+	public long decodeNanos() {
+		return decodeNanos.sum();
+	}
+
+	/**
+	 * @return time the consumer waited for the next chunk to be read and decoded
+	 */
+	public long waitNanos() {
+		return waitNanos.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("chunks %d  read %,d ms  decode %,d ms  consumer waited %,d ms", chunks,
+				readNanos() / 1_000_000, decodeNanos() / 1_000_000, waitNanos() / 1_000_000);
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * a decoded chunk: the bytes up to and including its first {@code '\n'}, the
+	 * complete lines after that, and the bytes after its last {@code '\n'};
+	 * {@code lines == null} when the chunk has no {@code '\n'} at all
+	 */
+	private static final class Chunk {
+		final byte[] head;
+		final List<String> lines;
+		final byte[] tail;
+
+		Chunk(byte[] head, List<String> lines, byte[] tail) {
+			this.head = head;
+			this.lines = lines;
+			this.tail = tail;
+		}
+	}
+
+	/**
+	 * takes the chunks in file order and stitches the partial lines at their
+	 * edges
+	 */
+	private final class LineSpliterator extends Spliterators.AbstractSpliterator<String> {
+		private long nextToConsume;
+		/** bytes of a line that started in an earlier chunk */
+		private byte[] carry = new byte[0];
+		private List<String> lines = List.of();
+		private int line;
+
+		LineSpliterator() {
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super String> action) {
+			while (line == lines.size()) {
+				if (!nextChunk())
+					return false;
+			}
+			action.accept(lines.get(line++));
+			return true;
+		}
+
+		private boolean nextChunk() {
+			line = 0;
+			if (nextToConsume == chunks) {
+				if (carry.length == 0)
+					return false;
+				lines = new ArrayList<>(1);
+				splitLines(ByteBuffer.wrap(carry), 0, carry.length, charset, lines);
+				carry = new byte[0];
+				return true;
+			}
+			Chunk chunk = take(nextToConsume++);
+			if (nextToRead < chunks)
+				readNext(); // the slot of the chunk just taken is free again
+			byte[] joined = Arrays.copyOf(carry, carry.length + chunk.head.length);
+			System.arraycopy(chunk.head, 0, joined, carry.length, chunk.head.length);
+			if (chunk.lines == null) {
+				carry = joined;
+				lines = List.of();
+				return true;
+			}
+			List<String> stitched = new ArrayList<>(chunk.lines.size() + 1);
+			splitLines(ByteBuffer.wrap(joined), 0, joined.length, charset, stitched);
+			stitched.addAll(chunk.lines);
+			lines = stitched;
+			carry = chunk.tail;
+			return true;
+		}
+
+		private Chunk take(long index) {
+			CompletableFuture<Chunk> future = pending[(int) (index % pending.length)];
+			long start = System.nanoTime();
+			try {
+				return future.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw new UncheckedIOException((IOException) cause);
+				throw e;
+			} finally {
+				waitNanos.add(System.nanoTime() - start);
+			}
+		}
+	}
+}
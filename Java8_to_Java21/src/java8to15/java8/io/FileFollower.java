@@ -0,0 +1,269 @@
+package java8to15.java8.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * {@code tail -f} for line based files that keep growing (logs), reading only
+ * the bytes appended since the last run.
+ * <ul>
+ * <li>{@link #poll(Consumer)} reads from the last processed offset to the
+ * current end of the file and hands out the complete lines; a trailing line
+ * without its terminator yet is left for the next poll (so is one ending in a
+ * lone {@code \r}, until the next byte shows whether it is a {@code \r\n})</li>
+ * <li>after every poll that consumed lines the offset is written to the
+ * checkpoint file (write to a temp file, then an atomic move), a new
+ * {@code FileFollower} on the same checkpoint resumes from there. Lines are
+ * handed out before the checkpoint is saved, so a crash in between delivers
+ * them again (at-least-once).</li>
+ * <li>{@link #follow(Consumer)} blocks on a {@code WatchService} for the
+ * file's directory and polls when the file is created or modified; it also
+ * polls every {@code pollIntervalMillis} because some platforms only deliver
+ * watch events late</li>
+ * <li>if the file became shorter than the offset (truncated or replaced) it is
+ * read again from the beginning</li>
+ * </ul>
+ * The work per poll is proportional to the appended bytes, never to the file
+ * size. Not thread-safe apart from {@link #close()}, which can be called from
+ * another thread to end {@code follow}.
+ */
+public class FileFollower implements Closeable {
+
+	private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+	private final Path file;
+	private final Path checkpoint;
+	private final Charset charset;
+	private final long pollIntervalMillis;
+	private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+	private byte[] line = new byte[256];
+	private long offset;
+	private volatile WatchService watchService;
+	private volatile boolean closed;
+
+	public FileFollower(Path file, Path checkpoint) throws IOException {
+		this(file, checkpoint, StandardCharsets.UTF_8, 1000);
+	}
+
+	/**
+	 * @param checkpoint where the processed offset is kept, read now if it
+	 *                   exists
+	 */
+	public FileFollower(Path file, Path checkpoint, Charset charset, long pollIntervalMillis) throws IOException {
+		if (!charset.equals(StandardCharsets.UTF_8) && charset.newEncoder().maxBytesPerChar() != 1)
+			throw new IllegalArgumentException("only UTF-8 and single byte charsets are supported: " + charset);
+		if (pollIntervalMillis <= 0)
+			throw new IllegalArgumentException("pollIntervalMillis must be positive: " + pollIntervalMillis);
+		this.file = file.toAbsolutePath();
+		this.checkpoint = checkpoint;
+		this.charset = charset;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.offset = readCheckpoint(checkpoint);
+	}
+
+	private static long readCheckpoint(Path checkpoint) throws IOException {
+		if (!Files.exists(checkpoint))
+			return 0;
+		String content = Files.readString(checkpoint, StandardCharsets.US_ASCII).trim();
+		try {
+			long offset = Long.parseLong(content);
+			if (offset < 0)
+				throw new NumberFormatException();
+			return offset;
+		} catch (NumberFormatException e) {
+			throw new IOException("corrupt checkpoint \"" + content + "\": " + checkpoint);
+		}
+	}
+
+	/**
+	 * appends to a log from another thread while following it, then stops and
+	 * resumes from the checkpoint
+	 */
+	public static void main(String[] args) throws Exception {
+		Path log = Files.createTempFile("follow", ".log");
+		Path checkpoint = Files.createTempFile("follow", ".offset");
+		Files.delete(checkpoint);
+		try {
+			Thread appender = new Thread(() -> {
+				try {
+					for (int i = 0; i < 20; i++) {
+						Files.writeString(log, "line " + i + "\n", StandardOpenOption.APPEND);
+						Thread.sleep(100);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			// closed by the stopper thread to end follow(), and again (a no-op then) in the finally
+			FileFollower firstRun = new FileFollower(log, checkpoint, StandardCharsets.UTF_8, 200);
+			try {
+				appender.start();
+				Thread stopper = new Thread(() -> {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					firstRun.close();
+				});
+				stopper.start();
+				firstRun.follow(line -> System.out.println("first run : " + line)); // about 10 lines
+			} finally {
+				firstRun.close();
+			}
+			appender.join();
+
+			try (FileFollower follower = new FileFollower(log, checkpoint)) {
+				System.out.println("resuming at byte " + follower.offset());
+				follower.poll(line -> System.out.println("second run : " + line)); // the rest, none repeated
+			}
+		} finally {
+			Files.deleteIfExists(log);
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+
+	/**
+	 * @return the offset right after the last line handed out
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	/**
+	 * hands out the complete lines appended since the last poll and saves the
+	 * checkpoint
+	 *
+	 * @return the number of lines handed out
+	 */
+	public int poll(Consumer<? super String> lines) throws IOException {
+		if (closed)
+			throw new IllegalStateException("follower is closed");
+		int count = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < offset) // truncated or replaced
+				offset = 0;
+			long position = offset;
+			int lineLength = 0;
+			boolean afterCarriageReturn = false; // the line is done, but the \n of a \r\n may follow
+			while (position < size) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0)
+					break;
+				for (int i = 0; i < read; i++) {
+					byte b = buffer.get(i);
+					if (afterCarriageReturn) {
+						afterCarriageReturn = false;
+						lines.accept(new String(line, 0, lineLength, charset));
+						count++;
+						lineLength = 0;
+						offset = position + i;
+						if (b == '\n') {
+							offset++;
+							continue;
+						}
+					}
+					if (b == '\n') {
+						lines.accept(new String(line, 0, lineLength, charset));
+						count++;
+						lineLength = 0;
+						offset = position + i + 1;
+					} else if (b == '\r') {
+						afterCarriageReturn = true;
+					} else {
+						if (lineLength == line.length)
+							line = Arrays.copyOf(line, line.length * 2);
+						line[lineLength++] = b;
+					}
+				}
+				position += read;
+			}
+			// a partial line, or one ending in \r, is read again by the next poll
+		} catch (NoSuchFileException e) {
+			return 0; // not created yet, or being rotated
+		}
+		if (count > 0)
+			saveCheckpoint();
+		return count;
+	}
+
+	private void saveCheckpoint() throws IOException {
+		Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+		Files.writeString(temp, Long.toString(offset), StandardCharsets.US_ASCII);
+		try {
+			Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * polls now and then every time the file changes, until {@link #close()} is
+	 * called (from another thread, or from the line consumer) or the thread is
+	 * interrupted
+	 */
+	public void follow(Consumer<? super String> lines) throws IOException {
+		try (WatchService watchService = file.getFileSystem().newWatchService()) {
+			this.watchService = watchService;
+			file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			if (closed)
+				return;
+			poll(lines);
+			while (!closed && !Thread.currentThread().isInterrupted()) {
+				WatchKey key = watchService.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					key.pollEvents(); // only a wake up call, polling an unchanged file costs one size() call
+					key.reset();
+				}
+				if (!closed)
+					poll(lines);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed from another thread
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			watchService = null;
+		}
+	}
+
+	/**
+	 * ends {@link #follow(Consumer)}; the last checkpoint stays on disk
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		WatchService current = watchService;
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
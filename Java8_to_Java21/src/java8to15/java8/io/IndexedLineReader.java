@@ -0,0 +1,204 @@
+package java8to15.java8.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Random access to the lines of a text file through its {@link LineIndex}.
+ * <ul>
+ * <li>{@link #line(long)} seeks straight to line N, one positional read</li>
+ * <li>{@link #lines(long, long)} streams a range of lines; the spliterator
+ * knows its exact size and splits at the middle line number, so a
+ * {@code parallel()} range is cut into equal line counts without scanning for
+ * newlines</li>
+ * <li>{@link #refresh()} extends the index (and its sidecar) after the file
+ * grew, lines appended later are not visible before that</li>
+ * </ul>
+ * Lines are returned without their terminator. Reading can be shared by
+ * threads, {@code refresh()} must not run at the same time.
+ */
+public class IndexedLineReader implements Closeable {
+
+	private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final Charset charset;
+	private final LineIndex index;
+
+	private IndexedLineReader(Path file, FileChannel channel, Charset charset, LineIndex index) {
+		this.file = file;
+		this.channel = channel;
+		this.charset = charset;
+		this.index = index;
+	}
+
+	/**
+	 * opens the file with its sidecar index, see {@link LineIndex#open(Path)}
+	 */
+	public static IndexedLineReader open(Path file) throws IOException {
+		return open(file, StandardCharsets.UTF_8);
+	}
+
+	public static IndexedLineReader open(Path file, Charset charset) throws IOException {
+		if (!charset.equals(StandardCharsets.UTF_8) && charset.newEncoder().maxBytesPerChar() != 1)
+			throw new IllegalArgumentException("only UTF-8 and single byte charsets are supported: " + charset);
+		LineIndex index = LineIndex.open(file);
+		return new IndexedLineReader(file, FileChannel.open(file, StandardOpenOption.READ), charset, index);
+	}
+
+	public long lineCount() {
+		return index.lineCount();
+	}
+
+	public LineIndex index() {
+		return index;
+	}
+
+	/**
+	 * picks up lines appended since the reader was opened and saves the sidecar
+	 *
+	 * @return {@code true} if the index changed
+	 */
+	public boolean refresh() throws IOException {
+		boolean changed = index.update(channel);
+		if (changed)
+			index.save(LineIndex.sidecarOf(file));
+		return changed;
+	}
+
+	/**
+	 * @return line N (0 based), without its terminator
+	 */
+	public String line(long line) {
+		long start = index.lineStart(line);
+		long end = index.lineEnd(line);
+		if (end - start > Integer.MAX_VALUE)
+			throw new IllegalStateException("line " + line + " is too long for a String");
+		ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+		read(buffer, start);
+		return decode(buffer.array(), 0, buffer.capacity());
+	}
+
+	/**
+	 * @return lines {@code from} (inclusive) to {@code to} (exclusive), in file
+	 *         order, {@code SIZED} and evenly splittable by line number
+	 */
+	public Stream<String> lines(long from, long to) {
+		if (from < 0 || to > lineCount() || from > to)
+			throw new IndexOutOfBoundsException("lines " + from + ".." + to + " out of bounds for " + lineCount());
+		return StreamSupport.stream(new RangeSpliterator(index, from, to), false);
+	}
+
+	public Stream<String> lines() {
+		return lines(0, lineCount());
+	}
+
+	private void read(ByteBuffer buffer, long position) {
+		try {
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, position + buffer.position()) < 0)
+					throw new IOException("unexpected end of file at " + (position + buffer.position()) + ": " + file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * drops the \n, \r\n or \r at the end
+	 */
+	private String decode(byte[] bytes, int offset, int length) {
+		if (length > 0 && bytes[offset + length - 1] == '\n')
+			length--;
+		if (length > 0 && bytes[offset + length - 1] == '\r')
+			length--;
+		return new String(bytes, offset, length, charset);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * reads its lines through a window of up to {@value #READ_BUFFER_BYTES}
+	 * bytes (more for a longer line)
+	 */
+	private final class RangeSpliterator implements Spliterator<String> {
+		private final LineIndex index;
+		private long line;
+		private final long end;
+		private byte[] window = new byte[0];
+		private long windowStart;
+		private int windowLength;
+
+		RangeSpliterator(LineIndex index, long line, long end) {
+			this.index = index;
+			this.line = line;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super String> action) {
+			if (line >= end)
+				return false;
+			long start = index.lineStart(line);
+			long lineEnd = index.lineEnd(line);
+			line++;
+			if (start < windowStart || lineEnd > windowStart + windowLength)
+				fill(start, lineEnd);
+			action.accept(decode(window, (int) (start - windowStart), (int) (lineEnd - start)));
+			return true;
+		}
+
+		/**
+		 * reads from the line start up to the end of the range (at most the
+		 * buffer size, at least the whole line)
+		 */
+		private void fill(long start, long lineEnd) {
+			long rangeEnd = (end == index.lineCount()) ? index.indexedBytes() : index.lineStart(end);
+			long wanted = Math.max(lineEnd - start, Math.min(READ_BUFFER_BYTES, rangeEnd - start));
+			if (wanted > Integer.MAX_VALUE)
+				throw new IllegalStateException("line at " + start + " is too long for a String");
+			if (window.length < wanted)
+				window = new byte[(int) Math.max(wanted, Math.min(READ_BUFFER_BYTES, rangeEnd - start))];
+			ByteBuffer buffer = ByteBuffer.wrap(window, 0, (int) wanted);
+			read(buffer, start);
+			windowStart = start;
+			windowLength = (int) wanted;
+		}
+
+		@Override
+		public Spliterator<String> trySplit() {
+			long middle = (line + end) >>> 1;
+			if (middle <= line)
+				return null;
+			RangeSpliterator prefix = new RangeSpliterator(index, line, middle);
+			line = middle;
+			windowLength = 0;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - line;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED
+					| Spliterator.IMMUTABLE;
+		}
+	}
+}
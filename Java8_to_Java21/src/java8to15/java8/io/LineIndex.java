@@ -0,0 +1,434 @@
+package java8to15.java8.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.CRC32;
+
+/**
+ * Start offsets of the lines of a text file, kept compact enough to live in
+ * memory and in a sidecar file next to it ({@code <file>.lidx}).
+ * <ul>
+ * <li>lines are grouped in blocks of {@value #BLOCK_LINES}; a block stores the
+ * absolute offset of its first line and the gaps to the following lines as
+ * varints (1 byte for lines shorter than 128 bytes, 2 up to 16 KB), so
+ * {@link #lineStart(long)} decodes at most 63 varints: O(1) whatever the file
+ * size</li>
+ * <li>{@link #build(FileChannel)} scans the file in chunks of
+ * {@value #SCAN_CHUNK_BYTES} bytes on a parallel stream, a line starts after
+ * {@code \n}, {@code \r\n} or a lone {@code \r}</li>
+ * <li>the index remembers how many bytes it covers and a CRC32 of the last
+ * {@value #FINGERPRINT_BYTES} of them; {@link #update(FileChannel)} only scans
+ * the appended bytes when the file grew, and starts over when the file was
+ * truncated or those last covered bytes changed. A rewrite of earlier bytes
+ * that keeps the size and the tail is not noticed (the offsets are then stale),
+ * the index is meant for append-only files like logs</li>
+ * </ul>
+ * Not thread-safe while it is being extended, read-only use can be shared.
+ */
+public final class LineIndex {
+
+	static final int MAGIC = 0x4C494458; // "LIDX"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 44;
+	static final int BLOCK_SHIFT = 6;
+	static final int BLOCK_LINES = 1 << BLOCK_SHIFT;
+	static final int SCAN_CHUNK_BYTES = 4 * 1024 * 1024;
+	static final int FINGERPRINT_BYTES = 4096;
+
+	private long indexedBytes;
+	private long fingerprint;
+	private long lineCount;
+	private long lastStart;
+	private long[] blockBase = new long[16];
+	private int[] blockData = new int[16];
+	private byte[] data = new byte[256];
+	private int dataLength;
+
+	private LineIndex() {
+	}
+
+	/**
+	 * @return where {@link #open(Path)} keeps the index of {@code file}
+	 */
+	public static Path sidecarOf(Path file) {
+		return file.resolveSibling(file.getFileName() + ".lidx");
+	}
+
+	/**
+	 * @return the index of {@code file}, loaded from its sidecar when that is
+	 *         still valid, extended when the file grew, rebuilt otherwise; the
+	 *         sidecar is rewritten whenever the index changed
+	 */
+	public static LineIndex open(Path file) throws IOException {
+		Path sidecar = sidecarOf(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			LineIndex index = null;
+			if (Files.exists(sidecar)) {
+				try {
+					index = load(sidecar);
+				} catch (IOException e) {
+					index = null; // unreadable, build a new one
+				}
+			}
+			if (index == null) {
+				index = build(channel);
+				index.save(sidecar);
+			} else if (index.update(channel)) {
+				index.save(sidecar);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * scans the whole file, in parallel chunks
+	 */
+	public static LineIndex build(FileChannel channel) throws IOException {
+		LineIndex index = new LineIndex();
+		long size = channel.size();
+		index.append(channel, 0, size);
+		index.indexedBytes = size;
+		index.fingerprint = fingerprint(channel, size);
+		return index;
+	}
+
+	/**
+	 * brings the index up to date with the file: scans what was appended, or
+	 * rebuilds if the file shrank or the fingerprinted tail of the covered bytes
+	 * changed; other in-place rewrites go unnoticed
+	 *
+	 * @return {@code true} if the index changed
+	 */
+	public boolean update(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size == indexedBytes && fingerprint(channel, size) == fingerprint)
+			return false;
+		if (size < indexedBytes || fingerprint(channel, indexedBytes) != fingerprint) {
+			LineIndex rebuilt = build(channel);
+			copyFrom(rebuilt);
+			return true;
+		}
+		append(channel, indexedBytes, size);
+		indexedBytes = size;
+		fingerprint = fingerprint(channel, size);
+		return true;
+	}
+
+	private void copyFrom(LineIndex other) {
+		indexedBytes = other.indexedBytes;
+		fingerprint = other.fingerprint;
+		lineCount = other.lineCount;
+		lastStart = other.lastStart;
+		blockBase = other.blockBase;
+		blockData = other.blockData;
+		data = other.data;
+		dataLength = other.dataLength;
+	}
+
+	/**
+	 * CRC32 of the last {@value #FINGERPRINT_BYTES} bytes before {@code end}
+	 */
+	static long fingerprint(FileChannel channel, long end) throws IOException {
+		int length = (int) Math.min(FINGERPRINT_BYTES, end);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(channel, buffer, end - length);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.flip());
+		return crc.getValue();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("unexpected end of file at " + (position + buffer.position()));
+	}
+
+	/**
+	 * appends the line starts in [from, to), scanning chunks in parallel and
+	 * adding their results in file order
+	 */
+	private void append(FileChannel channel, long from, long to) throws IOException {
+		long chunks = (to - from + SCAN_CHUNK_BYTES - 1) / SCAN_CHUNK_BYTES;
+		List<long[]> starts;
+		try {
+			starts = LongStream.range(0, chunks).parallel().mapToObj(chunk -> {
+				long chunkFrom = from + chunk * SCAN_CHUNK_BYTES;
+				return scan(channel, chunkFrom, Math.min(to, chunkFrom + SCAN_CHUNK_BYTES));
+			}).collect(Collectors.toList());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		for (long[] chunk : starts)
+			for (long start : chunk)
+				append(start);
+	}
+
+	/**
+	 * @return the positions p in [from, to) where a line starts: p == 0, after a
+	 *         {@code \n}, or after a {@code \r} not followed by {@code \n}
+	 */
+	static long[] scan(FileChannel channel, long from, long to) {
+		long readFrom = Math.max(0, from - 1);
+		byte[] bytes = new byte[(int) (to - readFrom)];
+		try {
+			readFully(channel, ByteBuffer.wrap(bytes), readFrom);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		long[] starts = new long[64];
+		int count = 0;
+		if (from == 0)
+			starts[count++] = 0;
+		int first = (int) (Math.max(from, 1) - readFrom);
+		for (int i = first; i < bytes.length; i++) {
+			byte previous = bytes[i - 1];
+			if (previous == '\n' || (previous == '\r' && bytes[i] != '\n')) {
+				if (count == starts.length)
+					starts = Arrays.copyOf(starts, count * 2);
+				starts[count++] = readFrom + i;
+			}
+		}
+		return Arrays.copyOf(starts, count);
+	}
+
+	private void append(long start) {
+		if ((lineCount & (BLOCK_LINES - 1)) == 0) {
+			int block = (int) (lineCount >>> BLOCK_SHIFT);
+			if (block == blockBase.length) {
+				blockBase = Arrays.copyOf(blockBase, block * 2);
+				blockData = Arrays.copyOf(blockData, block * 2);
+			}
+			blockBase[block] = start;
+			blockData[block] = dataLength;
+		} else {
+			writeVarint(start - lastStart);
+		}
+		lastStart = start;
+		lineCount++;
+	}
+
+	private void writeVarint(long value) {
+		if (data.length - dataLength < 10) {
+			if (data.length > Integer.MAX_VALUE / 2 - 10)
+				throw new IllegalStateException("index too large");
+			data = Arrays.copyOf(data, data.length * 2);
+		}
+		while ((value & ~0x7FL) != 0) {
+			data[dataLength++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data[dataLength++] = (byte) value;
+	}
+
+	/**
+	 * builds (or refreshes) the index of a generated file, then reads a few
+	 * lines through it
+	 *
+	 * {@code java java8to15.java8.io.LineIndex [megabytes]} (default 256)
+	 */
+	public static void main(String[] args) throws IOException {
+		int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+		checkAgainstReadAllLines();
+		Path file = Files.createTempFile("lines", ".txt");
+		try {
+			MappedLineReader.writeSampleFile(file, megabytes * 1024L * 1024L);
+			long start = System.nanoTime();
+			LineIndex index = LineIndex.open(file);
+			System.out.printf("indexed %,d lines in %d ms, sidecar %,d bytes for a %,d byte file%n", index.lineCount(),
+					(System.nanoTime() - start) / 1_000_000, Files.size(sidecarOf(file)), Files.size(file));
+
+			Files.writeString(file, "appended line\n", StandardOpenOption.APPEND);
+			start = System.nanoTime();
+			index = LineIndex.open(file);
+			System.out.printf("reopened after an append in %d ms, %,d lines%n", (System.nanoTime() - start) / 1_000_000,
+					index.lineCount());
+
+			try (IndexedLineReader reader = IndexedLineReader.open(file)) {
+				long middle = reader.lineCount() / 2;
+				long to = Math.min(middle + 1_000_000, reader.lineCount());
+				System.out.println(reader.line(middle));
+				System.out.println(reader.line(reader.lineCount() - 1)); // appended line
+				System.out.println(reader.lines(middle, to).parallel()
+						.filter(line -> line.contains("ERROR")).count());
+			}
+		} finally {
+			Files.deleteIfExists(sidecarOf(file));
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * random files with every kind of terminator, empty lines, lines that need
+	 * 1, 2 and 3 byte varints and no newline at the end, appended to a few
+	 * times: every line must be the one {@code Files.readAllLines} sees, and
+	 * the extended index the same as a fresh build and as its sidecar
+	 */
+	private static void checkAgainstReadAllLines() throws IOException {
+		Random random = new Random(42);
+		String[] terminators = { "\n", "\r\n", "\r" };
+		for (int round = 0; round < 20; round++) {
+			Path file = Files.createTempFile("lines", ".txt");
+			try {
+				Files.writeString(file, "");
+				try (IndexedLineReader reader = IndexedLineReader.open(file)) {
+					for (int append = 0; append < 4; append++) {
+						StringBuilder text = new StringBuilder();
+						for (int line = random.nextInt(300); line > 0; line--) {
+							int length = (random.nextInt(10) == 0) ? 0
+									: (random.nextInt(50) == 0) ? 16_384 + random.nextInt(5_000)
+											: (random.nextInt(5) == 0) ? 128 + random.nextInt(1_000)
+													: random.nextInt(128);
+							for (int i = 0; i < length; i++)
+								text.append((char) ('a' + random.nextInt(26)));
+							if (line > 1 || random.nextBoolean())
+								text.append(terminators[random.nextInt(terminators.length)]);
+						}
+						Files.writeString(file, text, StandardOpenOption.APPEND);
+						reader.refresh();
+						checkSame(file, reader);
+					}
+				}
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+					LineIndex built = build(channel);
+					LineIndex extended = LineIndex.open(file);
+					LineIndex loaded = load(sidecarOf(file));
+					for (LineIndex index : List.of(extended, loaded)) {
+						if (index.lineCount() != built.lineCount() || index.indexedBytes() != built.indexedBytes())
+							throw new AssertionError("extended or loaded index differs from a fresh build of " + file);
+						for (long line = 0; line < built.lineCount(); line++)
+							if (index.lineStart(line) != built.lineStart(line))
+								throw new AssertionError("line " + line + " starts elsewhere than in a fresh build");
+					}
+				}
+			} finally {
+				Files.deleteIfExists(sidecarOf(file));
+				Files.deleteIfExists(file);
+			}
+		}
+		System.out.println("line index: same lines as Files.readAllLines");
+	}
+
+	private static void checkSame(Path file, IndexedLineReader reader) throws IOException {
+		List<String> expected = Files.readAllLines(file);
+		if (reader.lineCount() != expected.size())
+			throw new AssertionError(reader.lineCount() + " lines indexed, Files.readAllLines has " + expected.size());
+		for (int line = 0; line < expected.size(); line++)
+			if (!reader.line(line).equals(expected.get(line)))
+				throw new AssertionError("line " + line + " differs from Files.readAllLines");
+		int from = expected.size() / 3;
+		if (!reader.lines(from, expected.size()).parallel().collect(Collectors.toList())
+				.equals(expected.subList(from, expected.size())))
+			throw new AssertionError("parallel lines(" + from + ", " + expected.size() + ") differ");
+	}
+
+	public long lineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return the number of bytes of the file this index covers
+	 */
+	public long indexedBytes() {
+		return indexedBytes;
+	}
+
+	/**
+	 * @return the offset of the first byte of the line
+	 */
+	public long lineStart(long line) {
+		if (line < 0 || line >= lineCount)
+			throw new IndexOutOfBoundsException("line " + line + " out of bounds for " + lineCount + " lines");
+		int block = (int) (line >>> BLOCK_SHIFT);
+		long start = blockBase[block];
+		int position = blockData[block];
+		for (int i = (int) (line & (BLOCK_LINES - 1)); i > 0; i--) {
+			long delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[position++];
+				delta |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			start += delta;
+		}
+		return start;
+	}
+
+	/**
+	 * @return the offset right after the line including its terminator, i.e.
+	 *         the start of the next line or {@link #indexedBytes()}
+	 */
+	public long lineEnd(long line) {
+		return (line + 1 == lineCount) ? indexedBytes : lineStart(line + 1);
+	}
+
+	/**
+	 * file: magic | version | indexed bytes | fingerprint | line count | last
+	 * start | block count | block bases (long) | block data positions (int) |
+	 * data length | varint data
+	 */
+	public void save(Path sidecar) throws IOException {
+		int blocks = (int) ((lineCount + BLOCK_LINES - 1) >>> BLOCK_SHIFT);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + blocks * (Long.BYTES + Integer.BYTES) + Integer.BYTES);
+		header.putInt(MAGIC).putInt(VERSION).putLong(indexedBytes).putLong(fingerprint).putLong(lineCount)
+				.putLong(lastStart).putInt(blocks);
+		for (int block = 0; block < blocks; block++)
+			header.putLong(blockBase[block]);
+		for (int block = 0; block < blocks; block++)
+			header.putInt(blockData[block]);
+		header.putInt(dataLength).flip();
+		Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer body = ByteBuffer.wrap(data, 0, dataLength);
+			while (header.hasRemaining() || body.hasRemaining())
+				out.write(new ByteBuffer[] { header, body });
+		}
+		Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public static LineIndex load(Path sidecar) throws IOException {
+		try (FileChannel in = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			readFully(in, header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("not a line index: " + sidecar);
+			LineIndex index = new LineIndex();
+			index.indexedBytes = header.getLong();
+			index.fingerprint = header.getLong();
+			index.lineCount = header.getLong();
+			index.lastStart = header.getLong();
+			int blocks = header.getInt();
+			if (blocks < 0 || blocks != (index.lineCount + BLOCK_LINES - 1) >>> BLOCK_SHIFT)
+				throw new IOException("corrupt line index: " + sidecar);
+			ByteBuffer tables = ByteBuffer.allocate(blocks * (Long.BYTES + Integer.BYTES) + Integer.BYTES);
+			readFully(in, tables, HEADER_BYTES);
+			tables.flip();
+			index.blockBase = new long[Math.max(16, blocks)];
+			index.blockData = new int[Math.max(16, blocks)];
+			for (int block = 0; block < blocks; block++)
+				index.blockBase[block] = tables.getLong();
+			for (int block = 0; block < blocks; block++)
+				index.blockData[block] = tables.getInt();
+			index.dataLength = tables.getInt();
+			if (index.dataLength < 0 || index.dataLength > in.size() - HEADER_BYTES - tables.capacity())
+				throw new IOException("corrupt line index: " + sidecar);
+			index.data = new byte[Math.max(256, index.dataLength)];
+			readFully(in, ByteBuffer.wrap(index.data, 0, index.dataLength), (long) HEADER_BYTES + tables.capacity());
+			return index;
+		}
+	}
+}
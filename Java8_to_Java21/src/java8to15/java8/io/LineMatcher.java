@@ -0,0 +1,113 @@
+package java8to15.java8.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A line filter that runs on the raw UTF-8 bytes of a line, before (and
+ * instead of) decoding it into a {@code String}, see
+ * {@link MappedLineReader#lines(LineMatcher)}.
+ * <ul>
+ * <li>UTF-8 never encodes one character as a part of another, so a valid
+ * UTF-8 needle found among the bytes of a valid UTF-8 line is exactly where
+ * {@code String.contains()} would have found it</li>
+ * <li>{@link #contains(String)} looks for the first byte of the needle with a
+ * plain loop and only compares the rest on a hit</li>
+ * <li>{@link #containsIgnoreCase(String)} has an ASCII fast path: an ASCII
+ * needle is matched by folding bytes, a needle with other characters falls back
+ * to decoding the line</li>
+ * </ul>
+ * The matchers are stateless and can be used from many threads.
+ */
+@FunctionalInterface
+public interface LineMatcher {
+
+	/**
+	 * @param buffer read with absolute gets only
+	 * @param from   first byte of the line
+	 * @param to     end of the line, without its terminator
+	 */
+	boolean matches(ByteBuffer buffer, int from, int to);
+
+	default LineMatcher and(LineMatcher other) {
+		return (buffer, from, to) -> matches(buffer, from, to) && other.matches(buffer, from, to);
+	}
+
+	default LineMatcher or(LineMatcher other) {
+		return (buffer, from, to) -> matches(buffer, from, to) || other.matches(buffer, from, to);
+	}
+
+	default LineMatcher negate() {
+		return (buffer, from, to) -> !matches(buffer, from, to);
+	}
+
+	static LineMatcher all() {
+		return (buffer, from, to) -> true;
+	}
+
+	static LineMatcher startsWith(String prefix) {
+		byte[] needle = prefix.getBytes(StandardCharsets.UTF_8);
+		return (buffer, from, to) -> to - from >= needle.length && regionMatches(buffer, from, needle);
+	}
+
+	static LineMatcher endsWith(String suffix) {
+		byte[] needle = suffix.getBytes(StandardCharsets.UTF_8);
+		return (buffer, from, to) -> to - from >= needle.length && regionMatches(buffer, to - needle.length, needle);
+	}
+
+	static LineMatcher contains(String part) {
+		byte[] needle = part.getBytes(StandardCharsets.UTF_8);
+		if (needle.length == 0)
+			return all();
+		byte first = needle[0];
+		return (buffer, from, to) -> {
+			for (int last = to - needle.length, i = from; i <= last; i++)
+				if (buffer.get(i) == first && regionMatches(buffer, i, needle))
+					return true;
+			return false;
+		};
+	}
+
+	/**
+	 * ASCII case folding on the bytes when {@code part} is ASCII, otherwise the
+	 * line is decoded and compared with {@code String.regionMatches(true, ...)}
+	 */
+	static LineMatcher containsIgnoreCase(String part) {
+		if (!part.chars().allMatch(c -> c < 0x80)) {
+			return (buffer, from, to) -> {
+				byte[] bytes = new byte[to - from];
+				buffer.get(from, bytes);
+				String line = new String(bytes, StandardCharsets.UTF_8);
+				for (int i = 0; i + part.length() <= line.length(); i++)
+					if (line.regionMatches(true, i, part, 0, part.length()))
+						return true;
+				return false;
+			};
+		}
+		byte[] needle = part.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+		if (needle.length == 0)
+			return all();
+		return (buffer, from, to) -> {
+			for (int last = to - needle.length, i = from; i <= last; i++) {
+				int j = 0;
+				while (j < needle.length && toLowerAscii(buffer.get(i + j)) == needle[j])
+					j++;
+				if (j == needle.length)
+					return true;
+			}
+			return false;
+		};
+	}
+
+	private static byte toLowerAscii(byte b) {
+		return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	private static boolean regionMatches(ByteBuffer buffer, int position, byte[] needle) {
+		for (int i = 0; i < needle.length; i++)
+			if (buffer.get(position + i) != needle[i])
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,418 @@
+package java8to15.java8.io;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import java8.utility.BufferGuard;
+import java8.utility.DirectBuffers;
+
+/**
+ * Lines of a (possibly multi-GB) file read through memory mapped buffers,
+ * a replacement for {@code Files.lines(path)} when the stream is going to be
+ * {@code parallel()}.
+ * <ul>
+ * <li>{@code Files.lines()} reads through one {@code BufferedReader}, its
+ * spliterator can only hand out batches copied off that reader, so parallel
+ * pipelines mostly wait on one thread</li>
+ * <li>here the file is mapped in regions of up to 1 GiB that end right after a
+ * {@code '\n'}, and the spliterator splits a region at the first
+ * {@code '\n'} after its midpoint, so every split is a newline aligned chunk
+ * that is decoded by the thread that got it</li>
+ * <li>line terminators are {@code \n}, {@code \r\n} and {@code \r}, the same
+ * as {@code BufferedReader.readLine()}</li>
+ * </ul>
+ * Only charsets where {@code '\n'} and {@code '\r'} can not be part of another
+ * character are supported (UTF-8 and the single byte ones). Closing the reader
+ * unmaps the file right away when no line is being read, otherwise as soon as
+ * the lines being read on other threads are done (through a
+ * {@link BufferGuard}), so use it in a try-with-resources around the whole
+ * pipeline: a stream read after {@code close()} gets an
+ * {@code IllegalStateException} at its next line, it never reads unmapped
+ * memory.
+ */
+public class MappedLineReader implements Closeable {
+
+	static final long MAX_REGION_BYTES = 1L << 30;
+
+	private final MappedByteBuffer[] regions;
+	private final Charset charset;
+	private final BufferGuard guard;
+
+	private MappedLineReader(MappedByteBuffer[] regions, Charset charset) {
+		this.regions = regions;
+		this.charset = charset;
+		this.guard = new BufferGuard(() -> {
+			for (MappedByteBuffer region : regions)
+				DirectBuffers.free(region);
+		}, "reader");
+	}
+
+	public static MappedLineReader open(Path path) throws IOException {
+		return open(path, StandardCharsets.UTF_8);
+	}
+
+	public static MappedLineReader open(Path path, Charset charset) throws IOException {
+		if (!charset.equals(StandardCharsets.UTF_8) && charset.newEncoder().maxBytesPerChar() != 1)
+			throw new IllegalArgumentException("only UTF-8 and single byte charsets are supported: " + charset);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			List<MappedByteBuffer> regions = new ArrayList<>();
+			long start = 0;
+			while (start < size) {
+				long end = (size - start <= MAX_REGION_BYTES) ? size
+						: endOfLine(channel, start + MAX_REGION_BYTES - 1, size);
+				if (end - start > Integer.MAX_VALUE)
+					throw new IOException("line at " + start + " is too long to map: " + path);
+				regions.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+				start = end;
+			}
+			return new MappedLineReader(regions.toArray(new MappedByteBuffer[0]), charset);
+		}
+	}
+
+	/**
+	 * @return the position right after the first {@code '\n'} at or after
+	 *         {@code from}, or {@code size}
+	 */
+	static long endOfLine(FileChannel channel, long from, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long position = from;
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * throughput of the {@code Streams.readFilesUsingStreams()} approach
+	 * ({@code Files.lines} into a {@code LinkedList}) against this reader, on a
+	 * generated file
+	 *
+	 * {@code java java8to15.java8.io.MappedLineReader [megabytes]} (default 256)
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+		Path file = Files.createTempFile("lines", ".txt");
+		try {
+			long bytes = writeSampleFile(file, megabytes * 1024L * 1024L);
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				List<String> linkedList = new LinkedList<>();
+				try (Stream<String> lines = Files.lines(file)) {
+					lines.forEach(linkedList::add);
+				}
+				long filesLines = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				long sequentialCount;
+				try (MappedLineReader reader = MappedLineReader.open(file)) {
+					sequentialCount = reader.lines().filter(line -> line.contains("ERROR")).count();
+				}
+				long sequential = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				long parallelCount;
+				try (MappedLineReader reader = MappedLineReader.open(file)) {
+					parallelCount = reader.lines().parallel().filter(line -> line.contains("ERROR")).count();
+				}
+				long parallel = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				long byteFilterCount;
+				try (MappedLineReader reader = MappedLineReader.open(file)) {
+					byteFilterCount = reader.lines(LineMatcher.contains("ERROR")).count(); // only matches are decoded
+				}
+				long byteFilter = System.nanoTime() - start;
+
+				System.out.printf(
+						"%,d lines  Files.lines+LinkedList: %7.1f MB/s  mapped: %7.1f MB/s  mapped parallel: %7.1f MB/s"
+								+ "  mapped byte filter: %7.1f MB/s  (%d, %d, %d)%n",
+						linkedList.size(), throughput(bytes, filesLines), throughput(bytes, sequential),
+						throughput(bytes, parallel), throughput(bytes, byteFilter), sequentialCount, parallelCount,
+						byteFilterCount);
+			}
+
+			// a stream that outlives the reader fails instead of reading the unmapped file
+			Stream<String> late;
+			try (MappedLineReader reader = MappedLineReader.open(file)) {
+				late = reader.lines();
+			}
+			try {
+				late.forEach(element -> {
+				});
+				throw new AssertionError("a stream read after close() must fail");
+			} catch (IllegalStateException expected) {
+				System.out.println("stream read after close(): " + expected.getMessage());
+			}
+
+			// closed while a parallel stream runs: it finishes or fails, it never reads the unmapped file
+			MappedLineReader shared = MappedLineReader.open(file);
+			Thread reader = new Thread(() -> {
+				try {
+					while (true)
+						shared.lines().parallel().filter(line -> line.contains("ERROR")).count();
+				} catch (IllegalStateException expected) {
+					System.out.println("stream running during close(): " + expected.getMessage());
+				}
+			});
+			reader.start();
+			Thread.sleep(200);
+			shared.close();
+			reader.join();
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	static long writeSampleFile(Path file, long targetBytes) throws IOException {
+		long written = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+			for (long i = 0; written < targetBytes; i++) {
+				String line = "2024-01-01T00:00:00." + (i % 1000) + " " + ((i % 17 == 0) ? "ERROR" : "INFO")
+						+ " request " + i + " served in " + (i % 250) + " ms";
+				writer.write(line);
+				writer.write('\n');
+				written += line.length() + 1;
+			}
+		}
+		return written;
+	}
+
+	static double throughput(long bytes, long nanos) {
+		return (bytes / (1024.0 * 1024.0)) / (nanos / 1_000_000_000.0);
+	}
+
+	/**
+	 * @return the lines in file order, newline aligned chunks are decoded in
+	 *         parallel when the stream is {@code parallel()}
+	 */
+	public Stream<String> lines() {
+		return lines(null);
+	}
+
+	/**
+	 * @return the lines the matcher accepts, tested on their raw bytes; the
+	 *         other lines are never decoded ({@link LineMatcher}s encode their
+	 *         needle as UTF-8, with a single byte charset stick to ASCII
+	 *         needles)
+	 */
+	public Stream<String> lines(LineMatcher matcher) {
+		if (!guard.isOpen())
+			throw new IllegalStateException("reader is closed");
+		return StreamSupport.stream(new RegionsSpliterator(0, regions.length, matcher), false);
+	}
+
+	/**
+	 * unmaps the file, now or once the lines being read are done
+	 */
+	@Override
+	public void close() {
+		guard.close();
+	}
+
+	/**
+	 * splits by whole regions first, then delegates to the region being read
+	 */
+	private final class RegionsSpliterator implements Spliterator<String> {
+		private int region;
+		private final int endRegion;
+		private final LineMatcher matcher;
+		private LineSpliterator current;
+
+		RegionsSpliterator(int region, int endRegion, LineMatcher matcher) {
+			this.region = region;
+			this.endRegion = endRegion;
+			this.matcher = matcher;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super String> action) {
+			while (true) {
+				if (current != null && current.tryAdvance(action))
+					return true;
+				if (region >= endRegion)
+					return false;
+				current = new LineSpliterator(regions[region++], charset, matcher);
+			}
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super String> action) {
+			while (true) {
+				if (current != null)
+					current.forEachRemaining(action);
+				if (region >= endRegion)
+					return;
+				current = new LineSpliterator(regions[region++], charset, matcher);
+			}
+		}
+
+		@Override
+		public Spliterator<String> trySplit() {
+			if (current != null && region < endRegion) { // the started region goes first
+				Spliterator<String> prefix = current;
+				current = null;
+				return prefix;
+			}
+			if (current == null && endRegion - region > 1) {
+				int middle = (region + endRegion) >>> 1;
+				RegionsSpliterator prefix = new RegionsSpliterator(region, middle, matcher);
+				region = middle;
+				return prefix;
+			}
+			if (current == null && endRegion - region == 1)
+				current = new LineSpliterator(regions[region++], charset, matcher);
+			return (current == null) ? null : current.trySplit();
+		}
+
+		@Override
+		public long estimateSize() {
+			long size = (current == null) ? 0 : current.estimateSize();
+			for (int i = region; i < endRegion; i++)
+				size += regions[i].capacity() / LineSpliterator.ESTIMATED_LINE_BYTES;
+			return size;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		}
+	}
+
+	/**
+	 * lines of [position, end) of one mapped region, the range always starts at
+	 * the beginning of a line; lines the matcher (if any) rejects are skipped
+	 * without decoding. Every line is read inside the reader's guard, the region
+	 * is unmapped by {@code close()}
+	 */
+	final class LineSpliterator implements Spliterator<String> {
+		static final int ESTIMATED_LINE_BYTES = 80;
+		private static final int MIN_SPLIT_BYTES = 64 * 1024;
+
+		private final ByteBuffer buffer;
+		private final Charset charset;
+		private final LineMatcher matcher;
+		private int position;
+		private final int end;
+		private byte[] scratch = new byte[256];
+
+		LineSpliterator(ByteBuffer buffer, Charset charset, LineMatcher matcher) {
+			this(buffer, charset, matcher, 0, buffer.capacity());
+		}
+
+		private LineSpliterator(ByteBuffer buffer, Charset charset, LineMatcher matcher, int position, int end) {
+			this.buffer = buffer;
+			this.charset = charset;
+			this.matcher = matcher;
+			this.position = position;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super String> action) {
+			while (position < end) {
+				String line = nextLine();
+				if (line != null) {
+					action.accept(line);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super String> action) {
+			while (position < end) {
+				String line = nextLine();
+				if (line != null)
+					action.accept(line);
+			}
+		}
+
+		/**
+		 * @return the next line, or {@code null} if the matcher rejected it
+		 */
+		private String nextLine() {
+			int length;
+			guard.enter();
+			try {
+				int start = position;
+				int lineEnd = start;
+				while (lineEnd < end) {
+					byte b = buffer.get(lineEnd);
+					if (b == '\n' || b == '\r')
+						break;
+					lineEnd++;
+				}
+				position = lineEnd + 1;
+				if (lineEnd < end && buffer.get(lineEnd) == '\r' && position < end && buffer.get(position) == '\n')
+					position++;
+				if (matcher != null && !matcher.matches(buffer, start, lineEnd))
+					return null;
+				length = lineEnd - start;
+				if (scratch.length < length)
+					scratch = new byte[Math.max(length, scratch.length * 2)];
+				buffer.get(start, scratch, 0, length);
+			} finally {
+				guard.exit();
+			}
+			return new String(scratch, 0, length, charset);
+		}
+
+		/**
+		 * splits at the first {@code '\n'} after the midpoint
+		 */
+		@Override
+		public Spliterator<String> trySplit() {
+			int remaining = end - position;
+			if (remaining < MIN_SPLIT_BYTES)
+				return null;
+			int middle = position + remaining / 2;
+			guard.enter();
+			try {
+				while (middle < end && buffer.get(middle - 1) != '\n')
+					middle++;
+			} finally {
+				guard.exit();
+			}
+			if (middle >= end)
+				return null;
+			LineSpliterator prefix = new LineSpliterator(buffer, charset, matcher, position, middle);
+			position = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Math.max(1, (end - position) / ESTIMATED_LINE_BYTES);
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		}
+	}
+}
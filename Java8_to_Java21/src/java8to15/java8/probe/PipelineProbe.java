@@ -0,0 +1,423 @@
+package java8to15.java8.probe;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Per-stage counters for a stream pipeline, instead of
+ * {@code peek(System.out::println)} tracing.
+ * <ul>
+ * <li>the lambdas of the stages are wrapped, i.e.
+ * {@code filter(probe.filter("even", n -> n % 2 == 0))}, and every wrapped
+ * stage counts the elements that reach it and, for a filter, the elements that
+ * pass, so the selectivity of every filter of a long chain is known</li>
+ * <li>the time spent inside the lambda is only measured on a sample of the
+ * calls (one in {@code sampleEvery}, picked at random per thread) since two
+ * {@code System.nanoTime()} calls cost more than a cheap predicate; the
+ * sampled times go into a log2 histogram and the total time of a stage is
+ * estimated from the sample</li>
+ * <li>the counters are {@code LongAdder}s and the histogram an
+ * {@code AtomicLongArray}, so parallel streams record without locks and
+ * without printing anything while they run</li>
+ * <li>{@link #report()} gives one line per stage, in the order the stages were
+ * created, and marks the stage with the largest estimated time</li>
+ * <li>{@link #disabled()} hands the lambdas back unwrapped, so the probe can
+ * stay in the code at no cost</li>
+ * </ul>
+ * Stages with the same name share their counters, a probe can be reused for
+ * several runs of a pipeline and {@link #reset()} between them.
+ */
+public final class PipelineProbe {
+
+	private static final PipelineProbe DISABLED = new PipelineProbe(0);
+
+	private final int sampleEvery;
+	private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+	private PipelineProbe(int sampleEvery) {
+		this.sampleEvery = sampleEvery;
+	}
+
+	/**
+	 * times one call in {@code sampleEvery} (1 times every call)
+	 */
+	public static PipelineProbe sampling(int sampleEvery) {
+		if (sampleEvery < 1)
+			throw new IllegalArgumentException("sampleEvery must be at least 1: " + sampleEvery);
+		return new PipelineProbe(sampleEvery);
+	}
+
+	/**
+	 * records nothing, the stages are the lambdas themselves
+	 */
+	public static PipelineProbe disabled() {
+		return DISABLED;
+	}
+
+	public boolean isEnabled() {
+		return sampleEvery > 0;
+	}
+
+	public <T> Predicate<T> filter(String name, Predicate<T> predicate) {
+		if (!isEnabled())
+			return predicate;
+		Stage stage = stage(name, Kind.FILTER);
+		return element -> {
+			stage.in.increment();
+			boolean passed;
+			if (sampled()) {
+				long start = System.nanoTime();
+				passed = predicate.test(element);
+				stage.record(System.nanoTime() - start);
+			} else {
+				passed = predicate.test(element);
+			}
+			if (passed)
+				stage.out.increment();
+			return passed;
+		};
+	}
+
+	public IntPredicate filterInt(String name, IntPredicate predicate) {
+		if (!isEnabled())
+			return predicate;
+		Stage stage = stage(name, Kind.FILTER);
+		return value -> {
+			stage.in.increment();
+			boolean passed;
+			if (sampled()) {
+				long start = System.nanoTime();
+				passed = predicate.test(value);
+				stage.record(System.nanoTime() - start);
+			} else {
+				passed = predicate.test(value);
+			}
+			if (passed)
+				stage.out.increment();
+			return passed;
+		};
+	}
+
+	public <T, R> Function<T, R> map(String name, Function<T, R> mapper) {
+		if (!isEnabled())
+			return mapper;
+		Stage stage = stage(name, Kind.MAP);
+		return element -> {
+			stage.in.increment();
+			if (!sampled())
+				return mapper.apply(element);
+			long start = System.nanoTime();
+			R mapped = mapper.apply(element);
+			stage.record(System.nanoTime() - start);
+			return mapped;
+		};
+	}
+
+	public IntUnaryOperator mapInt(String name, IntUnaryOperator mapper) {
+		if (!isEnabled())
+			return mapper;
+		Stage stage = stage(name, Kind.MAP);
+		return value -> {
+			stage.in.increment();
+			if (!sampled())
+				return mapper.applyAsInt(value);
+			long start = System.nanoTime();
+			int mapped = mapper.applyAsInt(value);
+			stage.record(System.nanoTime() - start);
+			return mapped;
+		};
+	}
+
+	/**
+	 * for {@code peek()}: counts the elements that get this far
+	 */
+	public <T> Consumer<T> count(String name) {
+		if (!isEnabled())
+			return element -> {
+			};
+		Stage stage = stage(name, Kind.COUNT);
+		return element -> stage.in.increment();
+	}
+
+	public IntConsumer countInt(String name) {
+		if (!isEnabled())
+			return value -> {
+			};
+		Stage stage = stage(name, Kind.COUNT);
+		return value -> stage.in.increment();
+	}
+
+	private boolean sampled() {
+		return sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+	}
+
+	private synchronized Stage stage(String name, Kind kind) {
+		Stage stage = stages.computeIfAbsent(name, key -> new Stage(key, kind));
+		if (stage.kind != kind)
+			throw new IllegalArgumentException("stage " + name + " is already a " + stage.kind);
+		return stage;
+	}
+
+	/**
+	 * the stages in the order they were created
+	 */
+	public synchronized List<Stage> stages() {
+		return List.copyOf(stages.values());
+	}
+
+	public void reset() {
+		stages().forEach(Stage::reset);
+	}
+
+	/**
+	 * one line per stage: elements in and out, pass rate, the sampled call
+	 * times and the estimated total time; the stage that took the longest is
+	 * marked as the hot one
+	 */
+	public String report() {
+		List<Stage> stages = stages();
+		Stage hottest = null;
+		for (Stage stage : stages)
+			if (stage.kind != Kind.COUNT && (hottest == null || stage.estimatedNanos() > hottest.estimatedNanos()))
+				hottest = stage;
+		StringBuilder report = new StringBuilder(String.format("%-24s %6s %14s %14s %7s %9s %8s %9s %9s %10s%n",
+				"stage", "kind", "in", "out", "pass %", "sampled", "avg ns", "p50<= ns", "p99<= ns", "est. ms"));
+		for (Stage stage : stages) {
+			if (stage.kind == Kind.COUNT) {
+				report.append(String.format("%-24s %6s %,14d%n", stage.name, stage.kind, stage.in()));
+				continue;
+			}
+			report.append(String.format("%-24s %6s %,14d %,14d %7.2f %,9d %,8d %,9d %,9d %,10.1f%s%n", stage.name,
+					stage.kind, stage.in(), stage.out(), stage.selectivity() * 100, stage.sampled(),
+					stage.averageNanos(), stage.percentileNanos(0.5), stage.percentileNanos(0.99),
+					stage.estimatedNanos() / 1e6,
+					(stage == hottest && stage.estimatedNanos() > 0) ? "  <- hottest" : ""));
+		}
+		return report.toString();
+	}
+
+	@Override
+	public String toString() {
+		return report();
+	}
+
+	public enum Kind {
+		FILTER, MAP, COUNT
+	}
+
+	/**
+	 * the counters of one stage; they are read while the pipeline may still be
+	 * running, so a report taken then is a snapshot, not an exact cut
+	 */
+	public static final class Stage {
+		private final String name;
+		private final Kind kind;
+		private final LongAdder in = new LongAdder();
+		private final LongAdder out = new LongAdder();
+		private final LongAdder sampledNanos = new LongAdder();
+		// bucket b holds the sampled calls that took [2^(b-1), 2^b) ns
+		private final AtomicLongArray histogram = new AtomicLongArray(64);
+
+		Stage(String name, Kind kind) {
+			this.name = name;
+			this.kind = kind;
+		}
+
+		void record(long nanos) {
+			nanos = Math.max(0, nanos);
+			sampledNanos.add(nanos);
+			histogram.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+		}
+
+		void reset() {
+			in.reset();
+			out.reset();
+			sampledNanos.reset();
+			for (int bucket = 0; bucket < histogram.length(); bucket++)
+				histogram.set(bucket, 0);
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public Kind kind() {
+			return kind;
+		}
+
+		public long in() {
+			return in.sum();
+		}
+
+		/**
+		 * the elements that passed a filter, every element for the other stages
+		 */
+		public long out() {
+			return (kind == Kind.FILTER) ? out.sum() : in.sum();
+		}
+
+		/**
+		 * out / in, 1 for a stage that saw nothing
+		 */
+		public double selectivity() {
+			long in = in();
+			return (in == 0) ? 1 : (double) out() / in;
+		}
+
+		public long sampled() {
+			long sampled = 0;
+			for (int bucket = 0; bucket < histogram.length(); bucket++)
+				sampled += histogram.get(bucket);
+			return sampled;
+		}
+
+		public long averageNanos() {
+			long sampled = sampled();
+			return (sampled == 0) ? 0 : sampledNanos.sum() / sampled;
+		}
+
+		/**
+		 * the upper bound of the histogram bucket that holds the given fraction
+		 * of the sampled calls
+		 */
+		public long percentileNanos(double fraction) {
+			if (fraction < 0 || fraction > 1)
+				throw new IllegalArgumentException("fraction must be in [0, 1]: " + fraction);
+			long sampled = sampled();
+			if (sampled == 0)
+				return 0;
+			long target = Math.max(1, (long) Math.ceil(sampled * fraction));
+			long seen = 0;
+			for (int bucket = 0; bucket < histogram.length(); bucket++) {
+				seen += histogram.get(bucket);
+				if (seen >= target)
+					return (bucket == 0) ? 0 : (bucket >= 63) ? Long.MAX_VALUE : 1L << bucket;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		/**
+		 * the time of all the calls, extrapolated from the sampled ones
+		 */
+		public long estimatedNanos() {
+			long sampled = sampled();
+			return (sampled == 0) ? 0 : (long) ((double) sampledNanos.sum() / sampled * in());
+		}
+	}
+
+	/**
+	 * 10M random ints through three filters of very different cost, without
+	 * the probe and with it at several sampling rates, sequential and parallel
+	 *
+	 * {@code java java8to15.java8.probe.PipelineProbe [values] [sampleEvery]}
+	 * (default 10M, 64)
+	 */
+	public static void main(String[] args) {
+		// one pass each, PipelineProbeBenchmark has the warmed up 10M overhead
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+		int sampleEvery = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+		int[] values = new Random(42).ints(count, 0, 1_000_000).toArray();
+		checkCounts(Arrays.copyOf(values, Math.min(values.length, 200_000)));
+
+		for (PipelineProbe probe : List.of(disabled(), sampling(sampleEvery), sampling(1))) {
+			for (boolean parallel : new boolean[] { false, true }) {
+				probe.reset();
+				IntStream stream = Arrays.stream(values);
+				long start = System.nanoTime();
+				long matches = (parallel ? stream.parallel() : stream)
+						.filter(probe.filterInt("odd", value -> value % 2 == 1))
+						.filter(probe.filterInt("digit sum > 20", value -> digitSum(value) > 20))
+						.filter(probe.filterInt("prime", PipelineProbe::isPrime))
+						.map(probe.mapInt("squared mod 1000", value -> (int) ((long) value * value % 1000)))
+						.count();
+				System.out.printf("%-20s %-10s %,d matches  %5d ms%n",
+						probe.isEnabled() ? "sampling(" + probe.sampleEvery + ")" : "disabled",
+						parallel ? "parallel" : "sequential", matches, (System.nanoTime() - start) / 1_000_000);
+				if (probe.isEnabled())
+					System.out.println(probe.report());
+			}
+		}
+	}
+
+	/**
+	 * the counts of every stage must be exact, sequential and parallel and
+	 * whatever the sampling, a disabled probe must hand back the lambdas, and
+	 * {@code reset()} must start from zero
+	 */
+	private static void checkCounts(int[] values) {
+		long odd = Arrays.stream(values).filter(value -> value % 2 == 1).count();
+		long digitSum = Arrays.stream(values).filter(value -> value % 2 == 1).filter(value -> digitSum(value) > 20)
+				.count();
+		for (PipelineProbe probe : List.of(sampling(1), sampling(7), sampling(1_000_000))) {
+			for (boolean parallel : new boolean[] { false, true }) {
+				probe.reset();
+				IntStream stream = Arrays.stream(values);
+				long matches = (parallel ? stream.parallel() : stream)
+						.filter(probe.filterInt("odd", value -> value % 2 == 1))
+						.peek(probe.countInt("after odd"))
+						.filter(probe.filterInt("digit sum > 20", value -> digitSum(value) > 20))
+						.map(probe.mapInt("negated", value -> -value))
+						.count();
+				List<Stage> stages = probe.stages();
+				check(stages.get(0).in() == values.length && stages.get(0).out() == odd, "odd counts", probe);
+				check(stages.get(1).in() == odd, "peek count", probe);
+				check(stages.get(2).in() == odd && stages.get(2).out() == digitSum, "digit sum counts", probe);
+				check(stages.get(3).in() == digitSum && stages.get(3).out() == digitSum && matches == digitSum,
+						"map counts", probe);
+				check(probe.sampleEvery > 1 || stages.get(0).sampled() == values.length, "every call timed", probe);
+				check(stages.get(0).percentileNanos(0.5) <= stages.get(0).percentileNanos(0.99), "percentiles",
+						probe);
+			}
+			probe.reset();
+			for (Stage stage : probe.stages())
+				check(stage.in() == 0 && stage.out() == 0 && stage.sampled() == 0 && stage.estimatedNanos() == 0,
+						"reset", probe);
+			try {
+				probe.mapInt("odd", value -> value);
+				throw new AssertionError("a filter stage was reused as a map");
+			} catch (IllegalArgumentException expected) {
+				// a stage keeps its kind
+			}
+		}
+		IntPredicate predicate = value -> true;
+		Predicate<String> objectPredicate = value -> true;
+		check(disabled().filterInt("any", predicate) == predicate
+				&& disabled().filter("any", objectPredicate) == objectPredicate && disabled().stages().isEmpty(),
+				"disabled hands the lambdas back", disabled());
+		System.out.println("PipelineProbe: exact counts");
+	}
+
+	private static void check(boolean condition, String what, PipelineProbe probe) {
+		if (!condition)
+			throw new AssertionError(what + " wrong, sampling " + probe.sampleEvery + System.lineSeparator() + probe);
+	}
+
+	private static int digitSum(int value) {
+		int sum = 0;
+		for (; value > 0; value /= 10)
+			sum += value % 10;
+		return sum;
+	}
+
+	private static boolean isPrime(int value) {
+		if (value < 2)
+			return false;
+		for (int divisor = 2; (long) divisor * divisor <= value; divisor++)
+			if (value % divisor == 0)
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,180 @@
+package java8to15.java9;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * {@code Flow.Subscriber} that hands the elements to a {@code Consumer} on its
+ * own {@code Executor}, through a buffer of at most {@code bufferSize}
+ * elements.
+ * <ul>
+ * <li>it starts with {@code request(bufferSize)} and asks for more only once
+ * half of the buffer has been consumed, one {@code request(n)} for all of
+ * them: a fast consumer costs one request per {@code bufferSize / 2} elements
+ * instead of one per element</li>
+ * <li>requested-but-not-arrived plus buffered elements never exceed
+ * {@code bufferSize}, so a slow consumer holds at most that many elements and
+ * the publisher is held back by the missing demand</li>
+ * <li>{@link #completion()} completes after the consumer has seen the last
+ * element, exceptionally on {@code onError} or when the consumer throws (which
+ * also cancels the subscription)</li>
+ * </ul>
+ * With {@code Runnable::run} as executor the consumer runs on the publisher's
+ * thread.
+ */
+public class BatchingSubscriber<T> implements Flow.Subscriber<T> {
+
+	private final Consumer<? super T> consumer;
+	private final int bufferSize;
+	private final int refillAt;
+	private final Executor executor;
+	private final Queue<T> buffer = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger buffered = new AtomicInteger();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+	private volatile Flow.Subscription subscription;
+	private volatile boolean done;
+	private volatile Throwable error;
+	private volatile boolean cancelled;
+	/** consumed since the last request, only touched by the drain */
+	private int consumedSinceRequest;
+
+	private final AtomicLong consumed = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicInteger maxBuffered = new AtomicInteger();
+
+	public BatchingSubscriber(Consumer<? super T> consumer, int bufferSize, Executor executor) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+		this.consumer = Objects.requireNonNull(consumer, "consumer");
+		this.bufferSize = bufferSize;
+		this.refillAt = Math.max(1, bufferSize / 2);
+		this.executor = Objects.requireNonNull(executor, "executor");
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription != null) { // rule 2.5, only one subscription
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		if (cancelled) {
+			subscription.cancel();
+			return;
+		}
+		request(bufferSize);
+	}
+
+	private void request(long n) {
+		requests.incrementAndGet();
+		subscription.request(n);
+	}
+
+	@Override
+	public void onNext(T item) {
+		buffer.offer(item);
+		maxBuffered.accumulateAndGet(buffered.incrementAndGet(), Math::max);
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		error = throwable;
+		done = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		drain();
+	}
+
+	/**
+	 * cancels the subscription, the buffered elements are dropped
+	 */
+	public void cancel() {
+		cancelUpstream();
+		completion.complete(null);
+	}
+
+	private void cancelUpstream() {
+		cancelled = true;
+		Flow.Subscription current = subscription;
+		if (current != null)
+			current.cancel();
+	}
+
+	public CompletableFuture<Void> completion() {
+		return completion;
+	}
+
+	public long consumed() {
+		return consumed.get();
+	}
+
+	/**
+	 * @return the number of {@code request(n)} calls made upstream
+	 */
+	public long requests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the most elements that were waiting in the buffer at once
+	 */
+	public int maxBuffered() {
+		return maxBuffered.get();
+	}
+
+	private void drain() {
+		if (wip.getAndIncrement() == 0)
+			executor.execute(this::consume);
+	}
+
+	private void consume() {
+		int missed = 1;
+		while (true) {
+			T item;
+			while (!cancelled && (item = buffer.poll()) != null) {
+				buffered.decrementAndGet();
+				try {
+					consumer.accept(item);
+				} catch (RuntimeException e) {
+					// fail the future before cancelling, cancel() would complete it normally
+					completion.completeExceptionally(e);
+					cancelUpstream();
+					buffer.clear();
+					return;
+				}
+				consumed.incrementAndGet();
+				if (++consumedSinceRequest >= refillAt && !done) {
+					request(consumedSinceRequest);
+					consumedSinceRequest = 0;
+				}
+			}
+			if (cancelled) {
+				buffer.clear();
+				return;
+			}
+			if (done && buffer.isEmpty()) {
+				if (error != null)
+					completion.completeExceptionally(error);
+				else
+					completion.complete(null);
+				return;
+			}
+			missed = wip.addAndGet(-missed);
+			if (missed == 0)
+				return;
+		}
+	}
+}
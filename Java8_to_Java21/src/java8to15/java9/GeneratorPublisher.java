@@ -0,0 +1,400 @@
+package java8to15.java9;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * java 9 {@code Flow.Publisher} over the infinite sources of
+ * {@code Stream.generate()} / {@code Stream.iterate()}.
+ * <ul>
+ * <li>nothing is generated without demand: an element is only pulled from the
+ * supplier / iterator when the subscriber has {@code request}ed it, so a slow
+ * subscriber paces the producer and nothing piles up on the publisher side</li>
+ * <li>elements are delivered from the {@code Executor} in runs of at most
+ * {@code maxBatch}, after that the task resubmits itself so one subscriber with
+ * unbounded demand does not own a pool thread forever</li>
+ * <li>{@code cancel()} stops generation before the next element, bad
+ * {@code request(n)} (n &lt;= 0) cancels and signals
+ * {@code IllegalArgumentException}, an exception from the source is signalled
+ * with {@code onError}</li>
+ * <li>the publisher is cold: every subscriber gets its own iterator (so
+ * {@link #iterate(Object, UnaryOperator)} starts at the seed for each of them,
+ * and a {@link #generate(Supplier)} supplier must be thread-safe if there are
+ * several subscribers)</li>
+ * </ul>
+ * {@link BatchingSubscriber} is the matching subscriber: bounded buffer and
+ * {@code request(n)} in batches.
+ */
+public class GeneratorPublisher<T> implements Flow.Publisher<T> {
+
+	public static final int DEFAULT_MAX_BATCH = 1024;
+
+	private final Supplier<? extends Iterator<? extends T>> source;
+	private final Executor executor;
+	private final int maxBatch;
+
+	/**
+	 * @param source   called once per subscriber
+	 * @param maxBatch elements delivered per executor task
+	 */
+	public GeneratorPublisher(Supplier<? extends Iterator<? extends T>> source, Executor executor, int maxBatch) {
+		if (maxBatch <= 0)
+			throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+		this.source = Objects.requireNonNull(source, "source");
+		this.executor = Objects.requireNonNull(executor, "executor");
+		this.maxBatch = maxBatch;
+	}
+
+	/**
+	 * {@code Stream.generate(supplier)} as a publisher
+	 */
+	public static <T> GeneratorPublisher<T> generate(Supplier<? extends T> supplier) {
+		Objects.requireNonNull(supplier, "supplier");
+		return new GeneratorPublisher<>(() -> new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public T next() {
+				return supplier.get();
+			}
+		}, ForkJoinPool.commonPool(), DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * {@code Stream.iterate(seed, f)} as a publisher
+	 */
+	public static <T> GeneratorPublisher<T> iterate(T seed, UnaryOperator<T> f) {
+		Objects.requireNonNull(f, "f");
+		return new GeneratorPublisher<>(() -> new Iterator<T>() {
+			private T next = seed;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public T next() {
+				T current = next;
+				next = f.apply(current);
+				return current;
+			}
+		}, ForkJoinPool.commonPool(), DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * any (finite or not) sequential stream, created per subscriber; completes
+	 * the subscriber when the stream ends
+	 */
+	public static <T> GeneratorPublisher<T> fromStream(Supplier<? extends Stream<? extends T>> streams) {
+		return new GeneratorPublisher<>(() -> streams.get().iterator(), ForkJoinPool.commonPool(), DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * throughput of a fast subscriber for a few request batch sizes, then a slow
+	 * subscriber against an unbounded hand-off queue
+	 */
+	public static void main(String[] args) throws Exception {
+		// a throwing consumer fails completion(), it must not look like a normal end
+		BatchingSubscriber<Long> failing = new BatchingSubscriber<>(n -> {
+			if (n == 100)
+				throw new IllegalStateException("consumer failed at " + n);
+		}, 16, Runnable::run);
+		iterate(0L, n -> n + 1).subscribe(failing);
+		check(failedWithin(failing.completion()), "a throwing consumer completes exceptionally");
+		check(failing.consumed() == 100, "nothing is consumed after the consumer threw");
+
+		// an executor that stops taking the resubmitted batches signals onError instead of hanging
+		AtomicInteger executions = new AtomicInteger();
+		Executor onlyOnce = task -> {
+			if (executions.getAndIncrement() > 0)
+				throw new RejectedExecutionException("shut down");
+			task.run();
+		};
+		BatchingSubscriber<Long> rejected = new BatchingSubscriber<>(n -> {
+		}, 4096, Runnable::run);
+		new GeneratorPublisher<Long>(() -> Stream.iterate(0L, n -> n + 1).iterator(), onlyOnce, 16).subscribe(rejected);
+		check(failedWithin(rejected.completion()), "a rejected resubmission fails the subscriber");
+		check(rejected.consumed() == 16, "only the first batch is delivered");
+
+		// a caller-runs executor with unbounded demand drains in a loop, the resubmissions do not recurse
+		AtomicLong inline = new AtomicLong();
+		CompletableFuture<Void> inlineDone = new CompletableFuture<>();
+		new GeneratorPublisher<Long>(() -> Stream.iterate(0L, n -> n + 1).limit(1_000_000).iterator(),
+				Runnable::run, 16).subscribe(new Flow.Subscriber<Long>() {
+					@Override
+					public void onSubscribe(Flow.Subscription subscription) {
+						subscription.request(Long.MAX_VALUE);
+					}
+
+					@Override
+					public void onNext(Long item) {
+						inline.incrementAndGet();
+					}
+
+					@Override
+					public void onError(Throwable throwable) {
+						inlineDone.completeExceptionally(throwable);
+					}
+
+					@Override
+					public void onComplete() {
+						inlineDone.complete(null);
+					}
+				});
+		check(inlineDone.isDone() && !inlineDone.isCompletedExceptionally() && inline.get() == 1_000_000,
+				"Runnable::run with request(Long.MAX_VALUE) delivers 62,500 batches without a StackOverflowError");
+
+		// finite sources complete, in order, across many small batches and resubmissions
+		for (int size : new int[] { 0, 1, 15, 16, 17, 1_000 }) {
+			List<Integer> received = new ArrayList<>();
+			BatchingSubscriber<Integer> ordered = new BatchingSubscriber<>(received::add, 3, Runnable::run);
+			new GeneratorPublisher<Integer>(() -> IntStream.range(0, size).iterator(), ForkJoinPool.commonPool(), 16)
+					.subscribe(ordered);
+			ordered.completion().get(10, TimeUnit.SECONDS);
+			check(received.equals(IntStream.range(0, size).boxed().collect(Collectors.toList())),
+					size + " elements arrive once each, in order");
+		}
+
+		// one pass of 2M, GeneratorPublisherBenchmark has the warmed up throughput
+		long count = 2_000_000;
+		for (int batch : new int[] { 1, 16, 256, 4096 }) {
+			AtomicLong sum = new AtomicLong();
+			BatchingSubscriber<Long> subscriber = new BatchingSubscriber<>(sum::addAndGet, batch, Runnable::run);
+			long start = System.nanoTime();
+			fromStream(() -> Stream.iterate(0L, n -> n + 1).limit(count)).subscribe(subscriber);
+			subscriber.completion().join();
+			long elapsed = System.nanoTime() - start;
+			System.out.printf("fast subscriber, batch %4d : %6.1f M elements/s  %,d request() calls%n", batch,
+					count * 1000.0 / elapsed, subscriber.requests());
+			if (sum.get() != count * (count - 1) / 2 || subscriber.consumed() != count)
+				throw new AssertionError("elements lost or repeated with batch " + batch);
+		}
+
+		// slow subscriber : 1 KB elements, 1 ms per element, for one second
+		BatchingSubscriber<byte[]> slow = new BatchingSubscriber<>(bytes -> sleep(1), 64, ForkJoinPool.commonPool());
+		generate(() -> new byte[1024]).subscribe(slow);
+		Thread.sleep(1000);
+		slow.cancel();
+		System.out.printf("slow subscriber, publisher : %,d consumed, never more than %d buffered%n", slow.consumed(),
+				slow.maxBuffered());
+		check(slow.maxBuffered() <= 64, "the publisher never overruns the subscriber's buffer");
+
+		BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+		AtomicInteger consumed = new AtomicInteger();
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread producer = new Thread(
+				() -> Stream.generate(() -> new byte[1024]).takeWhile(bytes -> running.get()).forEach(queue::add));
+		Thread consumer = new Thread(() -> {
+			try {
+				while (running.get() && queue.poll(10, TimeUnit.MILLISECONDS) != null) {
+					sleep(1);
+					consumed.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		consumer.start();
+		Thread.sleep(1000);
+		int backlog = queue.size();
+		running.set(false);
+		producer.join();
+		consumer.join();
+		System.out.printf("slow subscriber, Stream.generate into a queue : %,d consumed, %,d (%,d MB) waiting%n",
+				consumed.get(), backlog, backlog / 1024);
+	}
+
+	private static boolean failedWithin(CompletableFuture<Void> completion) throws Exception {
+		return completion.handle((result, failure) -> failure != null).get(10, TimeUnit.SECONDS);
+	}
+
+	private static void check(boolean condition, String expectation) {
+		if (!condition)
+			throw new AssertionError(expectation);
+		System.out.println("ok: " + expectation);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber");
+		Iterator<? extends T> iterator;
+		try {
+			iterator = source.get();
+		} catch (RuntimeException e) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(e);
+			return;
+		}
+		subscriber.onSubscribe(new GeneratorSubscription<>(subscriber, iterator, executor, maxBatch));
+	}
+
+	/**
+	 * all signals come from {@link #run()}, which only ever runs on one thread
+	 * at a time: whoever moves {@code wip} off 0 submits it, anyone else just
+	 * bumps {@code wip} so the running drain goes around once more. A full
+	 * batch resubmits the task; an executor that runs it right away on the
+	 * calling thread ({@code Runnable::run}) does not recurse, the nested
+	 * {@code run()} only tells the outer one to keep draining
+	 */
+	private static final class GeneratorSubscription<T> implements Flow.Subscription, Runnable {
+		/** the subscription this thread is resubmitting, cleared if the executor ran it inline */
+		private static final ThreadLocal<Object> RESUBMITTING = new ThreadLocal<>();
+
+		private final Flow.Subscriber<? super T> subscriber;
+		private final Iterator<? extends T> iterator;
+		private final Executor executor;
+		private final int maxBatch;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile Throwable badRequest;
+
+		GeneratorSubscription(Flow.Subscriber<? super T> subscriber, Iterator<? extends T> iterator,
+				Executor executor, int maxBatch) {
+			this.subscriber = subscriber;
+			this.iterator = iterator;
+			this.executor = executor;
+			this.maxBatch = maxBatch;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				badRequest = new IllegalArgumentException("request must be positive: " + n);
+			} else {
+				demand.getAndUpdate(current -> (current + n < 0) ? Long.MAX_VALUE : current + n);
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		private void schedule() {
+			if (wip.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RuntimeException e) { // rejected
+					cancelled = true;
+					subscriber.onError(e);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			if (RESUBMITTING.get() == this) {
+				RESUBMITTING.set(null); // inline resubmission, the run() below us goes on
+				return;
+			}
+			int missed = 1;
+			while (true) {
+				if (cancelled)
+					return;
+				if (badRequest != null) {
+					cancelled = true;
+					subscriber.onError(badRequest);
+					return;
+				}
+				long requested = demand.get();
+				long emitted = 0;
+				while (emitted != requested && emitted < maxBatch) {
+					if (cancelled)
+						return;
+					T next;
+					try {
+						if (!iterator.hasNext()) {
+							cancelled = true;
+							subscriber.onComplete();
+							return;
+						}
+						next = iterator.next();
+					} catch (RuntimeException e) {
+						cancelled = true;
+						subscriber.onError(e);
+						return;
+					}
+					subscriber.onNext(next);
+					emitted++;
+				}
+				if (emitted != 0 && requested != Long.MAX_VALUE)
+					requested = demand.addAndGet(-emitted);
+				if (emitted == maxBatch && requested != 0) {
+					if (resubmittedInline())
+						continue;
+					return;
+				}
+				missed = wip.addAndGet(-missed);
+				if (missed == 0)
+					return;
+			}
+		}
+
+		/**
+		 * hands the rest to the executor to let other tasks in, wip stays &gt; 0
+		 * meanwhile
+		 *
+		 * @return {@code true} if the executor ran it on this thread, so the
+		 *         caller has to drain on instead
+		 */
+		private boolean resubmittedInline() {
+			Object previous = RESUBMITTING.get();
+			RESUBMITTING.set(this);
+			boolean inline = false;
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) { // rejected, nothing would ever run the rest
+				cancelled = true;
+				subscriber.onError(e);
+			} finally {
+				inline = RESUBMITTING.get() != this;
+				if (previous == null)
+					RESUBMITTING.remove();
+				else
+					RESUBMITTING.set(previous);
+			}
+			return inline;
+		}
+	}
+}